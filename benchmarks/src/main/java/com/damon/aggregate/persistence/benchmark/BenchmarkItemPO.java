@@ -0,0 +1,175 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.damon.aggregate.persistence.ID;
+
+import java.math.BigDecimal;
+
+@TableName("benchmark_item")
+public class BenchmarkItemPO implements ID<Long> {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private Long orderId;
+    private Long attribute1;
+    private String attribute2;
+    private Integer attribute3;
+    private BigDecimal attribute4;
+    private Long attribute5;
+    private String attribute6;
+    private Integer attribute7;
+    private BigDecimal attribute8;
+    private Long attribute9;
+    private String attribute10;
+    private Integer attribute11;
+    private BigDecimal attribute12;
+    private Long attribute13;
+    private String attribute14;
+    private Integer attribute15;
+    private BigDecimal attribute16;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getAttribute1() {
+        return attribute1;
+    }
+
+    public void setAttribute1(Long attribute1) {
+        this.attribute1 = attribute1;
+    }
+
+    public String getAttribute2() {
+        return attribute2;
+    }
+
+    public void setAttribute2(String attribute2) {
+        this.attribute2 = attribute2;
+    }
+
+    public Integer getAttribute3() {
+        return attribute3;
+    }
+
+    public void setAttribute3(Integer attribute3) {
+        this.attribute3 = attribute3;
+    }
+
+    public BigDecimal getAttribute4() {
+        return attribute4;
+    }
+
+    public void setAttribute4(BigDecimal attribute4) {
+        this.attribute4 = attribute4;
+    }
+
+    public Long getAttribute5() {
+        return attribute5;
+    }
+
+    public void setAttribute5(Long attribute5) {
+        this.attribute5 = attribute5;
+    }
+
+    public String getAttribute6() {
+        return attribute6;
+    }
+
+    public void setAttribute6(String attribute6) {
+        this.attribute6 = attribute6;
+    }
+
+    public Integer getAttribute7() {
+        return attribute7;
+    }
+
+    public void setAttribute7(Integer attribute7) {
+        this.attribute7 = attribute7;
+    }
+
+    public BigDecimal getAttribute8() {
+        return attribute8;
+    }
+
+    public void setAttribute8(BigDecimal attribute8) {
+        this.attribute8 = attribute8;
+    }
+
+    public Long getAttribute9() {
+        return attribute9;
+    }
+
+    public void setAttribute9(Long attribute9) {
+        this.attribute9 = attribute9;
+    }
+
+    public String getAttribute10() {
+        return attribute10;
+    }
+
+    public void setAttribute10(String attribute10) {
+        this.attribute10 = attribute10;
+    }
+
+    public Integer getAttribute11() {
+        return attribute11;
+    }
+
+    public void setAttribute11(Integer attribute11) {
+        this.attribute11 = attribute11;
+    }
+
+    public BigDecimal getAttribute12() {
+        return attribute12;
+    }
+
+    public void setAttribute12(BigDecimal attribute12) {
+        this.attribute12 = attribute12;
+    }
+
+    public Long getAttribute13() {
+        return attribute13;
+    }
+
+    public void setAttribute13(Long attribute13) {
+        this.attribute13 = attribute13;
+    }
+
+    public String getAttribute14() {
+        return attribute14;
+    }
+
+    public void setAttribute14(String attribute14) {
+        this.attribute14 = attribute14;
+    }
+
+    public Integer getAttribute15() {
+        return attribute15;
+    }
+
+    public void setAttribute15(Integer attribute15) {
+        this.attribute15 = attribute15;
+    }
+
+    public BigDecimal getAttribute16() {
+        return attribute16;
+    }
+
+    public void setAttribute16(BigDecimal attribute16) {
+        this.attribute16 = attribute16;
+    }
+}
@@ -0,0 +1,79 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.damon.aggregate.persistence.Versionable;
+
+import java.util.List;
+
+/**
+ * Aggregate root of the benchmarks.
+ */
+public class BenchmarkOrder implements Versionable<Long> {
+    private Long id;
+    private Integer version;
+    private Integer status;
+    private String remark;
+    private List<BenchmarkItem> items;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public String getRemark() {
+        return remark;
+    }
+
+    public void setRemark(String remark) {
+        this.remark = remark;
+    }
+
+    public List<BenchmarkItem> getItems() {
+        return items;
+    }
+
+    public void setItems(List<BenchmarkItem> items) {
+        this.items = items;
+    }
+
+    public static BenchmarkItemPO convert(BenchmarkItem item) {
+        BenchmarkItemPO itemPO = new BenchmarkItemPO();
+        itemPO.setId(item.getId());
+        itemPO.setOrderId(item.getOrderId());
+        itemPO.setAttribute1(item.getAttribute1());
+        itemPO.setAttribute2(item.getAttribute2());
+        itemPO.setAttribute3(item.getAttribute3());
+        itemPO.setAttribute4(item.getAttribute4());
+        itemPO.setAttribute5(item.getAttribute5());
+        itemPO.setAttribute6(item.getAttribute6());
+        itemPO.setAttribute7(item.getAttribute7());
+        itemPO.setAttribute8(item.getAttribute8());
+        itemPO.setAttribute9(item.getAttribute9());
+        itemPO.setAttribute10(item.getAttribute10());
+        itemPO.setAttribute11(item.getAttribute11());
+        itemPO.setAttribute12(item.getAttribute12());
+        itemPO.setAttribute13(item.getAttribute13());
+        itemPO.setAttribute14(item.getAttribute14());
+        itemPO.setAttribute15(item.getAttribute15());
+        itemPO.setAttribute16(item.getAttribute16());
+        return itemPO;
+    }
+}
@@ -0,0 +1,96 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.AggregateFactory;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A loaded order aggregate whose root was then changed.
+ * <ul>
+ * <li>{@code width}: populated attributes per child, out of 16</li>
+ * <li>{@code children}: number of children</li>
+ * <li>{@code changeRatio}: share of children with a changed attribute</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class BenchmarkState {
+    @Param({"4", "16"})
+    public int width;
+
+    @Param({"10", "1000", "10000"})
+    public int children;
+
+    @Param({"0.0", "0.1", "1.0"})
+    public double changeRatio;
+
+    public Aggregate<BenchmarkOrder> aggregate;
+    public List<BenchmarkItem> newItems;
+    public List<BenchmarkItem> oldItems;
+    public List<BenchmarkItemPO> newEntities;
+    public List<BenchmarkItemPO> oldEntities;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // ObjectComparator compares the columns of the MyBatis-Plus table info
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), "benchmark"), BenchmarkItemPO.class);
+
+        BenchmarkOrder order = new BenchmarkOrder();
+        order.setId(1L);
+        order.setVersion(1);
+        order.setStatus(1);
+        order.setRemark("benchmark");
+        List<BenchmarkItem> items = new ArrayList<>(children);
+        for (int i = 0; i < children; i++) {
+            items.add(newItem(i));
+        }
+        order.setItems(items);
+        aggregate = AggregateFactory.createAggregate(order);
+
+        int changed = (int) Math.round(children * changeRatio);
+        for (int i = 0; i < changed; i++) {
+            BenchmarkItem item = items.get((int) ((long) i * children / changed));
+            item.setAttribute1(item.getAttribute1() + 1);
+        }
+        newItems = order.getItems();
+        oldItems = aggregate.getSnapshot().getItems();
+        newEntities = newItems.stream().map(BenchmarkOrder::convert).collect(Collectors.toList());
+        oldEntities = oldItems.stream().map(BenchmarkOrder::convert).collect(Collectors.toList());
+    }
+
+    private BenchmarkItem newItem(int index) {
+        BenchmarkItem item = new BenchmarkItem();
+        item.setId((long) index + 1);
+        item.setOrderId(1L);
+        item.setAttribute1((long) index);
+        item.setAttribute2("name-" + index);
+        item.setAttribute3(index);
+        item.setAttribute4(BigDecimal.valueOf(index, 2));
+        if (width > 4) {
+            item.setAttribute5((long) index);
+            item.setAttribute6("sku-" + index);
+            item.setAttribute7(index % 100);
+            item.setAttribute8(BigDecimal.TEN);
+            item.setAttribute9(System.currentTimeMillis());
+            item.setAttribute10("description of item " + index);
+            item.setAttribute11(1);
+            item.setAttribute12(BigDecimal.ONE);
+            item.setAttribute13((long) index * 31);
+            item.setAttribute14("warehouse-" + index % 8);
+            item.setAttribute15(index % 7);
+            item.setAttribute16(BigDecimal.valueOf(index));
+        }
+        return item;
+    }
+}
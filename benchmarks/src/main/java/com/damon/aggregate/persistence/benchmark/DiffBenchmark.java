@@ -0,0 +1,47 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.damon.aggregate.persistence.comparator.ChangePlan;
+import com.damon.aggregate.persistence.comparator.ChangedEntity;
+import com.damon.aggregate.persistence.comparator.ObjectComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Field and collection comparison of the child entities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+    @Benchmark
+    public void findChangedFields(BenchmarkState state, Blackhole blackhole) {
+        List<BenchmarkItemPO> newEntities = state.newEntities;
+        List<BenchmarkItemPO> oldEntities = state.oldEntities;
+        for (int i = 0; i < newEntities.size(); i++) {
+            blackhole.consume(ObjectComparator.findChangedFields(newEntities.get(i), oldEntities.get(i), false));
+        }
+    }
+
+    @Benchmark
+    public Collection<ChangedEntity<BenchmarkItemPO>> findChangedEntities(BenchmarkState state) {
+        return ObjectComparator.findChangedEntities(state.newEntities, state.oldEntities);
+    }
+
+    @Benchmark
+    public ChangePlan<BenchmarkItem, BenchmarkItemPO> planChanges(BenchmarkState state) {
+        return ObjectComparator.planChanges(state.newItems, state.oldItems, BenchmarkOrder::convert, null);
+    }
+}
@@ -0,0 +1,32 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.damon.aggregate.persistence.ChangeSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff and write of a child collection through {@code saveChangesList}, against a backend that executes no SQL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlushBenchmark {
+    private final StubRepository repository = new StubRepository();
+
+    @Benchmark
+    public ChangeSet saveChangesList(BenchmarkState state) {
+        return repository.saveChangesList(state.newItems, state.oldItems, BenchmarkOrder::convert);
+    }
+}
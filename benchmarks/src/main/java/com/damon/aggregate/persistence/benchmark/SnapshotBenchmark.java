@@ -0,0 +1,45 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.damon.aggregate.persistence.copier.DeepCopier;
+import com.damon.aggregate.persistence.copier.JsonDeepCopier;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot taking and change detection of a whole aggregate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    private final DeepCopier jsonDeepCopier = new JsonDeepCopier();
+    private final DeepCopier methodHandleDeepCopier = new MethodHandleDeepCopier();
+
+    @Benchmark
+    public BenchmarkOrder jsonCopy(BenchmarkState state) {
+        return jsonDeepCopier.copy(state.aggregate.getRoot());
+    }
+
+    @Benchmark
+    public BenchmarkOrder methodHandleCopy(BenchmarkState state) {
+        return methodHandleDeepCopier.copy(state.aggregate.getRoot());
+    }
+
+    @Benchmark
+    public boolean isChanged(BenchmarkState state) {
+        return state.aggregate.isChanged();
+    }
+}
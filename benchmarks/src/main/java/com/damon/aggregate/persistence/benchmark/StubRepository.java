@@ -0,0 +1,48 @@
+package com.damon.aggregate.persistence.benchmark;
+
+import com.damon.aggregate.persistence.DbRepositorySupport;
+import com.damon.aggregate.persistence.ID;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Repository backend that only counts the rows it is asked to write.
+ */
+public class StubRepository extends DbRepositorySupport {
+    private long rows;
+
+    @Override
+    protected <A extends ID> boolean insertBatch(Collection<A> items) {
+        rows += items.size();
+        return true;
+    }
+
+    @Override
+    protected <A extends ID> boolean deleteBatch(Collection<A> items) {
+        rows += items.size();
+        return true;
+    }
+
+    @Override
+    protected <A extends ID> boolean insert(A entity) {
+        rows++;
+        return true;
+    }
+
+    @Override
+    protected <A extends ID, B extends ID> boolean save(A entity, Function<A, B> converter) {
+        return insert(converter.apply(entity));
+    }
+
+    @Override
+    protected <A extends ID> boolean update(A entity, Set<String> changedFields) {
+        rows++;
+        return true;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+}
@@ -1,20 +1,70 @@
 package com.damon.aggregate.persistence;
 
 
-import cn.hutool.core.builder.EqualsBuilder;
 import com.damon.aggregate.persistence.copier.DeepCopier;
+import com.damon.aggregate.persistence.copier.SerializingDeepCopier;
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.metrics.Metrics;
+import com.damon.aggregate.persistence.snapshot.CopiedSnapshot;
+import com.damon.aggregate.persistence.snapshot.FingerprintSnapshot;
+import com.damon.aggregate.persistence.snapshot.SerializedSnapshot;
+import com.damon.aggregate.persistence.snapshot.Snapshot;
 
 public class Aggregate<R extends Versionable> {
     public static final int NEW_VERSION = 0;
     private R root;
-    private R snapshot;
+    private Snapshot<R> snapshot;
+    private boolean readOnly;
 
     public Aggregate(R root, DeepCopier deepCopier) {
         if (root == null) {
             return;
         }
         this.root = root;
-        this.snapshot = deepCopier.copy(root);
+        DirtyTracking.clearAll(root);
+        long start = Metrics.start();
+        long bytes = -1;
+        if (deepCopier instanceof SerializingDeepCopier) {
+            SerializedSnapshot<R> serializedSnapshot = new SerializedSnapshot<>(root, (SerializingDeepCopier) deepCopier);
+            bytes = serializedSnapshot.getSerializedSize();
+            this.snapshot = serializedSnapshot;
+        } else {
+            this.snapshot = new CopiedSnapshot<>(deepCopier.copy(root));
+        }
+        if (start != 0L) {
+            Metrics.get().snapshotTaken(root.getClass(), Metrics.elapsed(start), bytes);
+        }
+    }
+
+    public Aggregate(R root, Snapshot<R> snapshot) {
+        this(root, snapshot, true);
+    }
+
+    /**
+     * @param clearDirtyProperties false for a root whose pending changes are recorded in its dirty properties
+     */
+    Aggregate(R root, Snapshot<R> snapshot, boolean clearDirtyProperties) {
+        this.root = root;
+        this.snapshot = snapshot;
+        if (root != null && clearDirtyProperties) {
+            DirtyTracking.clearAll(root);
+        }
+    }
+
+    /**
+     * Read-only aggregate: holds the root without any snapshot, for query use only.
+     */
+    static <R extends Versionable> Aggregate<R> readOnly(R root) {
+        Aggregate<R> aggregate = new Aggregate<>(root, (Snapshot<R>) null);
+        aggregate.readOnly = true;
+        return aggregate;
+    }
+
+    /**
+     * Whether the aggregate was created read-only, without snapshot; it cannot be saved.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
     }
 
     /**
@@ -23,10 +73,19 @@ public class Aggregate<R extends Versionable> {
      * @return true if the aggregate is changed, false if the aggregate is unchanged.
      */
     public boolean isChanged() {
-        return !EqualsBuilder.reflectionEquals(root, snapshot, false);
+        checkWritable();
+        if (snapshot == null || root == null) {
+            return root != snapshot;
+        }
+        // A dirty root is changed without comparison
+        if (root instanceof DirtyTracking && !((DirtyTracking) root).dirtyProperties().isEmpty()) {
+            return true;
+        }
+        return snapshot.isChanged(root);
     }
 
     public boolean isNew() {
+        checkWritable();
         return root.getVersion() == NEW_VERSION || root.getVersion() == null;
     }
 
@@ -39,8 +98,24 @@ public class Aggregate<R extends Versionable> {
     }
 
     public R getSnapshot() {
+        checkWritable();
+        return snapshot == null ? null : snapshot.get();
+    }
+
+    /**
+     * The snapshot strategy holding the loaded state, e.g. a {@link FingerprintSnapshot} whose child fingerprints
+     * a repository uses to write only the changed rows.
+     *
+     * @return the snapshot strategy, null for an aggregate created without root
+     */
+    public Snapshot<R> getSnapshotStrategy() {
         return snapshot;
     }
-}
 
+    private void checkWritable() {
+        if (readOnly) {
+            throw new AggregatePersistenceException("Read-only aggregate has no snapshot and cannot be saved");
+        }
+    }
+}
 
@@ -1,10 +1,20 @@
 package com.damon.aggregate.persistence;
 
+import com.damon.aggregate.persistence.copier.BinaryDeepCopier;
 import com.damon.aggregate.persistence.copier.DeepCopier;
-import com.damon.aggregate.persistence.copier.JsonDeepCopier;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import com.damon.aggregate.persistence.metrics.Metrics;
+import com.damon.aggregate.persistence.snapshot.CopiedSnapshot;
+import com.damon.aggregate.persistence.snapshot.CopyOnWriteSnapshot;
+import com.damon.aggregate.persistence.snapshot.FingerprintSnapshot;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class AggregateFactory {
-    private static DeepCopier deepCopier = new JsonDeepCopier();
+    private static DeepCopier deepCopier = new MethodHandleDeepCopier();
+    private static DeepCopier binaryDeepCopier = new BinaryDeepCopier();
 
     private AggregateFactory() {
         throw new IllegalStateException("A factory class, please use static method");
@@ -18,4 +28,80 @@ public class AggregateFactory {
         return new Aggregate(root, deepCopier);
     }
 
+    /**
+     * Create a read-only aggregate for queries: the root is held as is, no snapshot is taken. Saving it fails fast,
+     * since {@link Aggregate#isNew()}, {@link Aggregate#isChanged()} and {@link Aggregate#getSnapshot()} throw.
+     */
+    public static <R extends Versionable> Aggregate<R> createReadOnlyAggregate(R root) {
+        return Aggregate.readOnly(root);
+    }
+
+    /**
+     * Create an aggregate of a root held in memory since it was last saved, e.g. by a write-behind buffer: the state
+     * last saved is the snapshot, and the dirty properties recorded since then are kept, unlike in the other
+     * factory methods which treat the root as freshly loaded.
+     *
+     * @param root  current root, with its pending changes
+     * @param saved state of the root when it was last saved, not shared with {@code root}
+     */
+    public static <R extends Versionable> Aggregate<R> createPendingAggregate(R root, R saved) {
+        return new Aggregate<>(root, new CopiedSnapshot<>(saved), false);
+    }
+
+    /**
+     * Create an aggregate whose snapshot is kept as a compact binary {@code byte[]} and only decoded when
+     * {@link Aggregate#getSnapshot()} or {@link Aggregate#isChanged()} needs it. Suited to services holding many
+     * aggregates in flight.
+     */
+    public static <R extends Versionable> Aggregate<R> createCompactAggregate(R root) {
+        return new Aggregate(root, binaryDeepCopier);
+    }
+
+    /**
+     * Create an aggregate with a copy-on-write snapshot: child lists of the root are replaced by tracking lists and
+     * their elements are only copied when first accessed, so an aggregate that is only read makes no child copies.
+     *
+     * @see CopyOnWriteSnapshot
+     */
+    public static <R extends Versionable> Aggregate<R> createCopyOnWriteAggregate(R root) {
+        if (root == null) {
+            return new Aggregate(null, deepCopier);
+        }
+        long start = Metrics.start();
+        Aggregate<R> aggregate = new Aggregate<>(root, new CopyOnWriteSnapshot<>(root, deepCopier));
+        if (start != 0L) {
+            Metrics.get().snapshotTaken(root.getClass(), Metrics.elapsed(start), -1);
+        }
+        return aggregate;
+    }
+
+    /**
+     * Create an aggregate that keeps only 64-bit fingerprints of the root and of each child entity instead of a copy.
+     * {@link Aggregate#getSnapshot()} is not available; save child collections with
+     * {@link DbRepositorySupport#saveChangesList(Collection, FingerprintSnapshot.Children, Function, Function)}.
+     *
+     * @see FingerprintSnapshot
+     */
+    public static <R extends Versionable> Aggregate<R> createFingerprintAggregate(R root) {
+        return createFingerprintAggregate(root, null);
+    }
+
+    /**
+     * Create a fingerprint aggregate whose {@link Aggregate#getSnapshot()} reloads the persisted root on demand.
+     *
+     * @param root     loaded root
+     * @param reloader loads the persisted root again
+     */
+    public static <R extends Versionable> Aggregate<R> createFingerprintAggregate(R root, Supplier<R> reloader) {
+        if (root == null) {
+            return new Aggregate(null, deepCopier);
+        }
+        long start = Metrics.start();
+        Aggregate<R> aggregate = new Aggregate<>(root, new FingerprintSnapshot<>(root, reloader));
+        if (start != 0L) {
+            Metrics.get().snapshotTaken(root.getClass(), Metrics.elapsed(start), -1);
+        }
+        return aggregate;
+    }
+
 }
@@ -0,0 +1,52 @@
+package com.damon.aggregate.persistence;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link DbRepositorySupport#saveAll}: the aggregates written, and those whose root update was rejected
+ * by the optimistic lock (their child changes were not written).
+ *
+ * @param <R> root type
+ */
+public class BatchSaveResult<R extends Versionable> {
+    private final List<Aggregate<R>> saved;
+    private final List<Aggregate<R>> failed;
+    private final ChangeSet changeSet;
+
+    public BatchSaveResult(List<Aggregate<R>> saved, List<Aggregate<R>> failed) {
+        this(saved, failed, ChangeSet.EMPTY);
+    }
+
+    public BatchSaveResult(List<Aggregate<R>> saved, List<Aggregate<R>> failed, ChangeSet changeSet) {
+        this.saved = Collections.unmodifiableList(saved);
+        this.failed = Collections.unmodifiableList(failed);
+        this.changeSet = changeSet;
+    }
+
+    /**
+     * New and changed aggregates whose changes were written
+     */
+    public List<Aggregate<R>> getSaved() {
+        return saved;
+    }
+
+    /**
+     * Aggregates not found or changed by another user
+     */
+    public List<Aggregate<R>> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Rows written for the saved aggregates (root inserts excepted, they are written by
+     * {@link DbRepositorySupport#save})
+     */
+    public ChangeSet getChangeSet() {
+        return changeSet;
+    }
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,284 @@
+package com.damon.aggregate.persistence;
+
+import com.damon.aggregate.persistence.comparator.ChangedEntity;
+import com.damon.aggregate.persistence.comparator.EntityComparator;
+
+import java.util.*;
+
+/**
+ * Immutable record of the rows written by one save: inserted, updated (with changed columns and their old and new
+ * values) and deleted persistence entities, per entity type. Returned by the save methods of
+ * {@link DbRepositorySupport} so that audit logs, cache invalidation or domain events can read the differences
+ * without comparing again.
+ * <p>
+ * Old and new values of updated rows are only read from the entities when {@link Update#getChanges()} is called.
+ * Rows updated from dirty properties declared to match the entity ({@link DirtyTracking#dirtyPropertiesMatchEntity()})
+ * are written without converting their old state, so their old values are unknown
+ * ({@link Update#isOldValueKnown()}), whichever save method wrote them.
+ */
+public final class ChangeSet {
+    /**
+     * Successful save that wrote nothing
+     */
+    public static final ChangeSet EMPTY = new ChangeSet(Collections.emptyMap(), true);
+
+    private final Map<Class<?>, EntityChanges> changes;
+    private final boolean successful;
+
+    private ChangeSet(Map<Class<?>, EntityChanges> changes, boolean successful) {
+        this.changes = changes;
+        this.successful = successful;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Whether every write succeeded; false when a row was not found or changed by another user
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * Whether no row was written
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Persistence entity types with written rows, in write order
+     */
+    public Set<Class<?>> getEntityTypes() {
+        return changes.keySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <B> List<B> getInserted(Class<B> type) {
+        EntityChanges entityChanges = changes.get(type);
+        return entityChanges == null ? Collections.emptyList() : (List<B>) entityChanges.inserted;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <B> List<Update<B>> getUpdated(Class<B> type) {
+        EntityChanges entityChanges = changes.get(type);
+        return entityChanges == null ? Collections.emptyList() : (List) entityChanges.updated;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <B> List<B> getDeleted(Class<B> type) {
+        EntityChanges entityChanges = changes.get(type);
+        return entityChanges == null ? Collections.emptyList() : (List<B>) entityChanges.deleted;
+    }
+
+    /**
+     * Change set holding the rows of both change sets, successful only if both are
+     */
+    public ChangeSet merge(ChangeSet other) {
+        if (other == null || other.isEmpty() && (other.successful || !successful)) {
+            return this;
+        }
+        return builder().addAll(this).addAll(other).build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ChangeSet{successful=").append(successful);
+        changes.forEach((type, entityChanges) -> builder.append(", ").append(type.getSimpleName())
+                .append("[inserted=").append(entityChanges.inserted.size())
+                .append(", updated=").append(entityChanges.updated.size())
+                .append(", deleted=").append(entityChanges.deleted.size()).append(']'));
+        return builder.append('}').toString();
+    }
+
+    /**
+     * An updated row
+     *
+     * @param <B> persistence entity type
+     */
+    public static final class Update<B> {
+        private final B oldEntity;
+        private final B newEntity;
+        private final Set<String> changedFields;
+        private volatile Map<String, FieldChange> fieldChanges;
+
+        private Update(B oldEntity, B newEntity, Set<String> changedFields) {
+            this.oldEntity = oldEntity;
+            this.newEntity = newEntity;
+            this.changedFields = Collections.unmodifiableSet(new LinkedHashSet<>(changedFields));
+        }
+
+        public Object getId() {
+            return newEntity instanceof ID ? ((ID<?>) newEntity).getId() : null;
+        }
+
+        /**
+         * Row before the update, null when the old value is unknown
+         */
+        public B getOldEntity() {
+            return oldEntity;
+        }
+
+        /**
+         * Whether the old row is known: false for updates taken from matching dirty properties, whose old state was
+         * never converted; their {@link FieldChange#getOldValue()} is then null.
+         */
+        public boolean isOldValueKnown() {
+            return oldEntity != null;
+        }
+
+        public B getNewEntity() {
+            return newEntity;
+        }
+
+        /**
+         * Changed property names
+         */
+        public Set<String> getChangedFields() {
+            return changedFields;
+        }
+
+        /**
+         * Changed properties with their column and old and new values
+         */
+        public Map<String, FieldChange> getChanges() {
+            Map<String, FieldChange> result = fieldChanges;
+            if (result == null) {
+                EntityComparator comparator = EntityComparator.forClass(newEntity.getClass());
+                result = new LinkedHashMap<>();
+                for (String field : changedFields) {
+                    result.put(field, new FieldChange(comparator.getColumn(field),
+                            oldEntity == null ? null : comparator.getValue(oldEntity, field), comparator.getValue(newEntity, field)));
+                }
+                result = Collections.unmodifiableMap(result);
+                fieldChanges = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Old and new value of a changed column
+     */
+    public static final class FieldChange {
+        private final String column;
+        private final Object oldValue;
+        private final Object newValue;
+
+        private FieldChange(String column, Object oldValue, Object newValue) {
+            this.column = column;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * Value before the update, null also when the old value is unknown ({@link Update#isOldValueKnown()})
+         */
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return column + ": " + oldValue + " -> " + newValue;
+        }
+    }
+
+    private static final class EntityChanges {
+        private final List<Object> inserted;
+        private final List<Update<?>> updated;
+        private final List<Object> deleted;
+
+        private EntityChanges() {
+            this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+
+        private EntityChanges(List<Object> inserted, List<Update<?>> updated, List<Object> deleted) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.deleted = deleted;
+        }
+
+        /**
+         * Read-only copy, unaffected by later changes of the builder
+         */
+        private EntityChanges seal() {
+            return new EntityChanges(Collections.unmodifiableList(new ArrayList<>(inserted)),
+                    Collections.unmodifiableList(new ArrayList<>(updated)), Collections.unmodifiableList(new ArrayList<>(deleted)));
+        }
+    }
+
+    /**
+     * Collects the rows written during a save
+     */
+    public static final class Builder {
+        private final Map<Class<?>, EntityChanges> changes = new LinkedHashMap<>();
+        private boolean successful = true;
+
+        private Builder() {
+        }
+
+        public Builder inserted(Collection<?> entities) {
+            for (Object entity : entities) {
+                entityChanges(entity.getClass()).inserted.add(entity);
+            }
+            return this;
+        }
+
+        public <B> Builder updated(ChangedEntity<B> changedEntity) {
+            B newEntity = changedEntity.getNewEntity();
+            entityChanges(newEntity.getClass()).updated.add(
+                    new Update<>(changedEntity.getOldEntity(), newEntity, changedEntity.getChangedFields()));
+            return this;
+        }
+
+        public Builder deleted(Collection<?> entities) {
+            for (Object entity : entities) {
+                entityChanges(entity.getClass()).deleted.add(entity);
+            }
+            return this;
+        }
+
+        /**
+         * Mark the save as failed: a row was not found or changed by another user
+         */
+        public Builder failed() {
+            this.successful = false;
+            return this;
+        }
+
+        public Builder addAll(ChangeSet changeSet) {
+            changeSet.changes.forEach((type, entityChanges) -> {
+                EntityChanges target = entityChanges(type);
+                target.inserted.addAll(entityChanges.inserted);
+                target.updated.addAll(entityChanges.updated);
+                target.deleted.addAll(entityChanges.deleted);
+            });
+            successful &= changeSet.successful;
+            return this;
+        }
+
+        public ChangeSet build() {
+            if (changes.isEmpty() && successful) {
+                return EMPTY;
+            }
+            Map<Class<?>, EntityChanges> sealed = new LinkedHashMap<>();
+            changes.forEach((type, entityChanges) -> sealed.put(type, entityChanges.seal()));
+            return new ChangeSet(Collections.unmodifiableMap(sealed), successful);
+        }
+
+        private EntityChanges entityChanges(Class<?> type) {
+            return changes.computeIfAbsent(type, key -> new EntityChanges());
+        }
+    }
+}
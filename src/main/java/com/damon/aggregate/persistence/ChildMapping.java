@@ -0,0 +1,125 @@
+package com.damon.aggregate.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Describes a child entity collection of an aggregate root for the aggregate-level save methods of
+ * {@link DbRepositorySupport}: how to get the collection from the root and how to convert its elements.
+ * <pre>
+ * ChildMapping.of(Order::getOrderItems, (order, item) -&gt; {
+ *     item.setOrderId(order.getId());
+ *     return OrderFactory.convert(item);
+ * });
+ * </pre>
+ * Collections nested in the children are described by child mappings of the child, the converter of each level
+ * propagating the parent key (generated parent IDs are set before the nested level is converted):
+ * <pre>
+ * ChildMapping.of(Shipment::getPackages, (shipment, pkg) -&gt; ShipmentFactory.convert(shipment.getId(), pkg))
+ *         .withChildren(ChildMapping.of(Package::getParcels, (pkg, parcel) -&gt; ShipmentFactory.convert(pkg.getId(), parcel)));
+ * </pre>
+ *
+ * @param <R> owner type
+ * @param <T> child domain model type
+ * @param <B> child persistence entity type
+ */
+public final class ChildMapping<R, T extends ID, B extends ID> {
+    private final Function<R, ? extends Collection<T>> getter;
+    private final BiFunction<R, T, B> converter;
+    private final Predicate<T> isNew;
+    private final List<ChildMapping<T, ?, ?>> childMappings;
+    private final boolean compareDomain;
+
+    private ChildMapping(Function<R, ? extends Collection<T>> getter, BiFunction<R, T, B> converter, Predicate<T> isNew,
+                         List<ChildMapping<T, ?, ?>> childMappings, boolean compareDomain) {
+        this.getter = Objects.requireNonNull(getter, "Collection getter cannot be null");
+        this.converter = Objects.requireNonNull(converter, "Conversion function cannot be null");
+        this.isNew = isNew;
+        this.childMappings = childMappings;
+        this.compareDomain = compareDomain;
+    }
+
+    public static <R, T extends ID, B extends ID> ChildMapping<R, T, B> of(Function<R, ? extends Collection<T>> getter,
+                                                                          Function<T, B> converter) {
+        Objects.requireNonNull(converter, "Conversion function cannot be null");
+        return new ChildMapping<>(getter, (owner, item) -> converter.apply(item), null, Collections.emptyList(), false);
+    }
+
+    /**
+     * @param getter    gets the child collection of an owner
+     * @param converter converts a child of the given owner, e.g. copying the owner ID to the child
+     */
+    public static <R, T extends ID, B extends ID> ChildMapping<R, T, B> of(Function<R, ? extends Collection<T>> getter,
+                                                                          BiFunction<R, T, B> converter) {
+        return new ChildMapping<>(getter, converter, null, Collections.emptyList(), false);
+    }
+
+    /**
+     * Copy of this mapping with a custom predicate for identifying new children (by default, children whose ID is
+     * null or absent from the snapshot are new).
+     */
+    public ChildMapping<R, T, B> isNew(Predicate<T> isNew) {
+        return new ChildMapping<>(getter, converter, isNew, childMappings, compareDomain);
+    }
+
+    /**
+     * Copy of this mapping comparing kept children field by field before converting them: children equal to their
+     * snapshot are skipped without conversion, which pays off when most children are unchanged. The converter then
+     * runs only for changed children, so nothing may rely on its side effects (e.g. setting the owner ID on the child,
+     * as in the example above). Off by default.
+     */
+    public ChildMapping<R, T, B> compareDomain() {
+        return new ChildMapping<>(getter, converter, isNew, childMappings, true);
+    }
+
+    /**
+     * Copy of this mapping with collections nested in the children, saved after (inserts) or before (deletes) the
+     * children themselves.
+     */
+    @SafeVarargs
+    public final ChildMapping<R, T, B> withChildren(ChildMapping<T, ?, ?>... children) {
+        List<ChildMapping<T, ?, ?>> nested = new ArrayList<>(childMappings);
+        for (ChildMapping<T, ?, ?> child : children) {
+            nested.add(Objects.requireNonNull(child, "Child mapping cannot be null"));
+        }
+        return new ChildMapping<>(getter, converter, isNew, Collections.unmodifiableList(nested), compareDomain);
+    }
+
+    /**
+     * Child collection of an owner, null if the owner has none
+     */
+    public Collection<T> getChildren(R owner) {
+        return owner == null ? null : getter.apply(owner);
+    }
+
+    /**
+     * Mappings of the collections nested in the children
+     */
+    public List<ChildMapping<T, ?, ?>> getChildMappings() {
+        return childMappings;
+    }
+
+    public B convert(R owner, T item) {
+        return converter.apply(owner, item);
+    }
+
+    /**
+     * Predicate identifying new children, null for the default rule
+     */
+    public Predicate<T> getIsNew() {
+        return isNew;
+    }
+
+    /**
+     * Whether kept children are compared as domain objects before conversion, see {@link #compareDomain()}
+     */
+    public boolean isCompareDomain() {
+        return compareDomain;
+    }
+}
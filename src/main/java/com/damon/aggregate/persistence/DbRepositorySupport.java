@@ -1,21 +1,33 @@
 package com.damon.aggregate.persistence;
 
+import com.damon.aggregate.persistence.comparator.ChangePlan;
 import com.damon.aggregate.persistence.comparator.ChangedEntity;
 import com.damon.aggregate.persistence.comparator.ObjectComparator;
 import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.metrics.Metrics;
+import com.damon.aggregate.persistence.metrics.PersistenceMetrics;
+import com.damon.aggregate.persistence.snapshot.CopyOnWriteSnapshot;
+import com.damon.aggregate.persistence.snapshot.FingerprintSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  * Database repository support class providing safe update and list incremental update operations
  */
 public abstract class DbRepositorySupport {
     private static final Logger log = LoggerFactory.getLogger(DbRepositorySupport.class);
+    private static final Executor DEFAULT_DIFF_EXECUTOR = defaultDiffExecutor();
 
     /**
      * Execute update operation
@@ -23,39 +35,62 @@ public abstract class DbRepositorySupport {
      * @param newObj   new object
      * @param oldObj   old object
      * @param function function to convert old object to new object
-     * @return true if update is successful
+     * @return the written change, {@link ChangeSet#isSuccessful()} is false if the update was rejected
      */
-    public <A extends ID, B extends ID> boolean saveChanges(B newObj, B oldObj, Function<B, A> function) {
+    public <A extends ID, B extends ID> ChangeSet saveChanges(B newObj, B oldObj, Function<B, A> function) {
         // Null pointer checks
         Objects.requireNonNull(newObj, "New object cannot be null");
         Objects.requireNonNull(oldObj, "Old object cannot be null");
         Objects.requireNonNull(function, "Conversion function cannot be null");
 
+        // Dirty-tracked entity without dirty properties: unchanged by contract, nothing to convert or compare
+        Set<String> dirtyProperties = newObj instanceof DirtyTracking ? ((DirtyTracking) newObj).dirtyProperties() : null;
+        if (dirtyProperties != null && dirtyProperties.isEmpty()) {
+            log.debug("[Entity: {}] No dirty properties, no update needed. Entity ID: {}",
+                    newObj.getClass().getSimpleName(), newObj.getId());
+            return ChangeSet.EMPTY;
+        }
+
+        long diffStart = Metrics.start();
         A newEntity = function.apply(newObj);
-        A oldEntity = function.apply(oldObj);
         String entityType = newEntity.getClass().getSimpleName();
         Object entityId = newEntity.getId();
 
-        // Find changed fields
-        Set<String> changedFields = ObjectComparator.findChangedFields(newEntity, oldEntity, false);
+        // Find changed fields: dirty properties declared to match the entity need no comparison (nor old entity)
+        A oldEntity = null;
+        Set<String> changedFields = DirtyTracking.changedProperties(newObj, newEntity.getClass());
+        if (changedFields == null) {
+            oldEntity = function.apply(oldObj);
+            changedFields = ObjectComparator.findChangedFields(newEntity, oldEntity, false);
+        }
+        if (diffStart != 0L) {
+            Metrics.get().diffCompleted(newObj.getClass(), Metrics.elapsed(diffStart), changedFields.isEmpty() ? 0 : 1, changedFields.size());
+        }
         if (changedFields.isEmpty()) {
             log.debug("[Entity: {}] No changes detected, no update needed. Entity ID: {}", entityType, entityId);
-            return true;
+            return ChangeSet.EMPTY;
         }
 
         // Execute update and sync version number
+        long start = Metrics.start();
         boolean result = update(newEntity, changedFields);
+        recordSql(newEntity.getClass(), PersistenceMetrics.Operation.UPDATE, start, result ? 1 : 0);
         if (result) {
             if (newEntity instanceof Versionable && newObj instanceof Versionable) {
                 Integer version = ((Versionable) newEntity).getVersion();
                 ((Versionable) newObj).setVersion(version);
             }
+            if (dirtyProperties != null) {
+                ((DirtyTracking) newObj).clearDirtyProperties();
+            }
             log.debug("[Entity: {}] Safe update successful. Entity ID: {}, Changed fields: {}",
                     entityType, entityId, changedFields);
         } else {
             log.warn("[Entity: {}] Safe update failed. Entity ID: {}", entityType, entityId);
+            recordOptimisticLockFailure(newEntity);
+            return ChangeSet.builder().failed().build();
         }
-        return result;
+        return ChangeSet.builder().updated(new ChangedEntity<>(oldEntity, newEntity, changedFields)).build();
     }
 
 
@@ -70,9 +105,9 @@ public abstract class DbRepositorySupport {
      * @param converter Conversion function (domain model -> persistence entity)
      * @param <A>       Persistence entity type extending {@link ID}
      * @param <B>       Domain model type extending {@link ID}
-     * @return Whether the operation succeeded
+     * @return the written changes, {@link ChangeSet#isSuccessful()} is false if an update or delete was rejected
      */
-    public <A extends ID, B extends ID> boolean saveChangesList(Collection<B> newItems, Collection<B> oldItems, Function<B, A> converter) {
+    public <A extends ID, B extends ID> ChangeSet saveChangesList(Collection<B> newItems, Collection<B> oldItems, Function<B, A> converter) {
         return saveChangesList(newItems, oldItems, converter, null);
     }
 
@@ -86,9 +121,9 @@ public abstract class DbRepositorySupport {
      * @param isNew     Predicate to determine if an entity is new
      * @param <T>       Domain model type extending {@link ID}
      * @param <B>       Persistence entity type extending {@link ID}
-     * @return Whether the operation succeeded
+     * @return the written changes, {@link ChangeSet#isSuccessful()} is false if an update or delete was rejected
      */
-    public <T extends ID, B extends ID> boolean saveChangesList(Collection<T> newItems, Collection<T> oldItems,
+    public <T extends ID, B extends ID> ChangeSet saveChangesList(Collection<T> newItems, Collection<T> oldItems,
                                                                 Function<T, B> converter, Predicate<T> isNew) {
         // Handle null collections to avoid NPE
         Collection<T> safeNewItems = Optional.ofNullable(newItems).orElse(Collections.emptyList());
@@ -98,53 +133,386 @@ public abstract class DbRepositorySupport {
         // Determine entity type
         String entityType = getEntityType(safeNewItems, converter);
 
-        // 1. Handle new entities
-        Collection<T> newAddItems = findNewEntities(safeNewItems, safeOldItems, isNew);
-        handleNewEntities(newAddItems, converter, entityType);
+        // A copy-on-write child list that was never touched is unchanged
+        if (CopyOnWriteSnapshot.isUntouched(safeNewItems)) {
+            log.debug("[Entity: {}] Collection untouched since load, no changes to persist", entityType);
+            return ChangeSet.EMPTY;
+        }
+        safeNewItems = CopyOnWriteSnapshot.unwrap(safeNewItems);
 
-        // 2. Handle updated entities
-        handleUpdatedEntities(safeNewItems, safeOldItems, newAddItems, converter, entityType);
+        // Index, convert and compare both collections in one pass
+        ChangePlan<T, B> plan = ObjectComparator.planChanges(safeNewItems, safeOldItems, converter, isNew, false, parallelThreshold());
 
-        // 3. Handle deleted entities
-        boolean deleteResult = handleDeletedEntities(safeNewItems, safeOldItems, converter, entityType);
+        return writePlan(plan, entityType, ChangeSet.builder()).build();
+    }
+
+    /**
+     * Persist changes of a child collection of a fingerprint aggregate
+     * ({@link AggregateFactory#createFingerprintAggregate(Versionable)}).
+     * <p>
+     * Rows whose fingerprint is unchanged are skipped without conversion; the old values are fetched through
+     * {@code oldLoader} only for the changed and removed rows, then the usual insert/update/delete plan is executed.
+     * Loaded rows are never inserted again: a row that {@code oldLoader} no longer returns (deleted or changed by
+     * another transaction) makes the change set fail, like a rejected update.
+     *
+     * @param newItems     New entity list (current state)
+     * @param fingerprints Fingerprints of the loaded children, from {@link FingerprintSnapshot#getChildren(Class)}
+     * @param oldLoader    Loads the persisted domain entities of the given IDs
+     * @param converter    Conversion function (domain model -> persistence entity)
+     * @param <T>          Domain model type extending {@link ID}
+     * @param <B>          Persistence entity type extending {@link ID}
+     * @return the written changes, {@link ChangeSet#isSuccessful()} is false if an update or delete was rejected
+     */
+    public <T extends ID, B extends ID> ChangeSet saveChangesList(Collection<T> newItems, FingerprintSnapshot.Children fingerprints,
+                                                                Function<Collection<Object>, Collection<T>> oldLoader,
+                                                                Function<T, B> converter) {
+        Collection<T> safeNewItems = CopyOnWriteSnapshot.unwrap(Optional.ofNullable(newItems).orElse(Collections.emptyList()));
+        Objects.requireNonNull(fingerprints, "Fingerprints cannot be null");
+        Objects.requireNonNull(oldLoader, "Old entity loader cannot be null");
+
+        List<T> changedItems = fingerprints.findChangedItems(safeNewItems);
+        Set<Object> oldIds = fingerprints.findChangedIds(safeNewItems);
+        if (changedItems.isEmpty() && oldIds.isEmpty()) {
+            log.debug("[Entity: {}] Fingerprints unchanged, no changes to persist", getEntityType(safeNewItems, converter));
+            return ChangeSet.EMPTY;
+        }
+        Collection<T> oldItems = oldIds.isEmpty() ? Collections.emptyList() : oldLoader.apply(oldIds);
+        Set<Object> missingIds = new LinkedHashSet<>(oldIds);
+        for (T oldItem : oldItems) {
+            missingIds.remove(oldItem.getId());
+        }
+        ChangeSet changes = saveChangesList(changedItems, oldItems, converter,
+                item -> item.getId() == null || !fingerprints.contains(item.getId()));
+        if (missingIds.isEmpty()) {
+            return changes;
+        }
+        log.warn("[Entity: {}] Loaded rows no longer found, changed by another user. IDs: {}",
+                getEntityType(safeNewItems, converter), missingIds);
+        return ChangeSet.builder().addAll(changes).failed().build();
+    }
+
+    /**
+     * Persist many aggregates with their changes merged across aggregates: all root updates with the same changed
+     * columns go out as one batch, and for each child mapping all inserts, updates and deletes are written together.
+     * <p>
+     * New aggregates have their root inserted one by one (children need the generated ID), their children join the
+     * batched inserts. An aggregate whose root insert fails or whose root update is rejected by the optimistic lock is
+     * reported in {@link BatchSaveResult#getFailed()} and its child changes are not written. Unchanged aggregates are skipped.
+     * Nested child mappings ({@link ChildMapping#withChildren}) are saved level by level, each level with one merged
+     * plan across all aggregates.
+     *
+     * @param aggregates    aggregates to save
+     * @param rootConverter Conversion function of the root (domain model -> persistence entity)
+     * @param children      child collections of the root
+     * @param <R>           Root type
+     * @param <P>           Root persistence entity type
+     * @return saved and failed aggregates
+     */
+    @SafeVarargs
+    public final <R extends Versionable, P extends ID> BatchSaveResult<R> saveAll(Collection<Aggregate<R>> aggregates,
+                                                                               Function<R, P> rootConverter,
+                                                                               ChildMapping<R, ?, ?>... children) {
+        Objects.requireNonNull(rootConverter, "Conversion function cannot be null");
+        List<Aggregate<R>> saved = new ArrayList<>();
+        List<Aggregate<R>> failed = new ArrayList<>();
+        // Snapshots of the saved aggregates, aligned by index with saved (null for new aggregates)
+        List<R> snapshots = new ArrayList<>();
+        List<ChangedEntity<P>> rootUpdates = new ArrayList<>();
+        List<Integer> rootUpdateIndexes = new ArrayList<>();
+        ChangeSet.Builder changes = ChangeSet.builder();
+
+        for (Aggregate<R> aggregate : Optional.ofNullable(aggregates).orElse(Collections.emptyList())) {
+            R root = aggregate.getRoot();
+            boolean isNew = aggregate.isNew();
+            if (isNew) {
+                P entity = insertRoot(root, rootConverter);
+                if (entity == null) {
+                    failed.add(aggregate);
+                    changes.failed();
+                    continue;
+                }
+                changes.inserted(Collections.singletonList(entity));
+            } else if (!aggregate.isChanged()) {
+                continue;
+            }
+            R snapshot = isNew ? null : aggregate.getSnapshot();
+            if (snapshot != null) {
+                ChangedEntity<P> rootUpdate = findRootUpdate(root, snapshot, rootConverter);
+                if (rootUpdate != null) {
+                    rootUpdates.add(rootUpdate);
+                    rootUpdateIndexes.add(saved.size());
+                }
+            }
+            saved.add(aggregate);
+            snapshots.add(snapshot);
+        }
 
-        return deleteResult;
+        // 1. Root updates, rejected aggregates are left out of the child writes
+        if (!rootUpdates.isEmpty()) {
+            long start = Metrics.start();
+            boolean[] results = updateBatch(rootUpdates);
+            recordSql(rootUpdates.get(0).getNewEntity().getClass(), PersistenceMetrics.Operation.UPDATE, start, countTrue(results));
+            for (int i = rootUpdates.size() - 1; i >= 0; i--) {
+                int index = rootUpdateIndexes.get(i);
+                R root = saved.get(index).getRoot();
+                if (results[i]) {
+                    syncVersion(rootUpdates.get(i).getNewEntity(), root);
+                    clearDirtyProperties(root);
+                    changes.updated(rootUpdates.get(i));
+                } else {
+                    log.warn("[Entity: {}] Safe update failed. Entity ID: {}", root.getClass().getSimpleName(), root.getId());
+                    recordOptimisticLockFailure(rootUpdates.get(i).getNewEntity());
+                    failed.add(0, saved.remove(index));
+                    snapshots.remove(index);
+                    changes.failed();
+                }
+            }
+        }
+
+        // 2. Child collections, one merged plan per mapping
+        List<R> roots = new ArrayList<>(saved.size());
+        for (Aggregate<R> aggregate : saved) {
+            roots.add(aggregate.getRoot());
+        }
+        for (ChildMapping<R, ?, ?> child : children) {
+            saveLevel(roots, snapshots, child, changes);
+        }
+        log.debug("[Batch save] Saved {} aggregates, {} failed", saved.size(), failed.size());
+        return new BatchSaveResult<>(saved, failed, changes.build());
     }
 
     /**
-     * Find new entities in the collection
+     * Insert the root of a new aggregate and set the generated ID back, null if the insert failed
      */
-    private <T extends ID> Collection<T> findNewEntities(Collection<T> newItems, Collection<T> oldItems, Predicate<T> isNew) {
-        if (isNew == null) {
-            return ObjectComparator.findNewEntities(newItems, oldItems);
+    private <R extends Versionable, P extends ID> P insertRoot(R root, Function<R, P> rootConverter) {
+        P entity = rootConverter.apply(root);
+        long start = Metrics.start();
+        boolean result = insert(entity);
+        recordSql(entity.getClass(), PersistenceMetrics.Operation.INSERT, start, result ? 1 : 0);
+        if (!result) {
+            log.warn("[Entity: {}] Insert failed. Entity ID: {}", entity.getClass().getSimpleName(), entity.getId());
+            return null;
+        }
+        root.setId(entity.getId());
+        return entity;
+    }
+
+    /**
+     * Root update of a changed aggregate, null if no mapped field changed
+     */
+    private <R extends Versionable, P extends ID> ChangedEntity<P> findRootUpdate(R root, R snapshot, Function<R, P> rootConverter) {
+        Set<String> dirtyProperties = root instanceof DirtyTracking ? ((DirtyTracking) root).dirtyProperties() : null;
+        if (dirtyProperties != null && dirtyProperties.isEmpty()) {
+            return null;
+        }
+        long start = Metrics.start();
+        P newEntity = rootConverter.apply(root);
+        P oldEntity = null;
+        Set<String> changedFields = DirtyTracking.changedProperties(root, newEntity.getClass());
+        if (changedFields == null) {
+            oldEntity = rootConverter.apply(snapshot);
+            changedFields = ObjectComparator.findChangedFields(newEntity, oldEntity, false);
+        }
+        if (start != 0L) {
+            Metrics.get().diffCompleted(root.getClass(), Metrics.elapsed(start), changedFields.isEmpty() ? 0 : 1, changedFields.size());
+        }
+        return changedFields.isEmpty() ? null : new ChangedEntity<>(oldEntity, newEntity, changedFields);
+    }
+
+    /**
+     * Save a child collection of many owners with one merged plan, then its nested collections
+     *
+     * @param owners    current owners, null for owners being deleted
+     * @param snapshots owner snapshots aligned by index with {@code owners}, null for new owners
+     */
+    private <O, T extends ID, B extends ID> void saveLevel(List<O> owners, List<O> snapshots, ChildMapping<O, T, B> mapping,
+                                                         ChangeSet.Builder changes) {
+        ChangePlan<T, B> plan = new ChangePlan<>();
+        String entityType = "UnknownType";
+        for (int i = 0; i < owners.size(); i++) {
+            ChangePlan<T, B> ownerPlan = planChildren(owners.get(i), snapshots.get(i), mapping);
+            if (ownerPlan != null) {
+                entityType = getEntityType(ownerPlan, entityType);
+                plan.merge(ownerPlan);
+            }
+        }
+        writeTree(plan, entityType, mapping, changes);
+    }
+
+    /**
+     * Write the plan of a child collection together with its nested collections: inserts and updates of this level
+     * first, then the nested levels, then the deletes of this level, so that parents are inserted before and deleted
+     * after their children with a fixed number of statements per level.
+     */
+    private <O, T extends ID, B extends ID> void writeTree(ChangePlan<T, B> plan, String entityType,
+                                                         ChildMapping<O, T, B> mapping, ChangeSet.Builder changes) {
+        handleNewEntities(plan, entityType, changes);
+        handleUpdatedEntities(plan, entityType, changes);
+        // Paired children become the owners of the next level; generated IDs of inserted children are set by now
+        for (ChildMapping<T, ?, ?> nested : mapping.getChildMappings()) {
+            saveLevel(plan.getPairedItems(), plan.getPairedSnapshots(), nested, changes);
+        }
+        handleDeletedEntities(plan, entityType, changes);
+    }
+
+    /**
+     * Persist the changes of several child collections of an aggregate root. The collections are converted and
+     * compared concurrently on {@link #diffExecutor()}, then written one after the other, in the order of
+     * {@code children}, on the calling thread (and so on the transaction's connection). Nested child mappings
+     * ({@link ChildMapping#withChildren}) are compared and written level by level after their parent collection.
+     *
+     * @param root     Current root
+     * @param snapshot Root snapshot, null if the root is new
+     * @param children Child collections of the root
+     * @param <R>      Root type
+     * @return the written changes of all collections, {@link ChangeSet#isSuccessful()} is false if an update or
+     * delete was rejected
+     */
+    @SafeVarargs
+    public final <R> ChangeSet saveChildren(R root, R snapshot, ChildMapping<R, ?, ?>... children) {
+        Objects.requireNonNull(root, "Root cannot be null");
+        List<Supplier<ChangeSet>> writes = new ArrayList<>(children.length);
+        Executor executor = children.length > 1 ? diffExecutor() : null;
+        if (executor == null) {
+            for (ChildMapping<R, ?, ?> child : children) {
+                writes.add(planWrite(root, snapshot, child));
+            }
         } else {
-            return ObjectComparator.findNewEntities(newItems, isNew::test);
+            List<CompletableFuture<Supplier<ChangeSet>>> futures = new ArrayList<>(children.length);
+            for (ChildMapping<R, ?, ?> child : children) {
+                futures.add(CompletableFuture.supplyAsync(() -> planWrite(root, snapshot, child), executor));
+            }
+            for (CompletableFuture<Supplier<ChangeSet>> future : futures) {
+                try {
+                    writes.add(future.join());
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new AggregatePersistenceException("Failed to compute child changes", e.getCause());
+                }
+            }
+        }
+        ChangeSet.Builder changes = ChangeSet.builder();
+        for (Supplier<ChangeSet> write : writes) {
+            changes.addAll(write.get());
+        }
+        return changes.build();
+    }
+
+    /**
+     * Executor computing the changes of several child collections concurrently in
+     * {@link #saveChildren(Object, Object, ChildMapping[])}: virtual threads when the JVM provides them, the common
+     * fork/join pool otherwise. Return null to compute them sequentially.
+     *
+     * @return the executor, or null
+     */
+    protected Executor diffExecutor() {
+        return DEFAULT_DIFF_EXECUTOR;
+    }
+
+    /**
+     * Combined size of a new and an old collection from which their items are converted and compared in parallel on
+     * the common fork/join pool. Return {@link Integer#MAX_VALUE} to always compare sequentially, e.g. when converters
+     * are not thread-safe.
+     *
+     * @return the threshold, positive
+     */
+    protected int parallelThreshold() {
+        return ObjectComparator.DEFAULT_PARALLEL_THRESHOLD;
+    }
+
+    private static Executor defaultDiffExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /**
+     * Compute the changes of a child collection and return the write applying them
+     */
+    private <R, T extends ID, B extends ID> Supplier<ChangeSet> planWrite(R root, R snapshot, ChildMapping<R, T, B> mapping) {
+        ChangePlan<T, B> plan = planChildren(root, snapshot, mapping);
+        if (plan == null) {
+            return () -> ChangeSet.EMPTY;
+        }
+        String entityType = getEntityType(plan, "UnknownType");
+        return () -> {
+            ChangeSet.Builder changes = ChangeSet.builder();
+            writeTree(plan, entityType, mapping, changes);
+            return changes.build();
+        };
+    }
+
+    /**
+     * Change plan of a child collection, null if it was not touched since load
+     *
+     * @param root     current owner, null if the owner is deleted (its children are converted with the snapshot)
+     * @param snapshot owner snapshot, null if the owner is new
+     */
+    private <R, T extends ID, B extends ID> ChangePlan<T, B> planChildren(R root, R snapshot, ChildMapping<R, T, B> mapping) {
+        Collection<T> newItems = Optional.ofNullable(mapping.getChildren(root)).orElse(Collections.emptyList());
+        if (CopyOnWriteSnapshot.isUntouched(newItems)) {
+            return null;
+        }
+        newItems = CopyOnWriteSnapshot.unwrap(newItems);
+        Collection<T> oldItems = Optional.ofNullable(mapping.getChildren(snapshot)).orElse(Collections.emptyList());
+        R owner = root != null ? root : snapshot;
+        return ObjectComparator.planChanges(newItems, oldItems, item -> mapping.convert(owner, item), mapping.getIsNew(),
+                mapping.isCompareDomain(), parallelThreshold(), !mapping.getChildMappings().isEmpty());
+    }
+
+    /**
+     * Write a change plan and record the written rows
+     */
+    private <T extends ID, B extends ID> ChangeSet.Builder writePlan(ChangePlan<T, B> plan, String entityType, ChangeSet.Builder changes) {
+        // 1. Handle new entities
+        handleNewEntities(plan, entityType, changes);
+
+        // 2. Handle updated entities
+        handleUpdatedEntities(plan, entityType, changes);
+
+        // 3. Handle deleted entities
+        handleDeletedEntities(plan, entityType, changes);
+        return changes;
+    }
+
+    private static void syncVersion(Object entity, Object target) {
+        if (entity instanceof Versionable && target instanceof Versionable) {
+            ((Versionable) target).setVersion(((Versionable) entity).getVersion());
         }
     }
 
     /**
      * Handle new entities insertion
      */
-    private <T extends ID, B extends ID> void handleNewEntities(Collection<T> newAddItems, Function<T, B> converter, String entityType) {
-        if (newAddItems.isEmpty()) {
+    private <T extends ID, B extends ID> void handleNewEntities(ChangePlan<T, B> plan, String entityType, ChangeSet.Builder changes) {
+        List<B> insertEntities = plan.getInsertEntities();
+        if (insertEntities.isEmpty()) {
             log.debug("[Entity: {}] No new entities to add", entityType);
             return;
         }
 
-        log.debug("[Entity: {}] Starting to process new entities. Count: {}", entityType, newAddItems.size());
+        log.debug("[Entity: {}] Starting to process new entities. Count: {}", entityType, insertEntities.size());
 
-        // Convert and batch insert
-        Map<B, T> convertedMap = new IdentityHashMap<>();
-        newAddItems.forEach(item -> convertedMap.put(converter.apply(item), item));
-
-        boolean insertResult = insertBatch(convertedMap.keySet());
+        long start = Metrics.start();
+        boolean insertResult = insertBatch(insertEntities);
+        recordSql(insertEntities.get(0).getClass(), PersistenceMetrics.Operation.INSERT, start, insertResult ? insertEntities.size() : 0);
 
         if (insertResult) {
             // Sync auto-generated IDs back to original objects
-            convertedMap.forEach((converted, original) -> original.setId(converted.getId()));
-            log.debug("[Entity: {}] Completed processing new entities. Count: {}", entityType, newAddItems.size());
+            List<T> insertItems = plan.getInsertItems();
+            for (int i = 0; i < insertItems.size(); i++) {
+                insertItems.get(i).setId(insertEntities.get(i).getId());
+                clearDirtyProperties(insertItems.get(i));
+            }
+            changes.inserted(insertEntities);
+            log.debug("[Entity: {}] Completed processing new entities. Count: {}", entityType, insertEntities.size());
         } else {
-            log.error("[Entity: {}] Failed to process new entities. Count: {}", entityType, newAddItems.size());
+            log.error("[Entity: {}] Failed to process new entities. Count: {}", entityType, insertEntities.size());
             throw new AggregatePersistenceException(String.format("[Entity: %s] Failed to batch insert new entities", entityType));
         }
     }
@@ -152,29 +520,8 @@ public abstract class DbRepositorySupport {
     /**
      * Handle entity updates
      */
-    private <T extends ID, B extends ID> void handleUpdatedEntities(Collection<T> newItems, Collection<T> oldItems,
-                                                                    Collection<T> newAddItems, Function<T, B> converter, String entityType) {
-        // Exclude new items, remaining may need updates
-        Collection<T> potentialUpdates = new ArrayList<>(newItems);
-        potentialUpdates.removeAll(newAddItems);
-
-        if (potentialUpdates.isEmpty()) {
-            log.debug("[Entity: {}] No entities to update", entityType);
-            return;
-        }
-
-        // Convert to entity objects
-        Collection<B> newEntities = potentialUpdates.stream()
-                .map(converter)
-                .collect(Collectors.toList());
-
-        Collection<B> oldEntities = oldItems.stream()
-                .map(converter)
-                .collect(Collectors.toList());
-
-        // Find changed entities and update
-        Collection<ChangedEntity<B>> changedEntities = ObjectComparator.findChangedEntities(newEntities, oldEntities);
-
+    private <T extends ID, B extends ID> void handleUpdatedEntities(ChangePlan<T, B> plan, String entityType, ChangeSet.Builder changes) {
+        List<ChangedEntity<B>> changedEntities = plan.getUpdates();
         if (changedEntities.isEmpty()) {
             log.debug("[Entity: {}] No changed entities found, no updates needed", entityType);
             return;
@@ -182,53 +529,88 @@ public abstract class DbRepositorySupport {
 
         log.debug("[Entity: {}] Starting to process updated entities. Count: {}", entityType, changedEntities.size());
 
-        changedEntities.forEach(changedEntity -> {
-            B newEntity = changedEntity.getNewEntity();
-            B oldEntity = changedEntity.getOldEntity();
-
-            Set<String> changedFields = ObjectComparator.findChangedFields(newEntity, oldEntity);
-            if (!changedFields.isEmpty()) {
-                boolean updateResult = update(newEntity, changedFields);
-                if (updateResult) {
-                    log.info("[Entity: {}] Entity update successful. ID: {}, Changed fields: {}",
-                            entityType, newEntity.getId(), changedFields);
-                } else {
-                    log.error("[Entity: {}] Entity update failed. ID: {}", entityType, newEntity.getId());
-                }
+        long start = Metrics.start();
+        boolean[] updateResults = updateBatch(changedEntities);
+        recordSql(changedEntities.get(0).getNewEntity().getClass(), PersistenceMetrics.Operation.UPDATE, start, countTrue(updateResults));
+        for (int i = 0; i < changedEntities.size(); i++) {
+            B newEntity = changedEntities.get(i).getNewEntity();
+            if (updateResults[i]) {
+                clearDirtyProperties(plan.getUpdateItems().get(i));
+                changes.updated(changedEntities.get(i));
+                log.info("[Entity: {}] Entity update successful. ID: {}, Changed fields: {}",
+                        entityType, newEntity.getId(), changedEntities.get(i).getChangedFields());
+            } else {
+                log.error("[Entity: {}] Entity update failed. ID: {}", entityType, newEntity.getId());
+                recordOptimisticLockFailure(newEntity);
+                changes.failed();
             }
-        });
+        }
     }
 
     /**
      * Handle entity deletions
      */
-    private <T extends ID, B extends ID> boolean handleDeletedEntities(Collection<T> newItems, Collection<T> oldItems,
-                                                                       Function<T, B> converter, String entityType) {
-        Collection<B> newEntities = newItems.stream()
-                .map(converter)
-                .collect(Collectors.toList());
-
-        Collection<B> oldEntities = oldItems.stream()
-                .map(converter)
-                .collect(Collectors.toList());
-
-        Collection<B> removedItems = ObjectComparator.findRemovedEntities(newEntities, oldEntities);
+    private <T extends ID, B extends ID> void handleDeletedEntities(ChangePlan<T, B> plan, String entityType, ChangeSet.Builder changes) {
+        List<B> removedItems = plan.getDeletes();
 
         if (removedItems.isEmpty()) {
             log.debug("[Entity: {}] No entities to delete", entityType);
-            return true;
+            return;
         }
 
         log.debug("[Entity: {}] Starting to process deleted entities. Count: {}", entityType, removedItems.size());
+        long start = Metrics.start();
         boolean deleteResult = deleteBatch(removedItems);
+        recordSql(removedItems.get(0).getClass(), PersistenceMetrics.Operation.DELETE, start, deleteResult ? removedItems.size() : 0);
 
         if (deleteResult) {
+            changes.deleted(removedItems);
             log.debug("[Entity: {}] Completed processing deleted entities. Count: {}", entityType, removedItems.size());
         } else {
             log.error("[Entity: {}] Failed to process deleted entities. Count: {}", entityType, removedItems.size());
+            changes.failed();
         }
+    }
 
-        return deleteResult;
+    private static void recordSql(Class<?> entityType, PersistenceMetrics.Operation operation, long start, int rows) {
+        if (start != 0L) {
+            Metrics.get().sqlExecuted(entityType, operation, Metrics.elapsed(start), rows);
+        }
+    }
+
+    /**
+     * Only versioned entities are rejected by the optimistic lock, others were simply not found
+     */
+    private static void recordOptimisticLockFailure(Object entity) {
+        if (entity instanceof Versionable && Metrics.isEnabled()) {
+            Metrics.get().optimisticLockFailed(entity.getClass());
+        }
+    }
+
+    private static int countTrue(boolean[] results) {
+        int count = 0;
+        for (boolean result : results) {
+            if (result) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void clearDirtyProperties(Object item) {
+        if (item instanceof DirtyTracking) {
+            ((DirtyTracking) item).clearDirtyProperties();
+        }
+    }
+
+    private static String getEntityType(ChangePlan<?, ?> plan, String defaultType) {
+        if (!plan.getInsertItems().isEmpty()) {
+            return plan.getInsertItems().get(0).getClass().getSimpleName();
+        }
+        if (!plan.getUpdateItems().isEmpty()) {
+            return plan.getUpdateItems().get(0).getClass().getSimpleName();
+        }
+        return defaultType;
     }
 
     /**
@@ -289,4 +671,21 @@ public abstract class DbRepositorySupport {
      */
     protected abstract <A extends ID> boolean update(A entity, Set<String> changedFields);
 
+    /**
+     * Update several entities, each with its own changed fields. The default implementation updates them one by one;
+     * subclasses may send them to the database in batches.
+     *
+     * @param changedEntities Entities to update with their changed fields
+     * @param <A>             Entity type
+     * @return Per-entity update result, aligned by index with {@code changedEntities}
+     */
+    protected <A extends ID> boolean[] updateBatch(List<ChangedEntity<A>> changedEntities) {
+        boolean[] results = new boolean[changedEntities.size()];
+        for (int i = 0; i < results.length; i++) {
+            ChangedEntity<A> changedEntity = changedEntities.get(i);
+            results[i] = update(changedEntity.getNewEntity(), changedEntity.getChangedFields());
+        }
+        return results;
+    }
+
 }
\ No newline at end of file
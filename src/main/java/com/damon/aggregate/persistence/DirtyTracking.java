@@ -0,0 +1,122 @@
+package com.damon.aggregate.persistence;
+
+import com.damon.aggregate.persistence.comparator.EntityComparator;
+import com.damon.aggregate.persistence.copier.BeanSchema;
+import com.damon.aggregate.persistence.snapshot.CopyOnWriteSnapshot;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Opt-in field-level dirty tracking for domain entities: the entity records the properties set since the aggregate
+ * was loaded, so saving it needs no comparison with the snapshot.
+ * <p>
+ * The contract is that every state change of the entity goes through a tracked setter (see
+ * {@link DirtyTrackingEntity#markDirty(String)}): a tracked entity without dirty properties is considered unchanged
+ * and is skipped by {@link DbRepositorySupport}. Structural changes of child collections (added or removed children)
+ * are still detected from the IDs.
+ * <p>
+ * Dirty properties only tell whether the entity changed: the changed columns are still found by comparing the
+ * converted entities, since domain property names need not be the persistence entity's property names. An entity
+ * whose converter copies each property to the persistence property of the same name can opt in to
+ * {@link #dirtyPropertiesMatchEntity()}, its dirty properties are then written as the changed columns without
+ * converting and comparing the old state.
+ */
+public interface DirtyTracking {
+
+    /**
+     * Properties set since load (or since the last successful save)
+     */
+    Set<String> dirtyProperties();
+
+    /**
+     * Forget the dirty properties, called once the entity is loaded and after it was saved
+     */
+    void clearDirtyProperties();
+
+    /**
+     * Record properties as set again, e.g. to restore the dirty properties cleared by a save that was rolled back
+     */
+    void markDirtyProperties(Collection<String> properties);
+
+    /**
+     * Whether the dirty properties are property names of the persistence entity this entity converts to, with the
+     * same values. False by default; when true and all dirty properties are mapped, they are the changed columns and
+     * the old state is neither converted nor compared.
+     */
+    default boolean dirtyPropertiesMatchEntity() {
+        return false;
+    }
+
+    /**
+     * Dirty properties to be taken as the changed columns of the converted entity, null when they must be compared
+     *
+     * @param domain      domain entity, dirty-tracked or not
+     * @param entityClass persistence entity class the domain entity converts to
+     */
+    static Set<String> changedProperties(Object domain, Class<?> entityClass) {
+        if (!(domain instanceof DirtyTracking) || !((DirtyTracking) domain).dirtyPropertiesMatchEntity()) {
+            return null;
+        }
+        Set<String> dirtyProperties = ((DirtyTracking) domain).dirtyProperties();
+        return EntityComparator.forClass(entityClass).isMapped(dirtyProperties) ? new HashSet<>(dirtyProperties) : null;
+    }
+
+    /**
+     * Clear the dirty properties of a root and of its child entities on every level: elements of its collections,
+     * elements of their collections, and so on.
+     *
+     * @param root aggregate root
+     */
+    static void clearAll(Object root) {
+        forEachTracked(root, DirtyTracking::clearDirtyProperties);
+    }
+
+    /**
+     * Apply an action to the dirty-tracked root and child entities on every level, each entity once.
+     *
+     * @param root   aggregate root
+     * @param action called with each dirty-tracked entity
+     */
+    static void forEachTracked(Object root, Consumer<DirtyTracking> action) {
+        if (root == null) {
+            return;
+        }
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object entity = pending.pop();
+            if (!visited.add(entity)) {
+                continue;
+            }
+            if (entity instanceof DirtyTracking) {
+                action.accept((DirtyTracking) entity);
+            }
+            BeanSchema schema = BeanSchema.forClass(entity.getClass());
+            if (schema == null) {
+                continue;
+            }
+            for (BeanSchema.Property property : schema.getProperties()) {
+                if (!Collection.class.isAssignableFrom(property.getType())) {
+                    continue;
+                }
+                Collection<?> children = (Collection<?>) property.get(entity);
+                if (children == null) {
+                    continue;
+                }
+                for (Object child : CopyOnWriteSnapshot.unwrap(children)) {
+                    if (child != null && !BeanSchema.isImmutable(child.getClass())) {
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+    }
+}
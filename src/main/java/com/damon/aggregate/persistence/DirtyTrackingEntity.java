@@ -0,0 +1,59 @@
+package com.damon.aggregate.persistence;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Base class for dirty-tracked domain entities. Setters record the change themselves:
+ * <pre>
+ * public void setPrice(Long price) {
+ *     markDirty("price", this.price, price);
+ *     this.price = price;
+ * }
+ * </pre>
+ * The changed columns are found by comparing the converted entities. When the property names are those of the
+ * persistence entity, override {@link #dirtyPropertiesMatchEntity()} to return true so that
+ * {@link DbRepositorySupport} updates exactly the dirty columns without converting the old state.
+ *
+ * @param <K> ID type
+ */
+public abstract class DirtyTrackingEntity<K> implements ID<K>, DirtyTracking {
+    private transient Set<String> dirtyProperties;
+
+    /**
+     * Record that a property was set.
+     */
+    protected void markDirty(String property) {
+        if (dirtyProperties == null) {
+            dirtyProperties = new HashSet<>();
+        }
+        dirtyProperties.add(property);
+    }
+
+    /**
+     * Record that a property was set, only if its value actually changes.
+     */
+    protected void markDirty(String property, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            markDirty(property);
+        }
+    }
+
+    @Override
+    public Set<String> dirtyProperties() {
+        return dirtyProperties == null ? Collections.emptySet() : Collections.unmodifiableSet(dirtyProperties);
+    }
+
+    @Override
+    public void clearDirtyProperties() {
+        dirtyProperties = null;
+    }
+
+    @Override
+    public void markDirtyProperties(Collection<String> properties) {
+        properties.forEach(this::markDirty);
+    }
+}
@@ -0,0 +1,211 @@
+package com.damon.aggregate.persistence;
+
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.exception.OptimisticLockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Transaction-scoped unit of work for aggregates.
+ * <p>
+ * Inside a Spring transaction, {@link #register} only records the aggregate; it is flushed once just before commit,
+ * no matter how many times it was registered. Aggregates registered with a batch flusher are grouped by repository
+ * and root type, and each group is written by one call of the batch flusher (usually a repository method built on
+ * {@code DbRepositorySupport#saveAll}), so the statements are batched across aggregates. Groups, and aggregates
+ * registered with a single-aggregate flusher, are flushed in order of first registration. Without an active
+ * transaction the flusher runs immediately.
+ * <pre>
+ * UnitOfWork.register(aggregate, orderGateway, orderGateway::saveAll);
+ * UnitOfWork.register(aggregate, orderGateway::save);
+ * </pre>
+ */
+public final class UnitOfWork {
+    private static final Logger log = LoggerFactory.getLogger(UnitOfWork.class);
+
+    private final Map<Aggregate<?>, Registration> pending = new IdentityHashMap<>();
+    private final List<Aggregate<?>> order = new ArrayList<>();
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Register an aggregate to be flushed alone at commit of the current transaction. Registering the same aggregate
+     * instance again keeps a single flush (with the latest flusher).
+     *
+     * @param aggregate aggregate to persist
+     * @param flusher   persists the aggregate, e.g. a repository save method
+     */
+    public static <R extends Versionable> void register(Aggregate<R> aggregate, Consumer<Aggregate<R>> flusher) {
+        if (aggregate == null || flusher == null) {
+            throw new AggregatePersistenceException("Aggregate and flusher cannot be null");
+        }
+        register(aggregate, null, aggregates -> {
+            aggregates.forEach(flusher);
+            return Collections.emptyList();
+        });
+    }
+
+    /**
+     * Register an aggregate to be flushed at commit of the current transaction together with the other aggregates of
+     * the same repository and root type. Registering the same aggregate instance again keeps a single flush (with the
+     * latest flusher).
+     *
+     * @param aggregate    aggregate to persist
+     * @param repository   repository the aggregate belongs to, groups the aggregates flushed together
+     * @param batchFlusher persists several aggregates and returns those rejected by the optimistic lock, e.g. a
+     *                     repository saveAll method
+     * @throws OptimisticLockException at flush, if the batch flusher rejected an aggregate
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <R extends Versionable> void register(Aggregate<R> aggregate, Object repository,
+                                                        Function<Collection<Aggregate<R>>, ? extends Collection<?>> batchFlusher) {
+        if (aggregate == null || batchFlusher == null) {
+            throw new AggregatePersistenceException("Aggregate and flusher cannot be null");
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            checkRejected(batchFlusher.apply(Collections.singletonList(aggregate)));
+            return;
+        }
+        UnitOfWork unitOfWork = (UnitOfWork) TransactionSynchronizationManager.getResource(UnitOfWork.class);
+        if (unitOfWork == null) {
+            unitOfWork = new UnitOfWork();
+            TransactionSynchronizationManager.bindResource(UnitOfWork.class, unitOfWork);
+            TransactionSynchronizationManager.registerSynchronization(new Synchronization(unitOfWork));
+        }
+        Registration previous = unitOfWork.pending.put(aggregate, new Registration(repository, (Function) batchFlusher));
+        if (previous == null) {
+            unitOfWork.order.add(aggregate);
+        }
+    }
+
+    /**
+     * Flush the aggregates registered in the current transaction now, instead of waiting for commit.
+     */
+    public static void flush() {
+        UnitOfWork unitOfWork = (UnitOfWork) TransactionSynchronizationManager.getResource(UnitOfWork.class);
+        if (unitOfWork != null) {
+            unitOfWork.flushPending();
+        }
+    }
+
+    /**
+     * Aggregates registered in the current transaction and not yet flushed
+     */
+    public static List<Aggregate<?>> getPendingAggregates() {
+        UnitOfWork unitOfWork = (UnitOfWork) TransactionSynchronizationManager.getResource(UnitOfWork.class);
+        return unitOfWork == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(unitOfWork.order));
+    }
+
+    private void flushPending() {
+        // A flusher may register further aggregates, keep going until nothing is pending
+        while (!order.isEmpty()) {
+            List<Aggregate<?>> aggregates = new ArrayList<>(order);
+            order.clear();
+            Map<Object, Group> groups = new LinkedHashMap<>();
+            for (Aggregate<?> aggregate : aggregates) {
+                Registration registration = pending.remove(aggregate);
+                Object key = registration.repository == null ? new Object()
+                        : new GroupKey(registration.repository, aggregate.getRoot().getClass());
+                Group group = groups.computeIfAbsent(key, k -> new Group());
+                group.flusher = registration.flusher;
+                group.aggregates.add(aggregate);
+            }
+            for (Group group : groups.values()) {
+                checkRejected(group.flusher.apply(group.aggregates));
+            }
+            log.debug("[Unit of work] Flushed {} aggregates in {} groups", aggregates.size(), groups.size());
+        }
+    }
+
+    private static void checkRejected(Collection<?> rejected) {
+        if (rejected != null && !rejected.isEmpty()) {
+            throw new OptimisticLockException(String.format("%d aggregates are not found or changed by another user", rejected.size()));
+        }
+    }
+
+    private static final class Registration {
+        private final Object repository;
+        private final Function<Collection<Aggregate<?>>, ? extends Collection<?>> flusher;
+
+        private Registration(Object repository, Function<Collection<Aggregate<?>>, ? extends Collection<?>> flusher) {
+            this.repository = repository;
+            this.flusher = flusher;
+        }
+    }
+
+    /**
+     * Repository instance and root type of a batch
+     */
+    private static final class GroupKey {
+        private final Object repository;
+        private final Class<?> rootType;
+
+        private GroupKey(Object repository, Class<?> rootType) {
+            this.repository = repository;
+            this.rootType = rootType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey key = (GroupKey) o;
+            return repository == key.repository && rootType == key.rootType;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(repository) * 31 + rootType.hashCode();
+        }
+    }
+
+    private static final class Group {
+        private final List<Aggregate<?>> aggregates = new ArrayList<>();
+        private Function<Collection<Aggregate<?>>, ? extends Collection<?>> flusher;
+    }
+
+    private static final class Synchronization implements TransactionSynchronization {
+        private final UnitOfWork unitOfWork;
+
+        private Synchronization(UnitOfWork unitOfWork) {
+            this.unitOfWork = unitOfWork;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            unitOfWork.flushPending();
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(UnitOfWork.class);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(UnitOfWork.class, unitOfWork);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (TransactionSynchronizationManager.hasResource(UnitOfWork.class)) {
+                TransactionSynchronizationManager.unbindResource(UnitOfWork.class);
+            }
+            unitOfWork.pending.clear();
+            unitOfWork.order.clear();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.damon.aggregate.persistence.cache;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.copier.BinaryDeepCopier;
+import com.damon.aggregate.persistence.copier.DeepCopier;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import com.damon.aggregate.persistence.copier.SerializingDeepCopier;
+import com.damon.aggregate.persistence.exception.UnsupportedTypeException;
+import com.damon.aggregate.persistence.snapshot.CopiedSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache of loaded aggregates, keyed by root type and ID.
+ * <p>
+ * Entries hold the loaded root in serialized form ({@link BinaryDeepCopier}), so they are immutable and compact, and
+ * every hit returns a fresh {@link Aggregate} that the caller may modify freely: by default root and snapshot are two
+ * independent decodes of the entry, or the caller supplies the factory building the aggregate from a decoded root
+ * (compact, copy-on-write, fingerprint or read-only). A root the binary form cannot encode exactly is held as a private
+ * {@link MethodHandleDeepCopier} copy instead. Entries are evicted least recently used beyond {@code maximumSize} and
+ * expire {@code timeToLive} after they were written.
+ * <p>
+ * A version probe (typically a {@code SELECT version} by ID) can be registered per root type: a hit is only served
+ * when the probed version equals the cached one, which still saves the child collection queries. After a successful
+ * save, {@link #afterSave(Aggregate)} replaces the entry with the saved state once the transaction commits. A miss
+ * only caches the loaded state if no save or invalidation of the same key happened while it was loading, so a slow
+ * load cannot overwrite a newer entry with the state it read before.
+ * <pre>
+ * return aggregateCache.get(Order.class, id, key -> loadOrder(key));
+ * </pre>
+ */
+public class AggregateCache {
+    private static final Logger log = LoggerFactory.getLogger(AggregateCache.class);
+    private static final int GENERATION_STRIPES = 64;
+
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final SerializingDeepCopier serializer = new BinaryDeepCopier();
+    private final DeepCopier copier = new MethodHandleDeepCopier();
+    private final Map<Class<?>, Function<Object, Integer>> versionProbes = new ConcurrentHashMap<>();
+    private final Map<Key, Entry> entries;
+    /**
+     * Bumped by every save and invalidation, per stripe of keys; guarded by the entries lock
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public AggregateCache(int maximumSize, Duration timeToLive) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > AggregateCache.this.maximumSize;
+            }
+        });
+    }
+
+    /**
+     * Register a cheap query returning the current persisted version of a root, checked before serving a hit.
+     *
+     * @param type         root type
+     * @param versionProbe ID -> persisted version, null if the root no longer exists
+     */
+    public <R extends Versionable> void registerVersionProbe(Class<R> type, Function<Object, Integer> versionProbe) {
+        versionProbes.put(type, versionProbe);
+    }
+
+    /**
+     * Get an aggregate from the cache, or load and cache it. A hit gets root and snapshot from two decodes of the
+     * entry.
+     *
+     * @param type   root type
+     * @param id     root ID
+     * @param loader loads the aggregate on a miss
+     * @return a fresh aggregate
+     */
+    public <R extends Versionable> Aggregate<R> get(Class<R> type, Object id, Function<Object, Aggregate<R>> loader) {
+        return get(type, id, loader, null);
+    }
+
+    /**
+     * Get an aggregate from the cache, or load and cache it.
+     *
+     * @param type    root type
+     * @param id      root ID
+     * @param loader  loads the aggregate on a miss
+     * @param factory builds the aggregate of a hit from a freshly decoded root, e.g.
+     *                {@code AggregateFactory::createCompactAggregate}; null for a copied snapshot decoded separately
+     * @return a fresh aggregate
+     */
+    public <R extends Versionable> Aggregate<R> get(Class<R> type, Object id, Function<Object, Aggregate<R>> loader,
+                                                    Function<R, Aggregate<R>> factory) {
+        Key key = new Key(type, id);
+        Entry entry = entries.get(key);
+        if (entry != null && isValid(key, entry)) {
+            log.debug("[Aggregate cache] Hit. Type: {}, ID: {}, Version: {}", type.getSimpleName(), id, entry.version);
+            if (factory != null) {
+                return factory.apply(decode(entry, type));
+            }
+            return new Aggregate<>(decode(entry, type), new CopiedSnapshot<>(decode(entry, type)));
+        }
+        long generation = generations.get(stripe(key));
+        Aggregate<R> aggregate = loader.apply(id);
+        if (aggregate != null && aggregate.getRoot() != null) {
+            R root = aggregate.getRoot();
+            Entry loaded = new Entry(encode(root), root.getVersion(), System.nanoTime() + timeToLiveNanos);
+            synchronized (entries) {
+                if (generations.get(stripe(key)) == generation) {
+                    entries.put(key, loaded);
+                } else {
+                    log.debug("[Aggregate cache] Saved or invalidated while loading, not cached. Type: {}, ID: {}",
+                            type.getSimpleName(), id);
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    /**
+     * Refresh the entry of a saved aggregate with its new state and version. Inside a transaction the entry is
+     * dropped at once and only written again after commit, so a rolled back save never reaches the cache.
+     *
+     * @param aggregate successfully saved aggregate
+     */
+    public <R extends Versionable> void afterSave(Aggregate<R> aggregate) {
+        R root = aggregate.getRoot();
+        if (root == null || root.getId() == null) {
+            return;
+        }
+        Key key = new Key(root.getClass(), root.getId());
+        // Encode now: the root may be modified again before commit
+        Entry saved = new Entry(encode(root), root.getVersion(), System.nanoTime() + timeToLiveNanos);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            replace(key, saved);
+            return;
+        }
+        replace(key, null);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                replace(key, new Entry(saved.state, saved.version, System.nanoTime() + timeToLiveNanos));
+            }
+        });
+    }
+
+    public void invalidate(Class<?> type, Object id) {
+        replace(new Key(type, id), null);
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations.incrementAndGet(i);
+            }
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Replace or remove an entry, making loads of the key started before it skip their put
+     */
+    private void replace(Key key, Entry entry) {
+        synchronized (entries) {
+            generations.incrementAndGet(stripe(key));
+            if (entry == null) {
+                entries.remove(key);
+            } else {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    private static int stripe(Key key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private Object encode(Versionable root) {
+        try {
+            return serializer.serialize(root);
+        } catch (UnsupportedTypeException e) {
+            return copier.copy(root);
+        }
+    }
+
+    private <R> R decode(Entry entry, Class<R> type) {
+        if (entry.state instanceof byte[]) {
+            return serializer.deserialize((byte[]) entry.state, type);
+        }
+        return type.cast(copier.copy(entry.state));
+    }
+
+    private boolean isValid(Key key, Entry entry) {
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(key, entry);
+            return false;
+        }
+        Function<Object, Integer> versionProbe = versionProbes.get(key.type);
+        if (versionProbe != null && !Objects.equals(versionProbe.apply(key.id), entry.version)) {
+            log.debug("[Aggregate cache] Stale entry. Type: {}, ID: {}, Cached version: {}",
+                    key.type.getSimpleName(), key.id, entry.version);
+            entries.remove(key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final Object id;
+
+        private Key(Class<?> type, Object id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return type == key.type && Objects.equals(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + Objects.hashCode(id);
+        }
+    }
+
+    private static final class Entry {
+        /**
+         * Encoded root, or a private copy of a root the serializer cannot encode
+         */
+        private final Object state;
+        private final Integer version;
+        private final long expiresAt;
+
+        private Entry(Object state, Integer version, long expiresAt) {
+            this.state = state;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.damon.aggregate.persistence.comparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inserts, updates and deletes needed to turn an old entity collection into a new one, computed in a single pass by
+ * {@link ObjectComparator#planChanges}.
+ *
+ * @param <T> domain model type
+ * @param <B> persistence entity type
+ */
+public class ChangePlan<T, B> {
+    private final List<T> insertItems = new ArrayList<>();
+    private final List<B> insertEntities = new ArrayList<>();
+    private final List<T> updateItems = new ArrayList<>();
+    private final List<ChangedEntity<B>> updates = new ArrayList<>();
+    private final List<B> deletes = new ArrayList<>();
+    private final List<T> pairedItems = new ArrayList<>();
+    private final List<T> pairedSnapshots = new ArrayList<>();
+
+    void addInsert(T item, B entity) {
+        insertItems.add(item);
+        insertEntities.add(entity);
+    }
+
+    void addUpdate(T item, ChangedEntity<B> changedEntity) {
+        updateItems.add(item);
+        updates.add(changedEntity);
+    }
+
+    void addDelete(B entity) {
+        deletes.add(entity);
+    }
+
+    void addPair(T item, T snapshot) {
+        pairedItems.add(item);
+        pairedSnapshots.add(snapshot);
+    }
+
+    /**
+     * Append the operations of another plan, so the changes of several aggregates are written together
+     *
+     * @param other plan to append
+     * @return this plan
+     */
+    public ChangePlan<T, B> merge(ChangePlan<T, B> other) {
+        insertItems.addAll(other.insertItems);
+        insertEntities.addAll(other.insertEntities);
+        updateItems.addAll(other.updateItems);
+        updates.addAll(other.updates);
+        deletes.addAll(other.deletes);
+        pairedItems.addAll(other.pairedItems);
+        pairedSnapshots.addAll(other.pairedSnapshots);
+        return this;
+    }
+
+    /**
+     * Domain items to insert, aligned by index with {@link #getInsertEntities()}
+     */
+    public List<T> getInsertItems() {
+        return Collections.unmodifiableList(insertItems);
+    }
+
+    /**
+     * Converted entities to insert, aligned by index with {@link #getInsertItems()}
+     */
+    public List<B> getInsertEntities() {
+        return Collections.unmodifiableList(insertEntities);
+    }
+
+    /**
+     * Converted entity pairs whose mapped fields changed, with the changed property names
+     */
+    public List<ChangedEntity<B>> getUpdates() {
+        return Collections.unmodifiableList(updates);
+    }
+
+    /**
+     * Domain items to update, aligned by index with {@link #getUpdates()}
+     */
+    public List<T> getUpdateItems() {
+        return Collections.unmodifiableList(updateItems);
+    }
+
+    /**
+     * Converted old entities whose ID no longer appears in the new collection
+     */
+    public List<B> getDeletes() {
+        return Collections.unmodifiableList(deletes);
+    }
+
+    /**
+     * Items paired with their old counterpart, aligned by index with {@link #getPairedSnapshots()}: kept items whose
+     * counterpart is another instance, new items and removed old items (as null). Items shared with the old
+     * collection are left out. Only recorded when asked for by {@link ObjectComparator#planChanges}, empty otherwise.
+     */
+    public List<T> getPairedItems() {
+        return Collections.unmodifiableList(pairedItems);
+    }
+
+    /**
+     * Old counterparts of {@link #getPairedItems()}, null for new items
+     */
+    public List<T> getPairedSnapshots() {
+        return Collections.unmodifiableList(pairedSnapshots);
+    }
+
+    public boolean isEmpty() {
+        return insertItems.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+    }
+}
@@ -1,13 +1,22 @@
 package com.damon.aggregate.persistence.comparator;
 
 
+import java.util.Collections;
+import java.util.Set;
+
 public class ChangedEntity<T> {
     private final T oldEntity;
     private final T newEntity;
+    private final Set<String> changedFields;
 
     public ChangedEntity(T oldEntity, T newEntity) {
+        this(oldEntity, newEntity, Collections.emptySet());
+    }
+
+    public ChangedEntity(T oldEntity, T newEntity, Set<String> changedFields) {
         this.oldEntity = oldEntity;
         this.newEntity = newEntity;
+        this.changedFields = changedFields;
     }
 
     public T getOldEntity() {
@@ -17,4 +26,11 @@ public class ChangedEntity<T> {
     public T getNewEntity() {
         return this.newEntity;
     }
+
+    /**
+     * Changed property names, empty when the fields were not computed
+     */
+    public Set<String> getChangedFields() {
+        return this.changedFields;
+    }
 }
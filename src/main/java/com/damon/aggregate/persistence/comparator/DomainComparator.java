@@ -0,0 +1,106 @@
+package com.damon.aggregate.persistence.comparator;
+
+import com.damon.aggregate.persistence.copier.BeanSchema;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Field-by-field comparison of domain objects through the cached {@link BeanSchema} of each class, used to find
+ * unchanged children before converting them to persistence entities, and unchanged elements of copy-on-write
+ * snapshots.
+ * <p>
+ * The comparison is conservative: {@code true} only when both object graphs hold equal values in every field.
+ * Beans are always compared field by field, never through their own {@code equals} (entities are often equal by
+ * ID alone); immutable JDK values are compared with {@code equals}. Anything it cannot compare for sure (beans
+ * without a schema, very deep or cyclic graphs, collections in a different iteration order) is reported as
+ * different, so the caller falls back to converting and comparing the persistence entities.
+ */
+public final class DomainComparator {
+    private static final int MAX_DEPTH = 16;
+
+    private DomainComparator() {
+    }
+
+    /**
+     * Whether two object graphs hold equal values in every field
+     *
+     * @return true only if they are equal for sure
+     */
+    public static boolean deepEquals(Object newObject, Object oldObject) {
+        return valueEquals(newObject, oldObject, 0);
+    }
+
+    private static boolean valueEquals(Object newValue, Object oldValue, int depth) {
+        if (newValue == oldValue) {
+            return true;
+        }
+        if (newValue == null || oldValue == null || newValue.getClass() != oldValue.getClass() || depth > MAX_DEPTH) {
+            return false;
+        }
+        Class<?> type = newValue.getClass();
+        if (BeanSchema.isImmutable(type) || newValue instanceof Date) {
+            return newValue.equals(oldValue);
+        }
+        if (newValue instanceof Collection) {
+            Collection<?> newItems = (Collection<?>) newValue;
+            Collection<?> oldItems = (Collection<?>) oldValue;
+            return newItems.size() == oldItems.size() && iteratorEquals(newItems.iterator(), oldItems.iterator(), depth);
+        }
+        if (newValue instanceof Map) {
+            Map<?, ?> newMap = (Map<?, ?>) newValue;
+            Map<?, ?> oldMap = (Map<?, ?>) oldValue;
+            return newMap.size() == oldMap.size() && iteratorEquals(newMap.entrySet().iterator(), oldMap.entrySet().iterator(), depth);
+        }
+        if (newValue instanceof Map.Entry) {
+            Map.Entry<?, ?> newEntry = (Map.Entry<?, ?>) newValue;
+            Map.Entry<?, ?> oldEntry = (Map.Entry<?, ?>) oldValue;
+            return valueEquals(newEntry.getKey(), oldEntry.getKey(), depth + 1)
+                    && valueEquals(newEntry.getValue(), oldEntry.getValue(), depth + 1);
+        }
+        if (type.isArray()) {
+            return arrayEquals(newValue, oldValue, depth);
+        }
+        BeanSchema schema = BeanSchema.forClass(type);
+        if (schema == null) {
+            // Other JDK values are compared by equals, unknown beans are assumed changed
+            return type.getName().startsWith("java.") && newValue.equals(oldValue);
+        }
+        for (BeanSchema.Property property : schema.getProperties()) {
+            Object newField = property.get(newValue);
+            Object oldField = property.get(oldValue);
+            boolean equal = property.isSynthetic() ? newField == oldField
+                    : property.isImmutable() ? Objects.equals(newField, oldField)
+                    : valueEquals(newField, oldField, depth + 1);
+            if (!equal) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pairwise comparison in iteration order: copies of hashed collections keep the order of their source
+     */
+    private static boolean iteratorEquals(Iterator<?> newItems, Iterator<?> oldItems, int depth) {
+        while (newItems.hasNext() && oldItems.hasNext()) {
+            if (!valueEquals(newItems.next(), oldItems.next(), depth + 1)) {
+                return false;
+            }
+        }
+        return !newItems.hasNext() && !oldItems.hasNext();
+    }
+
+    private static boolean arrayEquals(Object newArray, Object oldArray, int depth) {
+        if (newArray.getClass().getComponentType().isPrimitive()) {
+            return Objects.deepEquals(newArray, oldArray);
+        }
+        Object[] newItems = (Object[]) newArray;
+        Object[] oldItems = (Object[]) oldArray;
+        return newItems.length == oldItems.length && iteratorEquals(Arrays.asList(newItems).iterator(), Arrays.asList(oldItems).iterator(), depth);
+    }
+}
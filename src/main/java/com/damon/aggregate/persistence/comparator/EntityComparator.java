@@ -0,0 +1,311 @@
+package com.damon.aggregate.persistence.comparator;
+
+import cn.hutool.core.util.ObjectUtil;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Field comparator compiled once per database entity class from its MyBatis-Plus {@link TableInfo}.
+ * <p>
+ * Each mapped field gets a pre-bound accessor and a comparison typed on the declared field type, so primitives are
+ * compared without boxing and no {@code MetaObject} is created per call. Reference values keep the semantics of
+ * {@link ObjectUtil#equal(Object, Object)} ({@code BigDecimal} compared by value).
+ */
+public final class EntityComparator {
+    private static final Map<Class<?>, EntityComparator> CACHE = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final String[] properties;
+    private final String[] columns;
+    private final Set<String> propertySet;
+    private final Map<String, Integer> propertyIndex;
+    private final FieldComparator[] comparators;
+
+    private EntityComparator(Class<?> type, TableInfo tableInfo) {
+        List<TableFieldInfo> fieldList = tableInfo.getFieldList();
+        this.type = type;
+        this.properties = new String[fieldList.size()];
+        this.columns = new String[fieldList.size()];
+        this.comparators = new FieldComparator[fieldList.size()];
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (int i = 0; i < fieldList.size(); i++) {
+            TableFieldInfo fieldInfo = fieldList.get(i);
+            properties[i] = fieldInfo.getProperty();
+            columns[i] = fieldInfo.getColumn();
+            comparators[i] = FieldComparator.of(lookup, fieldInfo.getField());
+        }
+        this.propertySet = new HashSet<>(Arrays.asList(properties));
+        this.propertyIndex = new HashMap<>();
+        for (int i = 0; i < properties.length; i++) {
+            propertyIndex.put(properties[i], i);
+        }
+    }
+
+    /**
+     * Comparator of a database entity class, compiled on first use.
+     *
+     * @param type MyBatis-Plus entity class
+     * @return the cached comparator
+     * @throws IllegalArgumentException if the class has no {@link TableInfo}
+     */
+    public static EntityComparator forClass(Class<?> type) {
+        EntityComparator comparator = CACHE.get(type);
+        if (comparator != null) {
+            return comparator;
+        }
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(type);
+        if (tableInfo == null) {
+            // Not cached: the table info may still be registered later
+            throw new IllegalArgumentException(
+                    String.format("Class [%s] is not a MyBatis-Plus entity (no TableInfo found). "
+                            + "findChangedFields requires a database entity type.", type.getName()));
+        }
+        return CACHE.computeIfAbsent(type, key -> new EntityComparator(key, tableInfo));
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Mapped (non-key) property names, in {@link TableInfo#getFieldList()} order.
+     */
+    public String[] getProperties() {
+        return properties.clone();
+    }
+
+    /**
+     * Whether all given names are mapped (non-key) properties of the entity
+     */
+    public boolean isMapped(Set<String> properties) {
+        return propertySet.containsAll(properties);
+    }
+
+    /**
+     * Database column of a mapped property, null if the property is not mapped
+     */
+    public String getColumn(String property) {
+        Integer index = propertyIndex.get(property);
+        return index == null ? null : columns[index];
+    }
+
+    /**
+     * Value of a mapped property of an instance of {@link #getType()}
+     *
+     * @throws IllegalArgumentException if the property is not mapped
+     */
+    public Object getValue(Object entity, String property) {
+        Integer index = propertyIndex.get(property);
+        if (index == null) {
+            throw new IllegalArgumentException(String.format("Property [%s] is not mapped by %s", property, type.getName()));
+        }
+        try {
+            return comparators[index].field.get(entity);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to read field " + comparators[index].field, e);
+        }
+    }
+
+    /**
+     * Collect the fields whose values differ between two instances of {@link #getType()}.
+     *
+     * @param newObject       new entity
+     * @param oldObject       old entity
+     * @param toUnderlineCase true to return column names, false to return property names
+     * @return changed fields
+     */
+    public Set<String> findChangedFields(Object newObject, Object oldObject, boolean toUnderlineCase) {
+        Set<String> differentFields = new HashSet<>();
+        String[] names = toUnderlineCase ? columns : properties;
+        for (int i = 0; i < comparators.length; i++) {
+            if (comparators[i].notEqual(newObject, oldObject)) {
+                differentFields.add(names[i]);
+            }
+        }
+        return differentFields;
+    }
+
+    /**
+     * Whether any mapped field differs between two instances of {@link #getType()}.
+     */
+    public boolean isChanged(Object newObject, Object oldObject) {
+        for (FieldComparator comparator : comparators) {
+            if (comparator.notEqual(newObject, oldObject)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Equality of one field, specialised on the declared field type.
+     */
+    private abstract static class FieldComparator {
+        final Field field;
+        final MethodHandle getter;
+
+        FieldComparator(Field field, MethodHandle getter) {
+            this.field = field;
+            this.getter = getter;
+        }
+
+        static FieldComparator of(MethodHandles.Lookup lookup, Field field) {
+            MethodHandle getter;
+            try {
+                field.setAccessible(true);
+                getter = lookup.unreflectGetter(field);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalStateException("Cannot access field " + field, e);
+            }
+            Class<?> fieldType = field.getType();
+            MethodHandle typed = getter.asType(MethodType.methodType(fieldType, Object.class));
+            if (fieldType == int.class) {
+                return new IntComparator(field, typed);
+            } else if (fieldType == long.class) {
+                return new LongComparator(field, typed);
+            } else if (fieldType == boolean.class) {
+                return new BooleanComparator(field, typed);
+            } else if (fieldType == double.class) {
+                return new DoubleComparator(field, typed);
+            } else if (fieldType == float.class) {
+                return new FloatComparator(field, typed);
+            } else if (fieldType == short.class) {
+                return new ShortComparator(field, typed);
+            } else if (fieldType == byte.class) {
+                return new ByteComparator(field, typed);
+            } else if (fieldType == char.class) {
+                return new CharComparator(field, typed);
+            }
+            return new ReferenceComparator(field, getter.asType(MethodType.methodType(Object.class, Object.class)));
+        }
+
+        final boolean notEqual(Object newObject, Object oldObject) {
+            try {
+                return differs(newObject, oldObject);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read field " + field, e);
+            }
+        }
+
+        abstract boolean differs(Object newObject, Object oldObject) throws Throwable;
+    }
+
+    private static final class IntComparator extends FieldComparator {
+        IntComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (int) getter.invokeExact(newObject) != (int) getter.invokeExact(oldObject);
+        }
+    }
+
+    private static final class LongComparator extends FieldComparator {
+        LongComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (long) getter.invokeExact(newObject) != (long) getter.invokeExact(oldObject);
+        }
+    }
+
+    private static final class BooleanComparator extends FieldComparator {
+        BooleanComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (boolean) getter.invokeExact(newObject) != (boolean) getter.invokeExact(oldObject);
+        }
+    }
+
+    /**
+     * Same semantics as {@link Double#equals(Object)}: NaN equals NaN, 0.0 differs from -0.0.
+     */
+    private static final class DoubleComparator extends FieldComparator {
+        DoubleComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return Double.doubleToLongBits((double) getter.invokeExact(newObject))
+                    != Double.doubleToLongBits((double) getter.invokeExact(oldObject));
+        }
+    }
+
+    private static final class FloatComparator extends FieldComparator {
+        FloatComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return Float.floatToIntBits((float) getter.invokeExact(newObject))
+                    != Float.floatToIntBits((float) getter.invokeExact(oldObject));
+        }
+    }
+
+    private static final class ShortComparator extends FieldComparator {
+        ShortComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (short) getter.invokeExact(newObject) != (short) getter.invokeExact(oldObject);
+        }
+    }
+
+    private static final class ByteComparator extends FieldComparator {
+        ByteComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (byte) getter.invokeExact(newObject) != (byte) getter.invokeExact(oldObject);
+        }
+    }
+
+    private static final class CharComparator extends FieldComparator {
+        CharComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            return (char) getter.invokeExact(newObject) != (char) getter.invokeExact(oldObject);
+        }
+    }
+
+    private static final class ReferenceComparator extends FieldComparator {
+        ReferenceComparator(Field field, MethodHandle getter) {
+            super(field, getter);
+        }
+
+        @Override
+        boolean differs(Object newObject, Object oldObject) throws Throwable {
+            Object newValue = (Object) getter.invokeExact(newObject);
+            Object oldValue = (Object) getter.invokeExact(oldObject);
+            return newValue != oldValue && ObjectUtil.notEqual(newValue, oldValue);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.damon.aggregate.persistence.comparator;
+
+import com.damon.aggregate.persistence.ID;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of entities by ID used by the collection comparisons of {@link ObjectComparator}. The first entity of an ID
+ * wins; an entity with a null ID is indexed under the null key.
+ * <p>
+ * Collections whose IDs are all {@link Long} (snowflake IDs) get an open-addressing {@code long} table: no hash node
+ * per entity and no hashing of boxed keys. Other ID types fall back to a {@link HashMap}.
+ * Built once, the index is read-only and may be read concurrently; it must not be read while entities are added.
+ *
+ * @param <T> entity type
+ */
+abstract class IdIndex<T extends ID> {
+    private T nullItem;
+
+    static <T extends ID> IdIndex<T> of(Collection<T> items) {
+        IdIndex<T> index = create(items);
+        for (T item : items) {
+            index.add(item);
+        }
+        return index;
+    }
+
+    /**
+     * Index of entities whose non-null IDs must be distinct. Entities without ID (not inserted yet) may be many, the
+     * first one is indexed under the null key.
+     *
+     * @throws IllegalStateException on a duplicate ID
+     */
+    static <T extends ID> IdIndex<T> ofUnique(Collection<T> items) {
+        IdIndex<T> index = create(items);
+        for (T item : items) {
+            index.addUnique(item);
+        }
+        return index;
+    }
+
+    /**
+     * Empty index sized for the given entities, filled with {@link #add} or {@link #addUnique}
+     */
+    static <T extends ID> IdIndex<T> create(Collection<T> items) {
+        return LongIdIndex.supports(items) ? new LongIdIndex<>(items.size()) : new HashIdIndex<>(items.size());
+    }
+
+    /**
+     * Index an entity unless one with the same ID is already indexed
+     *
+     * @return false if the ID was already indexed
+     */
+    final boolean add(T item) {
+        Object id = item.getId();
+        if (id == null) {
+            if (nullItem != null) {
+                return false;
+            }
+            nullItem = item;
+            return true;
+        }
+        return addNonNull(id, item);
+    }
+
+    /**
+     * Index an entity, see {@link #ofUnique}
+     *
+     * @throws IllegalStateException if another entity with the same non-null ID is already indexed
+     */
+    final void addUnique(T item) {
+        if (!add(item) && item.getId() != null) {
+            throw new IllegalStateException(String.format("Duplicate ID %s of %s", item.getId(), item.getClass().getSimpleName()));
+        }
+    }
+
+    /**
+     * Entity of an ID, null if none
+     */
+    final T get(Object id) {
+        return id == null ? nullItem : getNonNull(id);
+    }
+
+    final boolean contains(Object id) {
+        return get(id) != null;
+    }
+
+    abstract boolean addNonNull(Object id, T item);
+
+    abstract T getNonNull(Object id);
+
+    /**
+     * Open-addressing table with linear probing, keyed by the primitive value of {@link Long} IDs
+     */
+    private static final class LongIdIndex<T extends ID> extends IdIndex<T> {
+        private long[] keys;
+        private Object[] items;
+        private int shift;
+        private int size;
+
+        private LongIdIndex(int expectedSize) {
+            // Load factor at most 0.5
+            allocate(Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1);
+        }
+
+        private void allocate(int capacity) {
+            this.keys = new long[capacity];
+            this.items = new Object[capacity];
+            this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private static boolean supports(Collection<? extends ID> items) {
+            for (ID item : items) {
+                Object id = item.getId();
+                if (id != null && !(id instanceof Long)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean addNonNull(Object id, T item) {
+            long key = (Long) id;
+            int mask = keys.length - 1;
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                if (items[slot] == null) {
+                    keys[slot] = key;
+                    items[slot] = item;
+                    // More entities than the collection reported (e.g. a concurrent collection): keep probes short
+                    if (++size * 2 > keys.length) {
+                        grow();
+                    }
+                    return true;
+                }
+                if (keys[slot] == key) {
+                    return false;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldItems = items;
+            allocate(oldKeys.length << 1);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldItems[i] != null) {
+                    int slot = slot(oldKeys[i]);
+                    while (items[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    items[slot] = oldItems[i];
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T getNonNull(Object id) {
+            if (!(id instanceof Long)) {
+                return null;
+            }
+            long key = (Long) id;
+            int mask = keys.length - 1;
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                Object item = items[slot];
+                if (item == null) {
+                    return null;
+                }
+                if (keys[slot] == key) {
+                    return (T) item;
+                }
+            }
+        }
+
+        /**
+         * Fibonacci hashing: sequential and time-ordered IDs spread over the whole table
+         */
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+    }
+
+    private static final class HashIdIndex<T extends ID> extends IdIndex<T> {
+        private final Map<Object, T> items;
+
+        private HashIdIndex(int expectedSize) {
+            this.items = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+        }
+
+        @Override
+        boolean addNonNull(Object id, T item) {
+            return items.putIfAbsent(id, item) == null;
+        }
+
+        @Override
+        T getNonNull(Object id) {
+            return items.get(id);
+        }
+    }
+}
@@ -2,19 +2,24 @@ package com.damon.aggregate.persistence.comparator;
 
 import cn.hutool.core.builder.EqualsBuilder;
 import cn.hutool.core.util.ObjectUtil;
-import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
 import com.baomidou.mybatisplus.core.metadata.TableInfo;
-import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.DirtyTracking;
 import com.damon.aggregate.persistence.ID;
-import org.apache.ibatis.reflection.MetaObject;
-import org.apache.ibatis.reflection.SystemMetaObject;
+import com.damon.aggregate.persistence.metrics.Metrics;
 
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class ObjectComparator {
+    /**
+     * Default combined size of the compared collections from which comparisons run in parallel
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10_000;
+
     public static Set<String> findChangedFields(Object newObject, Object oldObject) {
         return findChangedFields(newObject, oldObject, false);
     }
@@ -22,8 +27,9 @@ public class ObjectComparator {
     /**
      * 比对两个数据库实体对象的字段差异。
      * <p>
-     * 基于 MyBatis-Plus 的 {@link TableInfo} 元数据进行字段遍历，仅比对与数据库列映射的字段，
-     * 通过 {@link MetaObject} 进行字段读取，相比通用反射性能更优（TableInfo 已被 MyBatis 缓存）。
+     * 基于 MyBatis-Plus 的 {@link TableInfo} 元数据进行字段遍历，仅比对与数据库列映射的字段。
+     * 每个实体类只编译一次 {@link EntityComparator}（直接字段访问、按声明类型比较，基本类型不装箱），
+     * 调用时不再创建 MetaObject。
      *
      * @param newObject       新对象（必须为 MyBatis 实体类型）
      * @param oldObject       旧对象（必须与 newObject 同类型）
@@ -33,31 +39,225 @@ public class ObjectComparator {
     public static Set<String> findChangedFields(Object newObject, Object oldObject, boolean toUnderlineCase) {
         Objects.requireNonNull(newObject, "New object cannot be null");
         Objects.requireNonNull(oldObject, "Old object cannot be null");
-        if (ObjectUtil.notEqual(newObject.getClass().getName(), oldObject.getClass().getName())) {
+        if (newObject.getClass() != oldObject.getClass()
+                && ObjectUtil.notEqual(newObject.getClass().getName(), oldObject.getClass().getName())) {
             return Collections.emptySet();
         }
+        return EntityComparator.forClass(newObject.getClass()).findChangedFields(newObject, oldObject, toUnderlineCase);
+    }
+
+    /**
+     * 单次遍历计算两个实体集合之间的新增、修改、删除计划。
+     * <p>
+     * 两个集合各只建立一次 ID 索引，每个实体最多转换一次，每对实体只比对一次字段
+     * （仅转换新增实体、发生变更的实体和被删除的旧实体；与旧集合为同一对象的实体视为未修改，不做转换）。
+     * 实现 {@link DirtyTracking} 的实体：没有脏属性时直接跳过，声明脏属性与数据库实体属性同名（{@link DirtyTracking#dirtyPropertiesMatchEntity()}）且均为映射字段时直接作为变更字段，不再比对。
+     * 两个集合合计达到 {@link #DEFAULT_PARALLEL_THRESHOLD} 时，转换与比对在 fork/join 公共池上并行执行（转换函数会被并发调用），
+     * 结果及其顺序与串行计算一致。
+     *
+     * @param newItems  新集合（当前状态）
+     * @param oldItems  旧集合（快照状态）
+     * @param converter 转换函数（领域模型 -> 数据库实体）
+     * @param isNew     判断实体是否新增，为 null 时 ID 为空或不在旧集合中的实体视为新增
+     * @return 变更计划
+     * @throws IllegalStateException 同一集合中存在重复的非空 ID
+     */
+    public static <T extends ID, B extends ID> ChangePlan<T, B> planChanges(Collection<T> newItems, Collection<T> oldItems,
+                                                                          Function<T, B> converter, Predicate<T> isNew) {
+        return planChanges(newItems, oldItems, converter, isNew, false, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * 同 {@link #planChanges(Collection, Collection, Function, Predicate, boolean, int, boolean)}，不记录新旧实体配对。
+     */
+    public static <T extends ID, B extends ID> ChangePlan<T, B> planChanges(Collection<T> newItems, Collection<T> oldItems,
+                                                                          Function<T, B> converter, Predicate<T> isNew,
+                                                                          boolean compareDomain, int parallelThreshold) {
+        return planChanges(newItems, oldItems, converter, isNew, compareDomain, parallelThreshold, false);
+    }
+
+    /**
+     * 同 {@link #planChanges(Collection, Collection, Function, Predicate)}，由调用方指定是否比对领域对象、并行阈值及是否记录配对。
+     * <p>
+     * {@code compareDomain} 为 true 时，保留的实体先逐字段比对领域对象（{@link DomainComparator}），相等则视为未修改，不做转换。
+     * 适用于大部分实体未修改的集合；开启后转换函数只对发生变更的实体调用，不能依赖其副作用（如为子实体设置父 ID）。
+     *
+     * @param newItems          新集合（当前状态）
+     * @param oldItems          旧集合（快照状态）
+     * @param converter         转换函数（领域模型 -> 数据库实体）
+     * @param isNew             判断实体是否新增，为 null 时 ID 为空或不在旧集合中的实体视为新增
+     * @param compareDomain     转换前是否比对领域对象
+     * @param parallelThreshold 两个集合合计达到该数量时并行比对，{@link Integer#MAX_VALUE} 表示始终串行
+     * @param pairItems         是否记录新旧实体配对（{@link ChangePlan#getPairedItems()}），用于继续比对实体的嵌套集合
+     * @return 变更计划
+     * @throws IllegalStateException 同一集合中存在重复的非空 ID
+     */
+    public static <T extends ID, B extends ID> ChangePlan<T, B> planChanges(Collection<T> newItems, Collection<T> oldItems,
+                                                                          Function<T, B> converter, Predicate<T> isNew,
+                                                                          boolean compareDomain, int parallelThreshold,
+                                                                          boolean pairItems) {
+        checkParallelThreshold(parallelThreshold);
+        long start = Metrics.start();
+        ChangePlan<T, B> plan = computePlan(newItems, oldItems, converter, isNew, compareDomain, parallelThreshold, pairItems);
+        if (start != 0L) {
+            int changedFields = 0;
+            for (ChangedEntity<B> update : plan.getUpdates()) {
+                changedFields += update.getChangedFields().size();
+            }
+            Class<?> entityType = !newItems.isEmpty() ? newItems.iterator().next().getClass()
+                    : !oldItems.isEmpty() ? oldItems.iterator().next().getClass() : null;
+            Metrics.get().diffCompleted(entityType, Metrics.elapsed(start), plan.getInsertItems().size()
+                    + plan.getUpdates().size() + plan.getDeletes().size(), changedFields);
+        }
+        return plan;
+    }
 
-        TableInfo tableInfo = TableInfoHelper.getTableInfo(newObject.getClass());
-        if (tableInfo == null) {
-            throw new IllegalArgumentException(
-                    String.format("Class [%s] is not a MyBatis-Plus entity (no TableInfo found). "
-                            + "findChangedFields requires a database entity type.", newObject.getClass().getName()));
+    private static <T extends ID, B extends ID> ChangePlan<T, B> computePlan(Collection<T> newItems, Collection<T> oldItems,
+                                                                           Function<T, B> converter, Predicate<T> isNew,
+                                                                           boolean compareDomain, int parallelThreshold,
+                                                                           boolean pairItems) {
+        ChangePlan<T, B> plan = new ChangePlan<>();
+        IdIndex<T> oldIndex = IdIndex.ofUnique(oldItems);
+        IdIndex<T> newIndex = IdIndex.ofUnique(newItems);
+        if (newItems.size() + oldItems.size() >= parallelThreshold) {
+            planInParallel(new ArrayList<>(newItems), new ArrayList<>(oldItems), oldIndex, newIndex, converter, isNew,
+                    compareDomain, plan);
+        } else {
+            planInSequence(newItems, oldItems, oldIndex, newIndex, converter, isNew, compareDomain, plan);
+        }
+        if (pairItems) {
+            pairItems(newItems, oldItems, oldIndex, newIndex, plan);
         }
+        return plan;
+    }
 
-        Set<String> differentFields = new HashSet<>();
-        MetaObject newMeta = SystemMetaObject.forObject(newObject);
-        MetaObject oldMeta = SystemMetaObject.forObject(oldObject);
+    private static <T extends ID, B extends ID> void planInSequence(Collection<T> newItems, Collection<T> oldItems,
+                                                                   IdIndex<T> oldIndex, IdIndex<T> newIndex,
+                                                                   Function<T, B> converter, Predicate<T> isNew,
+                                                                   boolean compareDomain, ChangePlan<T, B> plan) {
+        for (T newItem : newItems) {
+            Object id = newItem.getId();
+            boolean added = isNew == null ? id == null || !oldIndex.contains(id) : isNew.test(newItem);
+            if (added) {
+                plan.addInsert(newItem, converter.apply(newItem));
+                continue;
+            }
+            ChangedEntity<B> changedEntity = findChange(newItem, id == null ? null : oldIndex.get(id), converter, compareDomain);
+            if (changedEntity != null) {
+                plan.addUpdate(newItem, changedEntity);
+            }
+        }
 
-        for (TableFieldInfo fieldInfo : tableInfo.getFieldList()) {
-            String property = fieldInfo.getProperty();
-            Object newValue = newMeta.getValue(property);
-            Object oldValue = oldMeta.getValue(property);
+        for (T oldItem : oldItems) {
+            Object id = oldItem.getId();
+            if (id != null && !newIndex.contains(id)) {
+                plan.addDelete(converter.apply(oldItem));
+            }
+        }
+    }
 
-            if (ObjectUtil.notEqual(newValue, oldValue)) {
-                differentFields.add(toUnderlineCase ? fieldInfo.getColumn() : property);
+    /**
+     * Pair the items with their old counterparts through the indexes of the plan, in collection order
+     */
+    private static <T extends ID, B extends ID> void pairItems(Collection<T> newItems, Collection<T> oldItems,
+                                                              IdIndex<T> oldIndex, IdIndex<T> newIndex, ChangePlan<T, B> plan) {
+        for (T newItem : newItems) {
+            Object id = newItem.getId();
+            T oldItem = id == null ? null : oldIndex.get(id);
+            if (oldItem != newItem) {
+                plan.addPair(newItem, oldItem);
+            }
+        }
+        for (T oldItem : oldItems) {
+            Object id = oldItem.getId();
+            if (id != null && !newIndex.contains(id)) {
+                plan.addPair(null, oldItem);
             }
         }
-        return differentFields;
+    }
+
+    /**
+     * Parallel form of {@link #planChanges}: every item is classified concurrently into its own slot, then the plan is
+     * assembled in collection order, so the result is the same as the sequential one.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends ID, B extends ID> void planInParallel(List<T> newList, List<T> oldList, IdIndex<T> oldIndex,
+                                                                   IdIndex<T> newIndex, Function<T, B> converter,
+                                                                   Predicate<T> isNew, boolean compareDomain,
+                                                                   ChangePlan<T, B> plan) {
+        // Slot per new item: B to insert, ChangedEntity to update, null when unchanged
+        Object[] newResults = new Object[newList.size()];
+        boolean[] inserts = new boolean[newList.size()];
+        Object[] deletes = new Object[oldList.size()];
+        // Parallel streams run on the common fork/join pool
+        IntStream.range(0, newList.size()).parallel().forEach(i -> {
+            T newItem = newList.get(i);
+            Object id = newItem.getId();
+            if (isNew == null ? id == null || !oldIndex.contains(id) : isNew.test(newItem)) {
+                inserts[i] = true;
+                newResults[i] = converter.apply(newItem);
+            } else {
+                newResults[i] = findChange(newItem, id == null ? null : oldIndex.get(id), converter, compareDomain);
+            }
+        });
+        IntStream.range(0, oldList.size()).parallel().forEach(i -> {
+            T oldItem = oldList.get(i);
+            Object id = oldItem.getId();
+            if (id != null && !newIndex.contains(id)) {
+                deletes[i] = converter.apply(oldItem);
+            }
+        });
+
+        for (int i = 0; i < newResults.length; i++) {
+            if (inserts[i]) {
+                plan.addInsert(newList.get(i), (B) newResults[i]);
+            } else if (newResults[i] != null) {
+                plan.addUpdate(newList.get(i), (ChangedEntity<B>) newResults[i]);
+            }
+        }
+        for (Object delete : deletes) {
+            if (delete != null) {
+                plan.addDelete((B) delete);
+            }
+        }
+    }
+
+    /**
+     * Update of an existing item, null if it has no counterpart or no mapped field changed
+     */
+    private static <T extends ID, B extends ID> ChangedEntity<B> findChange(T newItem, T oldItem, Function<T, B> converter,
+                                                                          boolean compareDomain) {
+        // No counterpart, or the very same instance (copy-on-write snapshot): nothing to update
+        if (oldItem == null || oldItem == newItem) {
+            return null;
+        }
+        // Dirty-tracked entity without dirty properties: unchanged by contract
+        Set<String> dirtyProperties = newItem instanceof DirtyTracking ? ((DirtyTracking) newItem).dirtyProperties() : null;
+        if (dirtyProperties != null && dirtyProperties.isEmpty()) {
+            return null;
+        }
+        // Unchanged domain object: no conversion (the converter may have side effects) and no entity comparison
+        if (dirtyProperties == null && compareDomain && DomainComparator.deepEquals(newItem, oldItem)) {
+            return null;
+        }
+        B newEntity = converter.apply(newItem);
+        // Dirty properties declared to match the entity are the changed fields: old entity neither converted nor known
+        Set<String> changedFields = DirtyTracking.changedProperties(newItem, newEntity.getClass());
+        if (changedFields != null) {
+            return new ChangedEntity<>(null, newEntity, changedFields);
+        }
+        B oldEntity = converter.apply(oldItem);
+        if (newEntity.getClass() != oldEntity.getClass()) {
+            return null;
+        }
+        changedFields = EntityComparator.forClass(newEntity.getClass()).findChangedFields(newEntity, oldEntity, false);
+        return changedFields.isEmpty() ? null : new ChangedEntity<>(oldEntity, newEntity, changedFields);
+    }
+
+    private static void checkParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold <= 0) {
+            throw new IllegalArgumentException("Parallel threshold must be positive");
+        }
     }
 
     /**
@@ -69,10 +269,14 @@ public class ObjectComparator {
      * @return
      */
     public static <T extends ID> Collection<T> findNewEntities(Collection<T> newEntities, Collection<T> oldEntities) {
-        Set<Object> newIds = newEntities.stream().map(T::getId).collect(Collectors.toSet());
-        Set<Object> oldIds = oldEntities.stream().map(T::getId).collect(Collectors.toSet());
-        newIds.removeAll(oldIds);
-        return newEntities.stream().filter((item) -> newIds.contains(item.getId()) || item.getId() == null).collect(Collectors.toList());
+        IdIndex<T> oldIndex = IdIndex.of(oldEntities);
+        List<T> results = new ArrayList<>();
+        for (T item : newEntities) {
+            if (item.getId() == null || !oldIndex.contains(item.getId())) {
+                results.add(item);
+            }
+        }
+        return results;
     }
 
     public static <T extends ID> Collection<T> findNewEntities(Collection<T> newEntities, Predicate<T> predicate) {
@@ -80,29 +284,46 @@ public class ObjectComparator {
     }
 
     public static <T extends ID> Collection<T> findRemovedEntities(Collection<T> newEntities, Collection<T> oldEntities) {
-        Set<Object> newIds = newEntities.stream().map(T::getId).collect(Collectors.toSet());
-        Set<Object> oldIds = oldEntities.stream().map(T::getId).collect(Collectors.toSet());
-        oldIds.removeAll(newIds);
-        return oldEntities.stream().filter((item) -> oldIds.contains(item.getId())).collect(Collectors.toList());
-    }
-
-    public static <T extends ID> Collection<ChangedEntity<T>> findChangedEntities(Collection<T> newEntities, Collection<T> oldEntities) {
-        Map<Object, T> newEntityMap = newEntities.stream().collect(Collectors.toMap(ID::getId, Function.identity()));
-        Map<Object, T> oldEntityMap = oldEntities.stream().collect(Collectors.toMap(ID::getId, Function.identity()));
-        //交集
-        oldEntityMap.keySet().retainAll(newEntityMap.keySet());
-        List<ChangedEntity<T>> results = new ArrayList();
-        Iterator iterator = oldEntityMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<ID, T> entry = (Map.Entry) iterator.next();
-            T oldEntity = entry.getValue();
-            T newEntity = newEntityMap.get(entry.getKey());
-            if (!EqualsBuilder.reflectionEquals(oldEntity, newEntity, false)) {
-                results.add(new ChangedEntity(oldEntity, newEntity));
+        IdIndex<T> newIndex = IdIndex.of(newEntities);
+        List<T> results = new ArrayList<>();
+        for (T item : oldEntities) {
+            if (!newIndex.contains(item.getId())) {
+                results.add(item);
             }
         }
         return results;
     }
 
+    public static <T extends ID> Collection<ChangedEntity<T>> findChangedEntities(Collection<T> newEntities, Collection<T> oldEntities) {
+        return findChangedEntities(newEntities, oldEntities, DEFAULT_PARALLEL_THRESHOLD);
+    }
 
-}
\ No newline at end of file
+    /**
+     * 查询两个列表中 ID 相同且字段不同的实体，两个列表合计达到 {@code parallelThreshold} 时并行比对。ID 为空的新实体不参与比对。
+     *
+     * @param newEntities       新列表
+     * @param oldEntities       旧列表
+     * @param parallelThreshold 并行阈值，{@link Integer#MAX_VALUE} 表示始终串行
+     * @return 发生变化的实体，按新列表顺序
+     * @throws IllegalStateException 同一列表中存在重复的非空 ID
+     */
+    public static <T extends ID> Collection<ChangedEntity<T>> findChangedEntities(Collection<T> newEntities, Collection<T> oldEntities,
+                                                                                int parallelThreshold) {
+        checkParallelThreshold(parallelThreshold);
+        IdIndex<T> oldIndex = IdIndex.ofUnique(oldEntities);
+        // 交集：新列表的重复 ID 在同一次遍历中校验
+        IdIndex<T> newIndex = IdIndex.create(newEntities);
+        List<ChangedEntity<T>> matched = new ArrayList<>();
+        for (T newEntity : newEntities) {
+            newIndex.addUnique(newEntity);
+            T oldEntity = newEntity.getId() == null ? null : oldIndex.get(newEntity.getId());
+            if (oldEntity != null) {
+                matched.add(new ChangedEntity<>(oldEntity, newEntity));
+            }
+        }
+        Stream<ChangedEntity<T>> stream = newEntities.size() + oldEntities.size() >= parallelThreshold
+                ? matched.parallelStream() : matched.stream();
+        return stream.filter(changed -> !EqualsBuilder.reflectionEquals(changed.getOldEntity(), changed.getNewEntity(), false))
+                .collect(Collectors.toList());
+    }
+}
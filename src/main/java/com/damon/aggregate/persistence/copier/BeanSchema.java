@@ -0,0 +1,188 @@
+package com.damon.aggregate.persistence.copier;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-class field schema built once and cached: a no-arg constructor and one {@link MethodHandle}
+ * accessor pair per instance field, so copying or encoding a bean needs no reflection lookups at runtime.
+ * <p>
+ * Classes without an accessible no-arg constructor, JDK classes and collection/map/array types have no schema
+ * ({@link #forClass(Class)} returns {@code null}); callers handle those values themselves.
+ */
+public final class BeanSchema {
+    private static final Map<Class<?>, Optional<BeanSchema>> CACHE = new ConcurrentHashMap<>();
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class, Class.class,
+            Locale.class, Currency.class, URI.class));
+
+    private final Class<?> type;
+    private final MethodHandle constructor;
+    private final Property[] properties;
+
+    private BeanSchema(Class<?> type, MethodHandle constructor, Property[] properties) {
+        this.type = type;
+        this.constructor = constructor;
+        this.properties = properties;
+    }
+
+    /**
+     * Get the cached schema of a bean class.
+     *
+     * @param type bean class
+     * @return schema, or {@code null} if the class cannot be handled field by field
+     */
+    public static BeanSchema forClass(Class<?> type) {
+        return CACHE.computeIfAbsent(type, BeanSchema::build).orElse(null);
+    }
+
+    /**
+     * Whether instances of the given class are immutable and can be shared between copies.
+     */
+    public static boolean isImmutable(Class<?> type) {
+        return type.isPrimitive()
+                || type.isEnum()
+                || IMMUTABLE_TYPES.contains(type)
+                || (type.getSuperclass() != null && type.getSuperclass().isEnum())
+                || type.getName().startsWith("java.time.");
+    }
+
+    private static Optional<BeanSchema> build(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                || isImmutable(type) || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+                || type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+            return Optional.empty();
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Constructor<?> ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            MethodHandle constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+
+            List<Property> properties = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    properties.add(new Property(field, lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+                }
+            }
+            return Optional.of(new BeanSchema(type, constructor, properties.toArray(new Property[0])));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            // No no-arg constructor, or the class is not accessible (e.g. module restrictions)
+            return Optional.empty();
+        }
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Property[] getProperties() {
+        return properties;
+    }
+
+    /**
+     * Create a new instance through the no-arg constructor.
+     */
+    public Object newInstance() {
+        try {
+            return constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to instantiate " + type.getName(), e);
+        }
+    }
+
+    /**
+     * One instance field of a bean, with pre-bound accessors.
+     */
+    public static final class Property {
+        private final Field field;
+        private final Class<?> type;
+        private final boolean immutable;
+        private final boolean synthetic;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        /**
+         * (Object target, Object source) -> void, copies the raw field value without boxing primitives
+         */
+        private final MethodHandle copier;
+
+        private Property(Field field, MethodHandle getter, MethodHandle setter) {
+            this.field = field;
+            this.type = field.getType();
+            this.immutable = BeanSchema.isImmutable(type);
+            this.synthetic = field.isSynthetic();
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            MethodHandle typedGetter = getter.asType(MethodType.methodType(type, Object.class));
+            MethodHandle typedSetter = setter.asType(MethodType.methodType(void.class, Object.class, type));
+            this.copier = MethodHandles.filterArguments(typedSetter, 1, typedGetter);
+        }
+
+        public String getName() {
+            return field.getName();
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        /**
+         * Whether the declared type is immutable, so the value can always be shared (or copied without boxing).
+         */
+        public boolean isImmutable() {
+            return immutable;
+        }
+
+        /**
+         * Compiler-generated fields (e.g. outer instance references) are shared, never copied.
+         */
+        public boolean isSynthetic() {
+            return synthetic;
+        }
+
+        public Object get(Object bean) {
+            try {
+                return (Object) getter.invokeExact(bean);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read field " + field, e);
+            }
+        }
+
+        public void set(Object bean, Object value) {
+            try {
+                setter.invokeExact(bean, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to write field " + field, e);
+            }
+        }
+
+        /**
+         * Copy the raw field value from {@code source} to {@code target}.
+         */
+        public void copyValue(Object target, Object source) {
+            try {
+                copier.invokeExact(target, source);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to copy field " + field, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.damon.aggregate.persistence.copier;
+
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.exception.UnsupportedTypeException;
+import com.damon.aggregate.persistence.utils.JsonUtils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serialize objects into a compact binary form driven by the cached {@link BeanSchema} of each class.
+ * <p>
+ * Bean fields are written in schema order without names, primitive fields without type tags, integers as varints
+ * and classes as ids of an in-process registry. The format is therefore only valid inside the running JVM, which is
+ * all an in-memory aggregate snapshot needs. Values without a schema are embedded as JSON.
+ * <p>
+ * Collections and maps are decoded as their exact JDK type ({@code TreeSet}, {@code ArrayDeque}, {@code EnumMap}...).
+ * Those whose type cannot be encoded, such as sorted collections with a comparator or custom collection classes, make
+ * {@link #serialize(Object)} throw {@link UnsupportedTypeException}; {@link #copy(Object)} then falls back to the
+ * {@link MethodHandleDeepCopier}. So does a graph deeper than {@value #MAX_DEPTH} levels, taken for a cycle, instead of
+ * overflowing the stack.
+ */
+public class BinaryDeepCopier implements SerializingDeepCopier {
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte STRING = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte CHAR = 10;
+    private static final byte BIG_DECIMAL = 11;
+    private static final byte BIG_INTEGER = 12;
+    private static final byte ENUM = 13;
+    private static final byte BEAN = 14;
+    private static final byte COLLECTION = 15;
+    private static final byte ENUM_SET = 16;
+    private static final byte MAP = 17;
+    private static final byte ENUM_MAP = 18;
+    private static final byte ARRAY = 19;
+    private static final byte DATE = 20;
+    private static final byte TEMPORAL = 21;
+    private static final byte UUID_VALUE = 22;
+    private static final byte JSON = 23;
+    private static final int MAX_DEPTH = 512;
+
+    private static final Map<Class<?>, Integer> CLASS_IDS = new ConcurrentHashMap<>();
+    private static final List<Class<?>> CLASSES = new CopyOnWriteArrayList<>();
+    private static final Map<Class<?>, Optional<Method>> TEMPORAL_PARSERS = new ConcurrentHashMap<>();
+
+    private final DeepCopier fallback = new MethodHandleDeepCopier();
+
+    /**
+     * @throws UnsupportedTypeException if the object graph holds a collection or map whose type cannot be encoded, or
+     *                                  is deeper than {@value #MAX_DEPTH} levels (probably cyclic)
+     */
+    @Override
+    public byte[] serialize(Object object) {
+        Output out = new Output();
+        write(out, object, 0);
+        return out.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(byte[] bytes, Class<T> type) {
+        Objects.requireNonNull(bytes, "Bytes cannot be null");
+        return (T) read(new Input(bytes));
+    }
+
+    @Override
+    public <T> T copy(T object) {
+        try {
+            return SerializingDeepCopier.super.copy(object);
+        } catch (UnsupportedTypeException e) {
+            return fallback.copy(object);
+        }
+    }
+
+    private void write(Output out, Object value, int depth) {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (depth > MAX_DEPTH) {
+            throw new UnsupportedTypeException("Object graph deeper than " + MAX_DEPTH
+                    + " levels, probably cyclic, at " + type.getName());
+        }
+        if (type == String.class) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            out.writeVarLong((Long) value);
+        } else if (type == Integer.class) {
+            out.writeByte(INT);
+            out.writeVarLong((Integer) value);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeVarLong(Float.floatToRawIntBits((Float) value));
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeVarLong((Short) value);
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeVarLong((Byte) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHAR);
+            out.writeVarLong((Character) value);
+        } else if (type == BigDecimal.class) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeString(value.toString());
+        } else if (type == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            out.writeString(value.toString());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeVarLong(classId(((Enum<?>) value).getDeclaringClass()));
+            out.writeVarLong(((Enum<?>) value).ordinal());
+        } else if (value instanceof Collection) {
+            writeCollection(out, (Collection<?>) value, depth);
+        } else if (value instanceof Map) {
+            writeMap(out, (Map<?, ?>) value, depth);
+        } else if (type.isArray()) {
+            int length = Array.getLength(value);
+            out.writeByte(ARRAY);
+            out.writeVarLong(classId(type.getComponentType()));
+            out.writeVarLong(length);
+            for (int i = 0; i < length; i++) {
+                write(out, Array.get(value, i), depth + 1);
+            }
+        } else if (type == Date.class) {
+            out.writeByte(DATE);
+            out.writeVarLong(((Date) value).getTime());
+        } else if (type == UUID.class) {
+            out.writeByte(UUID_VALUE);
+            out.writeFixedLong(((UUID) value).getMostSignificantBits());
+            out.writeFixedLong(((UUID) value).getLeastSignificantBits());
+        } else if (type.getName().startsWith("java.time.") && temporalParser(type) != null) {
+            out.writeByte(TEMPORAL);
+            out.writeVarLong(classId(type));
+            out.writeString(value.toString());
+        } else {
+            BeanSchema schema = BeanSchema.forClass(type);
+            if (schema == null) {
+                out.writeByte(JSON);
+                out.writeVarLong(classId(type));
+                out.writeString(JsonUtils.jsonToString(value));
+                return;
+            }
+            out.writeByte(BEAN);
+            out.writeVarLong(classId(type));
+            for (BeanSchema.Property property : schema.getProperties()) {
+                if (property.getType().isPrimitive()) {
+                    writePrimitive(out, property.getType(), property.get(value));
+                } else {
+                    write(out, property.get(value), depth + 1);
+                }
+            }
+        }
+    }
+
+    private void writePrimitive(Output out, Class<?> type, Object value) {
+        if (type == long.class) {
+            out.writeVarLong((Long) value);
+        } else if (type == int.class) {
+            out.writeVarLong((Integer) value);
+        } else if (type == boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == double.class) {
+            out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        } else if (type == float.class) {
+            out.writeVarLong(Float.floatToRawIntBits((Float) value));
+        } else if (type == short.class) {
+            out.writeVarLong((Short) value);
+        } else if (type == byte.class) {
+            out.writeVarLong((Byte) value);
+        } else {
+            out.writeVarLong((Character) value);
+        }
+    }
+
+    private void writeCollection(Output out, Collection<?> collection, int depth) {
+        if (collection instanceof EnumSet) {
+            Class<?> enumType = CollectionTypes.enumType((EnumSet<?>) collection);
+            if (enumType == null) {
+                throw unsupported(collection);
+            }
+            out.writeByte(ENUM_SET);
+            out.writeVarLong(classId(enumType));
+        } else {
+            out.writeByte(COLLECTION);
+            out.writeVarLong(classId(restorableType(collection)));
+        }
+        out.writeVarLong(collection.size());
+        for (Object item : collection) {
+            write(out, item, depth + 1);
+        }
+    }
+
+    private void writeMap(Output out, Map<?, ?> map, int depth) {
+        if (map instanceof EnumMap) {
+            Class<?> keyType = CollectionTypes.enumType((EnumMap<?, ?>) map);
+            if (keyType == null) {
+                throw unsupported(map);
+            }
+            out.writeByte(ENUM_MAP);
+            out.writeVarLong(classId(keyType));
+        } else {
+            out.writeByte(MAP);
+            out.writeVarLong(classId(restorableType(map)));
+        }
+        out.writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            write(out, entry.getKey(), depth + 1);
+            write(out, entry.getValue(), depth + 1);
+        }
+    }
+
+    /**
+     * Type to decode a collection or map as; a comparator cannot be encoded
+     */
+    private static Class<?> restorableType(Object source) {
+        Class<?> type = CollectionTypes.restorableType(source);
+        if (type == null || CollectionTypes.comparator(source) != null) {
+            throw unsupported(source);
+        }
+        return type;
+    }
+
+    private static UnsupportedTypeException unsupported(Object source) {
+        return new UnsupportedTypeException("Cannot encode " + source.getClass().getName()
+                + (CollectionTypes.comparator(source) != null ? " with comparator" : "") + " in a binary snapshot");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object read(Input in) {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) in.readVarLong();
+            case LONG:
+                return in.readVarLong();
+            case STRING:
+                return in.readString();
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case FLOAT:
+                return Float.intBitsToFloat((int) in.readVarLong());
+            case SHORT:
+                return (short) in.readVarLong();
+            case BYTE:
+                return (byte) in.readVarLong();
+            case CHAR:
+                return (char) in.readVarLong();
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readString());
+            case BIG_INTEGER:
+                return new BigInteger(in.readString());
+            case ENUM:
+                return readClass(in).getEnumConstants()[(int) in.readVarLong()];
+            case COLLECTION: {
+                Class<?> type = readClass(in);
+                int size = (int) in.readVarLong();
+                return readItems(in, size, CollectionTypes.newCollection(type, null, size));
+            }
+            case ENUM_SET: {
+                EnumSet enumSet = EnumSet.noneOf((Class<Enum>) readClass(in));
+                return readItems(in, (int) in.readVarLong(), enumSet);
+            }
+            case MAP: {
+                Class<?> type = readClass(in);
+                int size = (int) in.readVarLong();
+                return readEntries(in, size, CollectionTypes.newMap(type, null, size));
+            }
+            case ENUM_MAP: {
+                Class<Enum> keyType = (Class<Enum>) readClass(in);
+                return readEntries(in, (int) in.readVarLong(), new EnumMap(keyType));
+            }
+            case ARRAY: {
+                Class<?> componentType = readClass(in);
+                int length = (int) in.readVarLong();
+                Object array = Array.newInstance(componentType, length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, read(in));
+                }
+                return array;
+            }
+            case DATE:
+                return new Date(in.readVarLong());
+            case UUID_VALUE:
+                return new UUID(in.readFixedLong(), in.readFixedLong());
+            case TEMPORAL: {
+                Class<?> type = readClass(in);
+                String text = in.readString();
+                try {
+                    return temporalParser(type).invoke(null, text);
+                } catch (ReflectiveOperationException e) {
+                    throw new AggregatePersistenceException(e);
+                }
+            }
+            case JSON: {
+                Class<?> type = readClass(in);
+                return JsonUtils.stringToBean(in.readString(), type);
+            }
+            case BEAN: {
+                BeanSchema schema = BeanSchema.forClass(readClass(in));
+                Object bean = schema.newInstance();
+                for (BeanSchema.Property property : schema.getProperties()) {
+                    Class<?> type = property.getType();
+                    property.set(bean, type.isPrimitive() ? readPrimitive(in, type) : read(in));
+                }
+                return bean;
+            }
+            default:
+                throw new AggregatePersistenceException("Corrupted binary snapshot, unknown tag: " + tag);
+        }
+    }
+
+    private Object readPrimitive(Input in, Class<?> type) {
+        if (type == long.class) {
+            return in.readVarLong();
+        } else if (type == int.class) {
+            return (int) in.readVarLong();
+        } else if (type == boolean.class) {
+            return in.readByte() == TRUE;
+        } else if (type == double.class) {
+            return Double.longBitsToDouble(in.readFixedLong());
+        } else if (type == float.class) {
+            return Float.intBitsToFloat((int) in.readVarLong());
+        } else if (type == short.class) {
+            return (short) in.readVarLong();
+        } else if (type == byte.class) {
+            return (byte) in.readVarLong();
+        } else {
+            return (char) in.readVarLong();
+        }
+    }
+
+    private Collection<Object> readItems(Input in, int size, Collection<Object> target) {
+        for (int i = 0; i < size; i++) {
+            target.add(read(in));
+        }
+        return target;
+    }
+
+    private Map<Object, Object> readEntries(Input in, int size, Map<Object, Object> target) {
+        for (int i = 0; i < size; i++) {
+            Object key = read(in);
+            target.put(key, read(in));
+        }
+        return target;
+    }
+
+    private static Class<?> readClass(Input in) {
+        return CLASSES.get((int) in.readVarLong());
+    }
+
+    private static int classId(Class<?> type) {
+        Integer id = CLASS_IDS.get(type);
+        if (id != null) {
+            return id;
+        }
+        synchronized (CLASSES) {
+            return CLASS_IDS.computeIfAbsent(type, key -> {
+                CLASSES.add(key);
+                return CLASSES.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * {@code parse(CharSequence)} or {@code of(String)} factory restoring a java.time value from its toString
+     */
+    private static Method temporalParser(Class<?> type) {
+        return TEMPORAL_PARSERS.computeIfAbsent(type, key -> {
+            for (Method method : key.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1
+                        && method.getReturnType() != Object.class && method.getReturnType().isAssignableFrom(key)
+                        && ((method.getName().equals("parse") && method.getParameterTypes()[0] == CharSequence.class)
+                        || (method.getName().equals("of") && method.getParameterTypes()[0] == String.class))) {
+                    return Optional.of(method);
+                }
+            }
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    private static final class Output {
+        private byte[] buffer = new byte[256];
+        private int position;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        /**
+         * Zigzag varint, small magnitudes (positive or negative) take one byte
+         */
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[position++] = (byte) zigzag;
+        }
+
+        void writeFixedLong(long value) {
+            ensureCapacity(8);
+            for (int i = 0; i < 8; i++) {
+                buffer[position++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        /**
+         * Char count followed by varint chars, so ASCII costs one byte per char and needs no intermediate array
+         */
+        void writeString(String value) {
+            int length = value.length();
+            writeVarLong(length);
+            ensureCapacity(length * 3);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else {
+                    buffer[position++] = (byte) ((c & 0x7F) | 0x80);
+                    if (c < 0x4000) {
+                        buffer[position++] = (byte) (c >>> 7);
+                    } else {
+                        buffer[position++] = (byte) (((c >>> 7) & 0x7F) | 0x80);
+                        buffer[position++] = (byte) (c >>> 14);
+                    }
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensureCapacity(int required) {
+            if (position + required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + required));
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            return buffer[position++];
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (buffer[position++] & 0xFFL) << (i * 8);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                int c = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer[position++];
+                    c |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                chars[i] = (char) c;
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.damon.aggregate.persistence.copier;
+
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Concrete collection and map types a copier can recreate empty, so a copy keeps the exact type of its source: a
+ * field declared as {@code TreeSet}, {@code ArrayDeque} or {@code ConcurrentHashMap} must get one back.
+ * <p>
+ * Only JDK types with known construction are recreated, sorted ones together with their comparator. Non-public JDK
+ * views and wrappers (unmodifiable, synchronized, {@code Arrays.asList}, {@code List.of}, key sets...) are recreated
+ * as the plain modifiable type of their interface. Enum sets and maps are left to the caller, which must know their
+ * enum type. Anything else (custom subclasses, bounded or blocking queues, concurrent map views) has no restorable
+ * type.
+ */
+final class CollectionTypes {
+    private static final Map<Class<?>, IntFunction<Collection<Object>>> COLLECTIONS = new HashMap<>();
+    private static final Map<Class<?>, Function<Comparator<Object>, Collection<Object>>> SORTED_COLLECTIONS = new HashMap<>();
+    private static final Map<Class<?>, IntFunction<Map<Object, Object>>> MAPS = new HashMap<>();
+    private static final Map<Class<?>, Function<Comparator<Object>, Map<Object, Object>>> SORTED_MAPS = new HashMap<>();
+
+    static {
+        collection(ArrayList.class, ArrayList::new);
+        collection(LinkedList.class, size -> new LinkedList<>());
+        collection(ArrayDeque.class, ArrayDeque::new);
+        collection(Vector.class, Vector::new);
+        collection(Stack.class, size -> new Stack<>());
+        collection(HashSet.class, size -> new HashSet<>(hashCapacity(size)));
+        collection(LinkedHashSet.class, size -> new LinkedHashSet<>(hashCapacity(size)));
+        collection(CopyOnWriteArrayList.class, size -> new CopyOnWriteArrayList<>());
+        collection(CopyOnWriteArraySet.class, size -> new CopyOnWriteArraySet<>());
+        collection(ConcurrentLinkedQueue.class, size -> new ConcurrentLinkedQueue<>());
+        collection(ConcurrentLinkedDeque.class, size -> new ConcurrentLinkedDeque<>());
+        sortedCollection(TreeSet.class, TreeSet::new);
+        sortedCollection(ConcurrentSkipListSet.class, ConcurrentSkipListSet::new);
+        sortedCollection(PriorityQueue.class, comparator -> new PriorityQueue<>(11, comparator));
+        sortedCollection(PriorityBlockingQueue.class, comparator -> new PriorityBlockingQueue<>(11, comparator));
+
+        map(HashMap.class, size -> new HashMap<>(hashCapacity(size)));
+        map(LinkedHashMap.class, size -> new LinkedHashMap<>(hashCapacity(size)));
+        map(Hashtable.class, size -> new Hashtable<>(hashCapacity(size)));
+        map(IdentityHashMap.class, IdentityHashMap::new);
+        map(ConcurrentHashMap.class, size -> new ConcurrentHashMap<>(hashCapacity(size)));
+        sortedMap(TreeMap.class, TreeMap::new);
+        sortedMap(ConcurrentSkipListMap.class, ConcurrentSkipListMap::new);
+    }
+
+    private CollectionTypes() {
+    }
+
+    /**
+     * Type a copy of the given collection or map is created as: its own class when it can be recreated, the plain
+     * type of its interface for a JDK view or wrapper.
+     *
+     * @return the type to create, null if the source cannot be recreated (including enum sets and maps)
+     */
+    static Class<?> restorableType(Object source) {
+        Class<?> type = source.getClass();
+        if (COLLECTIONS.containsKey(type) || MAPS.containsKey(type)) {
+            return type;
+        }
+        if (source instanceof EnumSet || source instanceof EnumMap
+                || Modifier.isPublic(type.getModifiers()) || !type.getName().startsWith("java.")) {
+            return null;
+        }
+        if (source instanceof Collection) {
+            if (source instanceof List) {
+                return ArrayList.class;
+            }
+            if (source instanceof SortedSet) {
+                return TreeSet.class;
+            }
+            if (source instanceof Set) {
+                return LinkedHashSet.class;
+            }
+            // A queue view decoded as a list would no longer be a queue
+            return source instanceof Queue ? null : ArrayList.class;
+        }
+        if (source instanceof ConcurrentMap) {
+            return null;
+        }
+        return source instanceof SortedMap ? TreeMap.class : LinkedHashMap.class;
+    }
+
+    /**
+     * Comparator of a sorted collection or map, null for natural ordering or an unsorted source
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<Object> comparator(Object source) {
+        if (source instanceof SortedSet) {
+            return (Comparator<Object>) ((SortedSet<?>) source).comparator();
+        }
+        if (source instanceof SortedMap) {
+            return (Comparator<Object>) ((SortedMap<?, ?>) source).comparator();
+        }
+        if (source instanceof PriorityQueue) {
+            return (Comparator<Object>) ((PriorityQueue<?>) source).comparator();
+        }
+        if (source instanceof PriorityBlockingQueue) {
+            return (Comparator<Object>) ((PriorityBlockingQueue<?>) source).comparator();
+        }
+        return null;
+    }
+
+    /**
+     * Create an empty collection of a type returned by {@link #restorableType(Object)}.
+     *
+     * @param comparator comparator of a sorted type, null for natural ordering
+     * @param size       expected number of elements
+     */
+    static Collection<Object> newCollection(Class<?> type, Comparator<Object> comparator, int size) {
+        if (comparator != null) {
+            return SORTED_COLLECTIONS.get(type).apply(comparator);
+        }
+        return COLLECTIONS.get(type).apply(size);
+    }
+
+    /**
+     * Create an empty map of a type returned by {@link #restorableType(Object)}.
+     *
+     * @param comparator comparator of a sorted type, null for natural ordering
+     * @param size       expected number of entries
+     */
+    static Map<Object, Object> newMap(Class<?> type, Comparator<Object> comparator, int size) {
+        if (comparator != null) {
+            return SORTED_MAPS.get(type).apply(comparator);
+        }
+        return MAPS.get(type).apply(size);
+    }
+
+    /**
+     * Enum type of an enum set, also when it is empty; null only for an enum without constants
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Class<?> enumType(EnumSet<?> set) {
+        EnumSet<?> nonEmpty = set.isEmpty() ? EnumSet.complementOf((EnumSet) set) : set;
+        return nonEmpty.isEmpty() ? null : nonEmpty.iterator().next().getDeclaringClass();
+    }
+
+    /**
+     * Key type of an enum map, null when it is empty (the key type of an empty map is not accessible)
+     */
+    static Class<?> enumType(EnumMap<?, ?> map) {
+        return map.isEmpty() ? null : map.keySet().iterator().next().getDeclaringClass();
+    }
+
+    static int hashCapacity(int size) {
+        return Math.max((int) (size / 0.75f) + 1, 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collection(Class<?> type, IntFunction<? extends Collection<?>> factory) {
+        COLLECTIONS.put(type, (IntFunction<Collection<Object>>) factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void sortedCollection(Class<?> type, Function<Comparator<Object>, ? extends Collection<?>> factory) {
+        SORTED_COLLECTIONS.put(type, (Function<Comparator<Object>, Collection<Object>>) factory);
+        collection(type, size -> factory.apply(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void map(Class<?> type, IntFunction<? extends Map<?, ?>> factory) {
+        MAPS.put(type, (IntFunction<Map<Object, Object>>) factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void sortedMap(Class<?> type, Function<Comparator<Object>, ? extends Map<?, ?>> factory) {
+        SORTED_MAPS.put(type, (Function<Comparator<Object>, Map<Object, Object>>) factory);
+        map(type, size -> factory.apply(null));
+    }
+}
@@ -0,0 +1,137 @@
+package com.damon.aggregate.persistence.copier;
+
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deep copy objects field by field through the cached {@link BeanSchema} of each class.
+ * <p>
+ * Immutable values (String, boxed numbers, enums, java.time types...) are shared, collections and maps of JDK types
+ * are copied structurally into the same type (with the same comparator) and beans are rebuilt through their no-arg
+ * constructor. Values this copier cannot handle (no no-arg constructor, custom collection classes, unknown JDK
+ * types) are copied by the fallback copier. Like the JSON copier, the object graph must be acyclic: a
+ * graph deeper than {@value #MAX_DEPTH} levels is taken for a cycle and fails instead of overflowing the stack.
+ */
+public class MethodHandleDeepCopier implements DeepCopier {
+    private static final int MAX_DEPTH = 512;
+
+    private final DeepCopier fallback;
+
+    public MethodHandleDeepCopier() {
+        this(new JsonDeepCopier());
+    }
+
+    public MethodHandleDeepCopier(DeepCopier fallback) {
+        this.fallback = Objects.requireNonNull(fallback, "Fallback copier cannot be null");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T copy(T object) {
+        return (T) copyValue(object, 0);
+    }
+
+    private Object copyValue(Object value, int depth) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> type = value.getClass();
+        if (BeanSchema.isImmutable(type)) {
+            return value;
+        }
+        if (depth > MAX_DEPTH) {
+            throw new AggregatePersistenceException("Object graph deeper than " + MAX_DEPTH
+                    + " levels, probably cyclic, at " + type.getName());
+        }
+        if (value instanceof Collection) {
+            return copyCollection((Collection<?>) value, depth);
+        }
+        if (value instanceof Map) {
+            return copyMap((Map<?, ?>) value, depth);
+        }
+        if (type.isArray()) {
+            return copyArray(value, depth);
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        BeanSchema schema = BeanSchema.forClass(type);
+        if (schema == null) {
+            return fallback.copy(value);
+        }
+        return copyBean(value, schema, depth);
+    }
+
+    private Object copyBean(Object source, BeanSchema schema, int depth) {
+        Object target = schema.newInstance();
+        for (BeanSchema.Property property : schema.getProperties()) {
+            if (property.isImmutable() || property.isSynthetic()) {
+                property.copyValue(target, source);
+            } else {
+                property.set(target, copyValue(property.get(source), depth + 1));
+            }
+        }
+        return target;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object copyCollection(Collection<?> source, int depth) {
+        if (source instanceof EnumSet) {
+            // Enum constants are immutable
+            return ((EnumSet) source).clone();
+        }
+        Class<?> type = CollectionTypes.restorableType(source);
+        if (type == null) {
+            return fallback.copy(source);
+        }
+        // Comparators are shared like other immutable values
+        Collection<Object> target = CollectionTypes.newCollection(type, CollectionTypes.comparator(source), source.size());
+        if (target instanceof CopyOnWriteArrayList) {
+            List<Object> copied = new ArrayList<>(source.size());
+            source.forEach(item -> copied.add(copyValue(item, depth + 1)));
+            target.addAll(copied);
+            return target;
+        }
+        for (Object item : source) {
+            target.add(copyValue(item, depth + 1));
+        }
+        return target;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object copyMap(Map<?, ?> source, int depth) {
+        Map target;
+        if (source instanceof EnumMap) {
+            target = new EnumMap((EnumMap) source);
+        } else {
+            Class<?> type = CollectionTypes.restorableType(source);
+            if (type == null) {
+                return fallback.copy(source);
+            }
+            target = CollectionTypes.newMap(type, CollectionTypes.comparator(source), source.size());
+        }
+        for (Map.Entry<?, ?> entry : source.entrySet()) {
+            target.put(copyValue(entry.getKey(), depth + 1), copyValue(entry.getValue(), depth + 1));
+        }
+        return target;
+    }
+
+    private Object copyArray(Object source, int depth) {
+        int length = Array.getLength(source);
+        Class<?> componentType = source.getClass().getComponentType();
+        if (componentType.isPrimitive()) {
+            Object target = Array.newInstance(componentType, length);
+            System.arraycopy(source, 0, target, 0, length);
+            return target;
+        }
+        Object[] items = (Object[]) source;
+        Object[] target = (Object[]) Array.newInstance(componentType, length);
+        for (int i = 0; i < length; i++) {
+            target[i] = copyValue(items[i], depth + 1);
+        }
+        return target;
+    }
+}
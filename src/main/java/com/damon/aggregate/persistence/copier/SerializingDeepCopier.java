@@ -0,0 +1,21 @@
+package com.damon.aggregate.persistence.copier;
+
+/**
+ * A {@link DeepCopier} that can also keep the copy in serialized form, so an {@code Aggregate} may hold its snapshot
+ * as a compact {@code byte[]} and decode it only when it is actually needed.
+ */
+public interface SerializingDeepCopier extends DeepCopier {
+
+    byte[] serialize(Object object);
+
+    <T> T deserialize(byte[] bytes, Class<T> type);
+
+    @Override
+    @SuppressWarnings("unchecked")
+    default <T> T copy(T object) {
+        if (object == null) {
+            return null;
+        }
+        return deserialize(serialize(object), (Class<T>) object.getClass());
+    }
+}
@@ -0,0 +1,26 @@
+package com.damon.aggregate.persistence.exception;
+
+/**
+ * A value whose type a copier or serializer cannot reproduce exactly, e.g. a sorted collection with a comparator in
+ * a binary snapshot. Callers catch it to fall back to another copier.
+ */
+public class UnsupportedTypeException extends AggregatePersistenceException {
+    public UnsupportedTypeException(String message) {
+        super(message);
+    }
+
+    public UnsupportedTypeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public UnsupportedTypeException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+
+    public UnsupportedTypeException() {
+    }
+
+    public UnsupportedTypeException(Throwable cause) {
+        super(cause);
+    }
+}
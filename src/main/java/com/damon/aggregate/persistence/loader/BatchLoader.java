@@ -0,0 +1,133 @@
+package com.damon.aggregate.persistence.loader;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.ID;
+import com.damon.aggregate.persistence.Versionable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Loads many aggregates with a constant number of queries: one {@code IN} query for the roots, one {@code IN} query
+ * per child table, children grouped by parent ID in memory, then all aggregates assembled in one pass.
+ * <p>
+ * ID lists longer than the maximum {@code IN}-list size are split into several queries.
+ * <pre>
+ * BatchLoader&lt;Long, OrderPO&gt; loader = BatchLoader.load(ids, orderMapper::selectBatchIds);
+ * Map&lt;Long, List&lt;OrderItemPO&gt;&gt; items = loader.children(
+ *         keys -&gt; orderItemMapper.selectList(new LambdaQueryWrapper&lt;OrderItemPO&gt;().in(OrderItemPO::getOrderId, keys)),
+ *         OrderItemPO::getOrderId);
+ * return loader.assemble(po -&gt; OrderFactory.convert(po, items.getOrDefault(po.getId(), Collections.emptyList())));
+ * </pre>
+ *
+ * @param <K> root ID type
+ * @param <P> root persistence entity type
+ */
+public final class BatchLoader<K, P extends ID<K>> {
+    private static final Logger log = LoggerFactory.getLogger(BatchLoader.class);
+    public static final int DEFAULT_MAX_IN_LIST_SIZE = 1000;
+
+    private final int maxInListSize;
+    private final List<P> roots;
+    private final List<K> rootIds;
+
+    private BatchLoader(List<P> roots, List<K> rootIds, int maxInListSize) {
+        this.roots = roots;
+        this.rootIds = rootIds;
+        this.maxInListSize = maxInListSize;
+    }
+
+    public static <K, P extends ID<K>> BatchLoader<K, P> load(Collection<K> ids, Function<Collection<K>, ? extends Collection<P>> rootQuery) {
+        return load(ids, rootQuery, DEFAULT_MAX_IN_LIST_SIZE);
+    }
+
+    /**
+     * Query the roots of the given IDs.
+     *
+     * @param ids           root IDs, nulls and duplicates are ignored
+     * @param rootQuery     selects the roots of a list of IDs, e.g. {@code mapper::selectBatchIds}
+     * @param maxInListSize maximum number of IDs passed to one query
+     * @return the loader holding the found roots, in the order of {@code ids}
+     */
+    public static <K, P extends ID<K>> BatchLoader<K, P> load(Collection<K> ids, Function<Collection<K>, ? extends Collection<P>> rootQuery,
+                                                              int maxInListSize) {
+        Objects.requireNonNull(rootQuery, "Root query cannot be null");
+        if (maxInListSize <= 0) {
+            throw new IllegalArgumentException("Maximum IN-list size must be positive");
+        }
+        List<K> distinctIds = new ArrayList<>(new LinkedHashSet<>(Optional.ofNullable(ids).orElse(Collections.emptyList())));
+        distinctIds.removeIf(Objects::isNull);
+
+        Map<K, P> found = new HashMap<>(Math.max(16, (int) (distinctIds.size() / 0.75f) + 1));
+        for (P root : query(distinctIds, rootQuery, maxInListSize)) {
+            found.put(root.getId(), root);
+        }
+        // Keep the requested order, IDs without a root are skipped
+        List<P> roots = new ArrayList<>(found.size());
+        List<K> rootIds = new ArrayList<>(found.size());
+        for (K id : distinctIds) {
+            P root = found.get(id);
+            if (root != null) {
+                roots.add(root);
+                rootIds.add(id);
+            }
+        }
+        log.debug("[Batch load] Requested {} roots, found {}", distinctIds.size(), roots.size());
+        return new BatchLoader<>(roots, rootIds, maxInListSize);
+    }
+
+    /**
+     * Query the children of all found roots and group them by parent ID.
+     *
+     * @param childQuery selects the children of a list of parent IDs, e.g. an {@code IN} query on the parent column
+     * @param parentKey  parent ID of a child
+     * @return children by parent ID, in query order; roots without children have no entry
+     */
+    public <C> Map<K, List<C>> children(Function<Collection<K>, ? extends Collection<C>> childQuery, Function<C, K> parentKey) {
+        Objects.requireNonNull(childQuery, "Child query cannot be null");
+        Objects.requireNonNull(parentKey, "Parent key function cannot be null");
+        Map<K, List<C>> children = new HashMap<>(Math.max(16, (int) (rootIds.size() / 0.75f) + 1));
+        for (C child : query(rootIds, childQuery, maxInListSize)) {
+            children.computeIfAbsent(parentKey.apply(child), key -> new ArrayList<>()).add(child);
+        }
+        return children;
+    }
+
+    /**
+     * Build one aggregate per found root.
+     *
+     * @param assembler builds the aggregate of a root, usually from the grouped children
+     * @return aggregates in the order of the requested IDs
+     */
+    public <R extends Versionable> List<Aggregate<R>> assemble(Function<P, Aggregate<R>> assembler) {
+        Objects.requireNonNull(assembler, "Assembler cannot be null");
+        List<Aggregate<R>> aggregates = new ArrayList<>(roots.size());
+        for (P root : roots) {
+            aggregates.add(assembler.apply(root));
+        }
+        return aggregates;
+    }
+
+    /**
+     * Found roots, in the order of the requested IDs
+     */
+    public List<P> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    private static <K, E> List<E> query(List<K> ids, Function<Collection<K>, ? extends Collection<E>> query, int maxInListSize) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<E> results = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += maxInListSize) {
+            Collection<E> chunk = query.apply(ids.subList(from, Math.min(from + maxInListSize, ids.size())));
+            if (chunk != null) {
+                results.addAll(chunk);
+            }
+        }
+        return results;
+    }
+}
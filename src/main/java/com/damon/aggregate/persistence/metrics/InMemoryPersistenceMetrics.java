@@ -0,0 +1,167 @@
+package com.damon.aggregate.persistence.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reference {@link PersistenceMetrics} keeping one histogram per metric and entity type in memory, e.g. to expose
+ * through an actuator endpoint or to log periodically.
+ * <p>
+ * Metric names: {@code snapshot.time}, {@code snapshot.bytes}, {@code diff.time}, {@code diff.entities},
+ * {@code diff.fields}, {@code sql.insert.time}, {@code sql.insert.rows} (and likewise for update and delete),
+ * {@code optimistic-lock.failures}. Times are in nanoseconds.
+ */
+public class InMemoryPersistenceMetrics implements PersistenceMetrics {
+    private final Map<Key, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void snapshotTaken(Class<?> rootType, long nanos, long bytes) {
+        record("snapshot.time", rootType, nanos);
+        if (bytes >= 0) {
+            record("snapshot.bytes", rootType, bytes);
+        }
+    }
+
+    @Override
+    public void diffCompleted(Class<?> entityType, long nanos, int changedEntities, int changedFields) {
+        record("diff.time", entityType, nanos);
+        record("diff.entities", entityType, changedEntities);
+        record("diff.fields", entityType, changedFields);
+    }
+
+    @Override
+    public void sqlExecuted(Class<?> entityType, Operation operation, long nanos, int rows) {
+        String prefix = "sql." + operation.name().toLowerCase();
+        record(prefix + ".time", entityType, nanos);
+        record(prefix + ".rows", entityType, rows);
+    }
+
+    @Override
+    public void optimisticLockFailed(Class<?> entityType) {
+        record("optimistic-lock.failures", entityType, 1);
+    }
+
+    /**
+     * Histogram of a metric for an entity type, null if nothing was recorded
+     */
+    public Histogram getHistogram(String metric, Class<?> entityType) {
+        return histograms.get(new Key(metric, entityType));
+    }
+
+    /**
+     * All histograms, keyed by {@code metric[EntityType]}
+     */
+    public Map<String, Histogram> getHistograms() {
+        Map<String, Histogram> result = new TreeMap<>();
+        histograms.forEach((key, histogram) -> result.put(key.toString(), histogram));
+        return Collections.unmodifiableMap(result);
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    private void record(String metric, Class<?> entityType, long value) {
+        histograms.computeIfAbsent(new Key(metric, entityType), key -> new Histogram()).record(value);
+    }
+
+    /**
+     * Histogram with power-of-two buckets: percentiles are exact to within a factor of two.
+     */
+    public static class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long value) {
+            long positive = Math.max(0L, value);
+            count.increment();
+            sum.add(positive);
+            max.accumulate(positive);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(positive) - (positive == 0 ? 0 : 1));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return getCount() == 0 ? 0L : max.get();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0d : (double) getSum() / n;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile
+         *
+         * @param percentile between 0 and 100
+         */
+        public long getPercentile(double percentile) {
+            long n = getCount();
+            if (n == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(n * percentile / 100d));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 1L : i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1f, p50=%d, p99=%d, max=%d",
+                    getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+        }
+    }
+
+    private static final class Key {
+        private final String metric;
+        private final Class<?> entityType;
+
+        private Key(String metric, Class<?> entityType) {
+            this.metric = metric;
+            this.entityType = entityType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return metric.equals(key.metric) && Objects.equals(entityType, key.entityType);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * metric.hashCode() + Objects.hashCode(entityType);
+        }
+
+        @Override
+        public String toString() {
+            return metric + "[" + (entityType == null ? "Unknown" : entityType.getSimpleName()) + "]";
+        }
+    }
+}
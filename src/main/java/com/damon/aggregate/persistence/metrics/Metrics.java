@@ -0,0 +1,43 @@
+package com.damon.aggregate.persistence.metrics;
+
+/**
+ * Holder of the registered {@link PersistenceMetrics} listener.
+ */
+public final class Metrics {
+    private static volatile PersistenceMetrics listener = PersistenceMetrics.NOOP;
+
+    private Metrics() {
+    }
+
+    /**
+     * Register the listener of the whole library, null to restore the no-op listener
+     */
+    public static void register(PersistenceMetrics metrics) {
+        listener = metrics == null ? PersistenceMetrics.NOOP : metrics;
+    }
+
+    public static PersistenceMetrics get() {
+        return listener;
+    }
+
+    /**
+     * Whether a listener other than the no-op one is registered
+     */
+    public static boolean isEnabled() {
+        return listener != PersistenceMetrics.NOOP;
+    }
+
+    /**
+     * Start time of a measured section, 0 when metrics are disabled
+     */
+    public static long start() {
+        return listener != PersistenceMetrics.NOOP ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Time elapsed since {@link #start()}
+     */
+    public static long elapsed(long start) {
+        return start == 0L ? 0L : System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,65 @@
+package com.damon.aggregate.persistence.metrics;
+
+/**
+ * Listener of the persistence hot paths: snapshot, diff and SQL. Every callback is tagged by entity type and does
+ * nothing by default; register an implementation with {@link Metrics#register(PersistenceMetrics)}.
+ * <p>
+ * Callbacks are invoked on the persisting thread and must be cheap and thread-safe.
+ *
+ * @see InMemoryPersistenceMetrics
+ */
+public interface PersistenceMetrics {
+
+    /**
+     * Listener doing nothing, the library skips timing altogether while it is registered
+     */
+    PersistenceMetrics NOOP = new PersistenceMetrics() {
+    };
+
+    /**
+     * Type of a write sent to the database
+     */
+    enum Operation {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * A snapshot of an aggregate root was taken.
+     *
+     * @param rootType root type
+     * @param nanos    time spent copying or serializing the root
+     * @param bytes    serialized size of the snapshot, -1 when it is kept as an object graph
+     */
+    default void snapshotTaken(Class<?> rootType, long nanos, long bytes) {
+    }
+
+    /**
+     * Two states of an entity, or of an entity collection, were compared.
+     *
+     * @param entityType      compared (domain) entity type
+     * @param nanos           time spent converting and comparing
+     * @param changedEntities number of entities to insert, update or delete
+     * @param changedFields   number of changed fields over all updated entities
+     */
+    default void diffCompleted(Class<?> entityType, long nanos, int changedEntities, int changedFields) {
+    }
+
+    /**
+     * Writes were sent to the database.
+     *
+     * @param entityType persistence entity type
+     * @param operation  type of write
+     * @param nanos      time spent in the repository backend
+     * @param rows       rows reported as affected
+     */
+    default void sqlExecuted(Class<?> entityType, Operation operation, long nanos, int rows) {
+    }
+
+    /**
+     * An update was rejected: the row was not found or changed by another user.
+     *
+     * @param entityType persistence entity type
+     */
+    default void optimisticLockFailed(Class<?> entityType) {
+    }
+}
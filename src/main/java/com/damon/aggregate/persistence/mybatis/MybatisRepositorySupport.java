@@ -13,9 +13,13 @@ import com.baomidou.mybatisplus.extension.toolkit.SqlHelper;
 import com.damon.aggregate.persistence.DbRepositorySupport;
 import com.damon.aggregate.persistence.ID;
 import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.comparator.ChangedEntity;
 import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.loader.BatchLoader;
+import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.mybatis.spring.SqlSessionTemplate;
 import org.mybatis.spring.SqlSessionUtils;
@@ -24,10 +28,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -39,6 +44,17 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
     @Autowired
     private SqlSessionTemplate sqlSessionTemplate;
 
+    /**
+     * Bounded LRU cache of UPDATE templates, only used when {@link #useUpdateTemplates()} is enabled
+     */
+    private final Map<UpdateTemplate.Key, UpdateTemplate> updateTemplates = Collections.synchronizedMap(
+            new LinkedHashMap<UpdateTemplate.Key, UpdateTemplate>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UpdateTemplate.Key, UpdateTemplate> eldest) {
+                    return size() > updateTemplateCacheSize();
+                }
+            });
+
     @SuppressWarnings("unchecked")
     protected <T extends ID> BaseMapper<T> getMapper(Class<T> entityClass) {
         // Get current SqlSession (automatically handles multi-data sources)
@@ -46,6 +62,18 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
         return SqlHelper.getMapper(entityClass, sqlSession);
     }
 
+    /**
+     * Start a batch load of aggregates: the roots of {@code ids} are selected with {@code IN} queries of at most
+     * {@link #maxInListSize()} IDs, children are then loaded per table through {@link BatchLoader#children}.
+     *
+     * @param ids       root IDs
+     * @param rootQuery selects the roots of a list of IDs, e.g. {@code mapper::selectBatchIds}
+     * @return the loader holding the found roots
+     */
+    protected <K, P extends ID<K>> BatchLoader<K, P> loadAll(Collection<K> ids, Function<Collection<K>, ? extends Collection<P>> rootQuery) {
+        return BatchLoader.load(ids, rootQuery, maxInListSize());
+    }
+
     @Override
     protected <A extends ID> boolean insertBatch(Collection<A> items) {
         if (CollectionUtils.isEmpty(items)) {
@@ -56,15 +84,14 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
         Class<A> entityClass = (Class<A>) items.iterator().next().getClass();
         String entityType = entityClass.getSimpleName();
 
-        if (items.size() > batchSize()) {
-            throw new AggregatePersistenceException(
-                    String.format("[Entity: %s] Insert count exceeds batch limit. Max batch size: %d, Actual count: %d",
-                            entityType, batchSize(), items.size())
-            );
-        }
-
+        // Large collections are sent in chunks of batchSize(), generated IDs are set on the items in place
         BaseMapper<A> baseMapper = getMapper(entityClass);
-        baseMapper.insert(items, batchSize());
+        List<A> itemList = items instanceof List ? (List<A>) items : new ArrayList<>(items);
+        int chunkSize = batchSize();
+        for (int from = 0; from < itemList.size(); from += chunkSize) {
+            List<A> chunk = itemList.subList(from, Math.min(from + chunkSize, itemList.size()));
+            baseMapper.insert(chunk, chunkSize);
+        }
         log.debug("[Entity: {}] Batch insert successful. Inserted {} records", entityType, items.size());
 
         return true;
@@ -80,11 +107,12 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
         Class<A> entityClass = (Class<A>) items.iterator().next().getClass();
         String entityType = entityClass.getSimpleName();
 
-        Set<Object> ids = items.stream()
+        List<Object> ids = items.stream()
                 .filter(Objects::nonNull)
                 .map(ID::getId)
                 .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+                .distinct()
+                .collect(Collectors.toList());
 
         if (ids.isEmpty()) {
             log.warn("[Entity: {}] Batch delete failed - all entity IDs are null", entityType);
@@ -93,10 +121,15 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
         TableInfo tableInfo = TableInfoHelper.getTableInfo(entityClass);
         SqlSession sqlSession = getSqlSession();
         try {
-            Map<String, Object> params = CollectionUtils.newHashMapWithExpectedSize(1);
-            params.put(Constants.COLL, ids);
-
-            int deleted = sqlSession.delete(sqlStatement(SqlMethod.DELETE_BY_IDS.getMethod(), tableInfo), params);
+            // Keep each IN-list within maxInListSize()
+            String statement = sqlStatement(SqlMethod.DELETE_BY_IDS.getMethod(), tableInfo);
+            int chunkSize = maxInListSize();
+            int deleted = 0;
+            for (int from = 0; from < ids.size(); from += chunkSize) {
+                Map<String, Object> params = CollectionUtils.newHashMapWithExpectedSize(1);
+                params.put(Constants.COLL, ids.subList(from, Math.min(from + chunkSize, ids.size())));
+                deleted += sqlSession.delete(statement, params);
+            }
             boolean success = deleted > 0;
 
             log.debug("[Entity: {}] Batch delete completed. Target IDs: {}, Deleted records: {}",
@@ -196,33 +229,233 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
             return true;
         }
 
+        if (useUpdateTemplates()) {
+            return updateWithTemplate(Collections.singletonList(entity), changedFields)[0];
+        }
+
+        A conditionEntity = newConditionEntity(entity);
+
+        boolean result = update(entity, changedFields, conditionEntity);
+
+        // Increment version if update successful
+        if (result) {
+            syncVersion(entity, conditionEntity);
+        }
+
+        return result;
+    }
+
+    /**
+     * Batched update: entities with the same set of changed fields produce the same UPDATE statement, so each such
+     * group is sent as one JDBC batch through a {@link ExecutorType#BATCH} session. The batch session obtains its
+     * connection through Spring, so it joins the current transaction.
+     * <p>
+     * The affected row count of every statement is kept, so rows rejected by the optimistic lock are reported
+     * individually. A driver that returns {@link Statement#SUCCESS_NO_INFO} instead of the count leaves the optimistic
+     * lock unverified: the update then fails with an {@link AggregatePersistenceException}. Override
+     * {@link #batchUpdates()} to send the updates one by one with such drivers.
+     */
+    @Override
+    protected <A extends ID> boolean[] updateBatch(List<ChangedEntity<A>> changedEntities) {
+        boolean[] results = new boolean[changedEntities.size()];
+        Map<Set<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < changedEntities.size(); i++) {
+            Set<String> changedFields = changedEntities.get(i).getChangedFields();
+            if (changedFields.isEmpty()) {
+                results[i] = true;
+                continue;
+            }
+            groups.computeIfAbsent(changedFields, key -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<Set<String>, List<Integer>> group : groups.entrySet()) {
+            List<Integer> indexes = group.getValue();
+            if (indexes.size() == 1 || !batchUpdates()) {
+                for (Integer index : indexes) {
+                    results[index] = update(changedEntities.get(index).getNewEntity(), group.getKey());
+                }
+                continue;
+            }
+            if (useUpdateTemplates()) {
+                List<A> entities = new ArrayList<>(indexes.size());
+                indexes.forEach(index -> entities.add(changedEntities.get(index).getNewEntity()));
+                boolean[] groupResults = updateWithTemplate(entities, group.getKey());
+                for (int i = 0; i < indexes.size(); i++) {
+                    results[indexes.get(i)] = groupResults[i];
+                }
+            } else {
+                updateGroup(changedEntities, indexes, group.getKey(), results);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Update entities sharing the same changed fields with a cached {@link UpdateTemplate}: the SQL is built once per
+     * (entity class, changed fields) and the parameters are bound directly on the transaction's connection, several
+     * entities going out as one JDBC batch.
+     */
+    private <A extends ID> boolean[] updateWithTemplate(List<A> entities, Set<String> changedFields) {
+        A first = entities.get(0);
+        String entityType = first.getClass().getSimpleName();
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(first.getClass());
+        boolean[] results = new boolean[entities.size()];
+
+        // Entities without a version are updated without the optimistic lock, as the interceptor would do
+        Map<Boolean, List<Integer>> byVersioned = new LinkedHashMap<>();
+        for (int i = 0; i < entities.size(); i++) {
+            byVersioned.computeIfAbsent(UpdateTemplate.isVersioned(tableInfo, entities.get(i)), key -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<Boolean, List<Integer>> entry : byVersioned.entrySet()) {
+            UpdateTemplate template = updateTemplate(tableInfo, first.getClass(), changedFields, entry.getKey());
+            List<Integer> indexes = entry.getValue();
+            int[] counts = executeTemplate(template, entities, indexes);
+            for (int i = 0; i < indexes.size(); i++) {
+                A entity = entities.get(indexes.get(i));
+                boolean success = isUpdated(counts[i], entity);
+                results[indexes.get(i)] = success;
+                if (success && template.isVersioned()) {
+                    Versionable versionable = (Versionable) entity;
+                    versionable.setVersion(versionable.getVersion() + 1);
+                } else if (!success) {
+                    log.warn("[Entity: {}] Update failed (record may not exist or has been modified). ID: {}",
+                            entityType, entity.getId());
+                }
+            }
+        }
+        log.debug("[Entity: {}] Template update completed. Records: {}, Changed fields: {}",
+                entityType, entities.size(), changedFields);
+        return results;
+    }
+
+    private UpdateTemplate updateTemplate(TableInfo tableInfo, Class<?> entityClass, Set<String> changedFields, boolean versioned) {
+        UpdateTemplate.Key key = new UpdateTemplate.Key(entityClass, changedFields, versioned);
+        UpdateTemplate template = updateTemplates.get(key);
+        if (template == null) {
+            template = new UpdateTemplate(tableInfo, key, sqlSessionTemplate.getConfiguration());
+            updateTemplates.put(key.immutableCopy(), template);
+        }
+        return template;
+    }
+
+    private <A extends ID> int[] executeTemplate(UpdateTemplate template, List<A> entities, List<Integer> indexes) {
+        SqlSession sqlSession = getSqlSession();
+        try {
+            Connection connection = sqlSession.getConnection();
+            try (PreparedStatement statement = connection.prepareStatement(template.getSql())) {
+                log.trace("[Update Template] {}", template.getSql());
+                if (indexes.size() == 1) {
+                    template.bind(statement, entities.get(indexes.get(0)));
+                    return new int[]{statement.executeUpdate()};
+                }
+                for (Integer index : indexes) {
+                    template.bind(statement, entities.get(index));
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            } catch (SQLException e) {
+                throw new AggregatePersistenceException("Failed to execute update: " + template.getSql(), e);
+            } finally {
+                // Rows were changed behind MyBatis, drop the session's first-level cache
+                sqlSession.clearCache();
+            }
+        } finally {
+            closeSqlSession(sqlSession);
+        }
+    }
+
+    private <A extends ID> void updateGroup(List<ChangedEntity<A>> changedEntities, List<Integer> indexes,
+                                            Set<String> changedFields, boolean[] results) {
+        A first = changedEntities.get(indexes.get(0)).getNewEntity();
+        String entityType = first.getClass().getSimpleName();
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(first.getClass());
+        String statement = sqlStatement(SqlMethod.UPDATE.getMethod(), tableInfo);
+
+        List<A> conditionEntities = new ArrayList<>(indexes.size());
+        List<BatchResult> batchResults;
+        SqlSession batchSession = sqlSessionTemplate.getSqlSessionFactory().openSession(ExecutorType.BATCH);
+        try {
+            for (Integer index : indexes) {
+                A entity = changedEntities.get(index).getNewEntity();
+                A conditionEntity = newConditionEntity(entity);
+                conditionEntities.add(conditionEntity);
+                batchSession.update(statement, updateParams(entity, changedFields, conditionEntity, tableInfo));
+            }
+            batchResults = batchSession.flushStatements();
+            batchSession.commit();
+        } finally {
+            batchSession.close();
+        }
+        // The batch session bypassed the transaction's session, drop its now stale first-level cache
+        SqlSession sqlSession = getSqlSession();
+        try {
+            sqlSession.clearCache();
+        } finally {
+            closeSqlSession(sqlSession);
+        }
+
+        // Statements are flushed in submission order, one BatchResult per run of identical SQL
+        int row = 0;
+        for (BatchResult batchResult : batchResults) {
+            for (int count : batchResult.getUpdateCounts()) {
+                int index = indexes.get(row);
+                A entity = changedEntities.get(index).getNewEntity();
+                results[index] = isUpdated(count, entity);
+                if (results[index]) {
+                    syncVersion(entity, conditionEntities.get(row));
+                } else {
+                    log.warn("[Entity: {}] Update failed (record may not exist or has been modified). ID: {}, Affected rows: {}",
+                            entityType, entity.getId(), count);
+                }
+                row++;
+            }
+        }
+        log.debug("[Entity: {}] Batch update completed. Records: {}, Changed fields: {}",
+                entityType, indexes.size(), changedFields);
+    }
+
+    /**
+     * Whether a batched statement updated its row. Without a row count the optimistic lock may have rejected the
+     * row unnoticed, so the outcome is unknown and the save fails instead of reporting success.
+     */
+    private static boolean isUpdated(int count, ID entity) {
+        if (count == Statement.SUCCESS_NO_INFO) {
+            throw new AggregatePersistenceException(String.format("[Entity: %s] No row count reported for the batched "
+                            + "update of ID %s, the optimistic lock cannot be verified. Disable batchUpdates() for this driver",
+                    entity.getClass().getSimpleName(), entity.getId()));
+        }
+        return count > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A extends ID> A newConditionEntity(A entity) {
         A conditionEntity = (A) ReflectUtil.newInstance(entity.getClass());
         conditionEntity.setId(entity.getId());
         if (entity instanceof Versionable) {
             Integer version = ((Versionable) entity).getVersion();
             ((Versionable) conditionEntity).setVersion(version);
         }
+        return conditionEntity;
+    }
 
-        boolean result = update(entity, changedFields, conditionEntity);
-
-        // Increment version if update successful
-        if (result && entity instanceof Versionable) {
+    /**
+     * Copy the version incremented by the optimistic lock interceptor back to the entity
+     */
+    private <A extends ID> void syncVersion(A entity, A conditionEntity) {
+        if (entity instanceof Versionable) {
             Integer version = ((Versionable) conditionEntity).getVersion();
             ((Versionable) entity).setVersion(version);
-            log.debug("[Entity: {}] Incremented version. New version: {}", entityType, version);
+            log.debug("[Entity: {}] Incremented version. New version: {}", entity.getClass().getSimpleName(), version);
         }
-
-        return result;
     }
 
-    private <A extends ID> boolean update(A entity, Set<String> changedFields, A newEntity) {
+    private <A extends ID> Map<String, Object> updateParams(A entity, Set<String> changedFields, A conditionEntity,
+                                                           TableInfo tableInfo) {
         String entityType = entity.getClass().getSimpleName();
-        Object entityId = entity.getId();
-        TableInfo tableInfo = TableInfoHelper.getTableInfo(entity.getClass());
 
         // Create update conditions
         UpdateWrapper<A> updateWrapper = new UpdateWrapper<>();
-        updateWrapper.eq(tableInfo.getKeyColumn(), entityId);
+        updateWrapper.eq(tableInfo.getKeyColumn(), entity.getId());
 
         // Set update fields by directly iterating TableFieldInfo (avoid extra Map allocation per call)
         MetaObject metaObject = SystemMetaObject.forObject(entity);
@@ -237,13 +470,20 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
             log.trace("[Entity: {}] Setting update field: {} = {}", entityType, column, fieldValue);
         }
 
+        Map<String, Object> params = CollectionUtils.newHashMapWithExpectedSize(2);
+        params.put(Constants.ENTITY, conditionEntity);
+        params.put(Constants.WRAPPER, updateWrapper);
+        return params;
+    }
+
+    private <A extends ID> boolean update(A entity, Set<String> changedFields, A newEntity) {
+        String entityType = entity.getClass().getSimpleName();
+        Object entityId = entity.getId();
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(entity.getClass());
+        Map<String, Object> params = updateParams(entity, changedFields, newEntity, tableInfo);
 
         SqlSession sqlSession = getSqlSession();
         try {
-            Map<String, Object> params = CollectionUtils.newHashMapWithExpectedSize(2);
-            params.put(Constants.ENTITY, newEntity);
-            params.put(Constants.WRAPPER, updateWrapper);
-
             int updated = sqlSession.update(sqlStatement(SqlMethod.UPDATE.getMethod(), tableInfo), params);
             boolean success = SqlHelper.retBool(updated);
 
@@ -261,11 +501,51 @@ public class MybatisRepositorySupport extends DbRepositorySupport {
     }
 
     /**
-     * Maximum batch size for batch operations
+     * Maximum batch size for batch operations, larger inserts are split into chunks of this size
      *
      * @return Maximum batch size
      */
     protected int batchSize() {
         return 1024;
     }
+
+    /**
+     * Maximum number of IDs in one {@code IN (...)} list, larger deletes are split into several statements
+     *
+     * @return Maximum IN-list size
+     */
+    protected int maxInListSize() {
+        return 1000;
+    }
+
+    /**
+     * Whether updates of several entities changing the same fields are sent as one JDBC batch. Disable it for drivers
+     * that do not return the row count of each batched statement ({@link Statement#SUCCESS_NO_INFO}).
+     *
+     * @return true to batch updates
+     */
+    protected boolean batchUpdates() {
+        return true;
+    }
+
+    /**
+     * Whether updates use cached {@link UpdateTemplate}s bound directly over JDBC instead of an {@link UpdateWrapper}
+     * per call. Disabled by default: the template path does its own optimistic locking ({@code version=version+1}),
+     * update fill and logic-delete condition, but bypasses other MyBatis interceptors (e.g. tenant or data permission
+     * plugins) registered on the update statement.
+     *
+     * @return true to use update templates
+     */
+    protected boolean useUpdateTemplates() {
+        return false;
+    }
+
+    /**
+     * Maximum number of cached update templates (one per entity class and changed-field set)
+     *
+     * @return cache size
+     */
+    protected int updateTemplateCacheSize() {
+        return 512;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.damon.aggregate.persistence.mybatis;
+
+import com.baomidou.mybatisplus.core.handlers.MetaObjectHandler;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.damon.aggregate.persistence.ID;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.copier.BeanSchema;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.apache.ibatis.type.UnknownTypeHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Pre-built UPDATE statement for one (entity class, changed-field set), with the type handler of every parameter
+ * resolved up front:
+ * <pre>
+ * UPDATE table SET a=?, b=?[, fill=?][, version=version+1] WHERE id=?[ AND version=?][ AND logic-delete]
+ * </pre>
+ * Update-fill columns are filled through the configured {@link MetaObjectHandler} on a fresh instance, the same
+ * way MyBatis-Plus fills the condition entity of the regular update.
+ */
+final class UpdateTemplate {
+    private final String sql;
+    private final Column[] setColumns;
+    private final Column[] fillColumns;
+    private final TypeHandler<Object> keyTypeHandler;
+    private final boolean versioned;
+    private final BeanSchema schema;
+    private final MetaObjectHandler metaObjectHandler;
+
+    /**
+     * Cache key: entity class, changed fields and whether the optimistic lock applies
+     */
+    static final class Key {
+        private final Class<?> type;
+        private final Set<String> changedFields;
+        private final boolean versioned;
+
+        Key(Class<?> type, Set<String> changedFields, boolean versioned) {
+            this.type = type;
+            this.changedFields = changedFields;
+            this.versioned = versioned;
+        }
+
+        Key immutableCopy() {
+            return new Key(type, Collections.unmodifiableSet(new HashSet<>(changedFields)), versioned);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return versioned == key.versioned && type == key.type && changedFields.equals(key.changedFields);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + changedFields.hashCode()) * 31 + (versioned ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param configuration configuration of the session executing the template, providing the type handlers
+     * @throws IllegalArgumentException if a column of the table is not a field of the entity class
+     */
+    UpdateTemplate(TableInfo tableInfo, Key key, Configuration configuration) {
+        TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+        this.versioned = key.versioned;
+        this.schema = BeanSchema.forClass(key.type);
+        if (schema == null) {
+            throw new IllegalArgumentException("Cannot build an update template for " + key.type.getName());
+        }
+        this.metaObjectHandler = GlobalConfigUtils.getMetaObjectHandler(configuration).orElse(null);
+
+        Map<String, BeanSchema.Property> properties = new HashMap<>();
+        for (BeanSchema.Property property : schema.getProperties()) {
+            properties.putIfAbsent(property.getName(), property);
+        }
+        List<Column> setColumns = new ArrayList<>();
+        List<Column> fillColumns = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableInfo.getTableName()).append(" SET ");
+        for (TableFieldInfo fieldInfo : tableInfo.getFieldList()) {
+            if (fieldInfo.isVersion() && versioned) {
+                continue;
+            }
+            List<Column> target;
+            if (key.changedFields.contains(fieldInfo.getProperty())) {
+                target = setColumns;
+            } else if (fieldInfo.isWithUpdateFill() && metaObjectHandler != null) {
+                target = fillColumns;
+            } else {
+                continue;
+            }
+            BeanSchema.Property property = properties.get(fieldInfo.getProperty());
+            if (property == null) {
+                throw new IllegalArgumentException(String.format("Property [%s] of table %s is not a field of %s",
+                        fieldInfo.getProperty(), tableInfo.getTableName(), key.type.getName()));
+            }
+            target.add(new Column(fieldInfo, property, configuration, registry));
+        }
+        String separator = "";
+        for (Column column : setColumns) {
+            sql.append(separator).append(column.name).append("=?");
+            separator = ", ";
+        }
+        for (Column column : fillColumns) {
+            sql.append(separator).append(column.name).append("=?");
+            separator = ", ";
+        }
+        String versionColumn = versioned ? tableInfo.getVersionFieldInfo().getColumn() : null;
+        if (versioned) {
+            sql.append(separator).append(versionColumn).append('=').append(versionColumn).append("+1");
+        }
+        sql.append(" WHERE ").append(tableInfo.getKeyColumn()).append("=?");
+        if (versioned) {
+            sql.append(" AND ").append(versionColumn).append("=?");
+        }
+        sql.append(tableInfo.getLogicDeleteSql(true, true));
+
+        this.sql = sql.toString();
+        this.setColumns = setColumns.toArray(new Column[0]);
+        this.fillColumns = fillColumns.toArray(new Column[0]);
+        this.keyTypeHandler = typeHandler(registry, tableInfo.getKeyType());
+    }
+
+    /**
+     * Whether the template can be used for the given entity class: the optimistic lock needs a {@link Versionable}
+     * entity with a non-null version, exactly like {@code OptimisticLockerInnerInterceptor}.
+     */
+    static boolean isVersioned(TableInfo tableInfo, ID entity) {
+        return tableInfo.isWithVersion() && entity instanceof Versionable && ((Versionable) entity).getVersion() != null;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    boolean isVersioned() {
+        return versioned;
+    }
+
+    /**
+     * Bind the parameters of one entity
+     */
+    void bind(PreparedStatement statement, ID entity) throws SQLException {
+        int index = 1;
+        for (Column column : setColumns) {
+            column.bind(statement, index++, column.property.get(entity));
+        }
+        if (fillColumns.length > 0) {
+            Object fill = schema.newInstance();
+            metaObjectHandler.updateFill(SystemMetaObject.forObject(fill));
+            for (Column column : fillColumns) {
+                column.bind(statement, index++, column.property.get(fill));
+            }
+        }
+        keyTypeHandler.setParameter(statement, index++, entity.getId(), null);
+        if (versioned) {
+            statement.setInt(index, ((Versionable) entity).getVersion());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TypeHandler<Object> typeHandler(TypeHandlerRegistry registry, Class<?> type) {
+        TypeHandler<?> typeHandler = type == null ? null : registry.getTypeHandler(type);
+        return (TypeHandler<Object>) (typeHandler != null ? typeHandler : registry.getUnknownTypeHandler());
+    }
+
+    private static final class Column {
+        private final String name;
+        private final BeanSchema.Property property;
+        private final TypeHandler<Object> typeHandler;
+        private final JdbcType jdbcType;
+        private final JdbcType jdbcTypeForNull;
+
+        @SuppressWarnings("unchecked")
+        Column(TableFieldInfo fieldInfo, BeanSchema.Property property, Configuration configuration, TypeHandlerRegistry registry) {
+            this.name = fieldInfo.getColumn();
+            this.property = property;
+            this.jdbcType = fieldInfo.getJdbcType();
+            this.jdbcTypeForNull = jdbcType != null ? jdbcType : configuration.getJdbcTypeForNull();
+            Class<? extends TypeHandler<?>> typeHandlerClass = fieldInfo.getTypeHandler();
+            TypeHandler<?> typeHandler = null;
+            if (typeHandlerClass != null && typeHandlerClass != UnknownTypeHandler.class) {
+                typeHandler = registry.getMappingTypeHandler(typeHandlerClass);
+                if (typeHandler == null) {
+                    typeHandler = registry.getInstance(fieldInfo.getPropertyType(), typeHandlerClass);
+                }
+            } else if (jdbcType != null) {
+                typeHandler = registry.getTypeHandler(fieldInfo.getPropertyType(), jdbcType);
+            }
+            this.typeHandler = typeHandler != null ? (TypeHandler<Object>) typeHandler
+                    : typeHandler(registry, fieldInfo.getPropertyType());
+        }
+
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+            typeHandler.setParameter(statement, index, value, value == null ? jdbcTypeForNull : jdbcType);
+        }
+    }
+}
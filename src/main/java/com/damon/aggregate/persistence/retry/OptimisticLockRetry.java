@@ -0,0 +1,143 @@
+package com.damon.aggregate.persistence.retry;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.exception.OptimisticLockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a command against an aggregate and saves it, reloading the aggregate and applying the command again when the
+ * save is rejected by the optimistic lock ({@link OptimisticLockException}).
+ * <p>
+ * Attempts are bounded; between attempts the executor sleeps a random delay (full jitter) below an exponentially
+ * growing cap, so that contending writers spread out instead of colliding again. When all attempts are rejected the
+ * last {@link OptimisticLockException} is thrown.
+ * <p>
+ * Each attempt must load and save in its own transaction: call the executor outside of any transaction, with a
+ * transactional save (or wrap load, command and save in a transaction per attempt). The command may run several
+ * times and must only change the aggregate it is given.
+ * <pre>
+ * OptimisticLockRetry retry = new OptimisticLockRetry(3, Duration.ofMillis(20), Duration.ofMillis(200));
+ * retry.run(() -&gt; orderGateway.get(orderId), order -&gt; order.cancel(), orderGateway::save);
+ * </pre>
+ */
+public final class OptimisticLockRetry {
+    private static final Logger log = LoggerFactory.getLogger(OptimisticLockRetry.class);
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(20);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMillis(500);
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    public OptimisticLockRetry() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * @param maxAttempts    maximum number of attempts, including the first one
+     * @param initialBackoff cap of the delay before the second attempt, doubled for each further attempt
+     * @param maxBackoff     maximum cap of the delay between two attempts
+     */
+    public OptimisticLockRetry(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Maximum attempts must be positive");
+        }
+        Objects.requireNonNull(initialBackoff, "Initial backoff cannot be null");
+        Objects.requireNonNull(maxBackoff, "Maximum backoff cannot be null");
+        if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("Backoff must not be negative and not greater than maximum backoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    /**
+     * Load an aggregate, apply a command to its root and save it, again from the load on optimistic lock failure.
+     *
+     * @param loader  loads the current aggregate
+     * @param command changes the root, its result is returned
+     * @param saver   saves the aggregate, throws {@link OptimisticLockException} if it was changed by another user
+     * @return the result of the command in the successful attempt
+     * @throws OptimisticLockException if every attempt was rejected
+     */
+    public <R extends Versionable, V> V execute(Supplier<Aggregate<R>> loader, Function<R, V> command, Consumer<Aggregate<R>> saver) {
+        Objects.requireNonNull(loader, "Loader cannot be null");
+        Objects.requireNonNull(command, "Command cannot be null");
+        Objects.requireNonNull(saver, "Saver cannot be null");
+        for (int attempt = 1; ; attempt++) {
+            Aggregate<R> aggregate = loader.get();
+            if (aggregate == null) {
+                throw new AggregatePersistenceException("Loader returned no aggregate");
+            }
+            try {
+                V result = command.apply(aggregate.getRoot());
+                saver.accept(aggregate);
+                return result;
+            } catch (OptimisticLockException e) {
+                if (attempt >= maxAttempts) {
+                    log.warn("[Optimistic lock] Rejected after {} attempts. Type: {}, ID: {}",
+                            attempt, aggregate.getRoot().getClass().getSimpleName(), aggregate.getRoot().getId());
+                    throw e;
+                }
+                long backoff = backoff(attempt);
+                log.debug("[Optimistic lock] Attempt {} rejected, retrying in {} ms. Type: {}, ID: {}",
+                        attempt, TimeUnit.NANOSECONDS.toMillis(backoff), aggregate.getRoot().getClass().getSimpleName(),
+                        aggregate.getRoot().getId());
+                sleep(backoff, e);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #execute(Supplier, Function, Consumer)} for a command without result.
+     */
+    public <R extends Versionable> void run(Supplier<Aggregate<R>> loader, Consumer<R> command, Consumer<Aggregate<R>> saver) {
+        Objects.requireNonNull(command, "Command cannot be null");
+        execute(loader, root -> {
+            command.accept(root);
+            return null;
+        }, saver);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Random delay below the cap of the given attempt: initial backoff doubled per attempt, bounded by the maximum
+     */
+    private long backoff(int attempt) {
+        long cap = initialBackoffNanos;
+        for (int i = 1; i < attempt && cap < maxBackoffNanos; i++) {
+            cap <<= 1;
+        }
+        cap = Math.min(cap, maxBackoffNanos);
+        return cap <= 0 ? 0L : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static void sleep(long nanos, OptimisticLockException cause) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cause.addSuppressed(e);
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.damon.aggregate.persistence.snapshot;
+
+/**
+ * Snapshot kept as a deep-copied object graph.
+ */
+public class CopiedSnapshot<R> implements Snapshot<R> {
+    private final R snapshot;
+
+    public CopiedSnapshot(R snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public R get() {
+        return snapshot;
+    }
+}
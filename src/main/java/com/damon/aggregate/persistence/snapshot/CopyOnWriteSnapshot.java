@@ -0,0 +1,125 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.comparator.DomainComparator;
+import com.damon.aggregate.persistence.copier.BeanSchema;
+import com.damon.aggregate.persistence.copier.DeepCopier;
+
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Copy-on-write snapshot: child lists of the root are not copied up front but replaced by tracking lists that copy
+ * an element only when it is first handed out, and capture the original order only on the first structural change.
+ * <p>
+ * The root's own fields are kept in a shallow shadow instance (immutable values shared, other values such as value
+ * objects deep-copied, since plain classes cannot be intercepted). A read-mostly aggregate therefore makes no copy of
+ * its children, and an untouched child list is reported unchanged without any comparison.
+ * <p>
+ * Assumes the children are only reached through the root after the aggregate is created.
+ */
+public class CopyOnWriteSnapshot<R> implements Snapshot<R> {
+    private final R shadow;
+    private final BeanSchema schema;
+    /**
+     * Tracked list of each list property, null for untracked properties
+     */
+    private final TrackedList<?>[] trackedLists;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CopyOnWriteSnapshot(R root, DeepCopier deepCopier) {
+        this.schema = BeanSchema.forClass(root.getClass());
+        if (schema == null) {
+            // Not a bean the schema can handle, keep a plain copy
+            this.shadow = deepCopier.copy(root);
+            this.trackedLists = null;
+            return;
+        }
+        BeanSchema.Property[] properties = schema.getProperties();
+        this.shadow = (R) schema.newInstance();
+        this.trackedLists = new TrackedList[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            BeanSchema.Property property = properties[i];
+            if (property.isImmutable() || property.isSynthetic()) {
+                property.copyValue(shadow, root);
+                continue;
+            }
+            Object value = property.get(root);
+            if (value instanceof List && property.getType().isAssignableFrom(TrackedList.class)) {
+                TrackedList<?> trackedList = new TrackedList<>((List) value, deepCopier);
+                property.set(root, trackedList);
+                trackedLists[i] = trackedList;
+            } else {
+                property.set(shadow, deepCopier.copy(value));
+            }
+        }
+    }
+
+    /**
+     * Whether a collection is a copy-on-write child list that has not been touched since the aggregate was loaded.
+     * Such a collection is unchanged and can be skipped without converting or comparing its elements.
+     *
+     * @param items child collection of an aggregate root
+     * @return true if the collection is known to be unchanged
+     */
+    public static boolean isUntouched(Collection<?> items) {
+        return items instanceof TrackedList && !((TrackedList<?>) items).isTouched();
+    }
+
+    /**
+     * Read-only view of a child collection that does not mark its elements as handed out. Only for callers that
+     * do not modify the elements, e.g. the persistence layer reading the collection to diff it.
+     *
+     * @param items child collection of an aggregate root
+     * @return the underlying list of a copy-on-write child list, or the collection itself
+     */
+    public static <T> Collection<T> unwrap(Collection<T> items) {
+        return items instanceof TrackedList ? ((TrackedList<T>) items).unwrap() : items;
+    }
+
+    /**
+     * Materialize the snapshot as of now. Untouched elements are shared with the root, so the returned graph is only
+     * valid until the root is modified again.
+     */
+    @Override
+    public R get() {
+        if (trackedLists == null) {
+            return shadow;
+        }
+        BeanSchema.Property[] properties = schema.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            if (trackedLists[i] != null) {
+                properties[i].set(shadow, trackedLists[i].snapshot());
+            }
+        }
+        return shadow;
+    }
+
+    @Override
+    public boolean isChanged(R root) {
+        if (trackedLists == null || root.getClass() != schema.getType()) {
+            return Snapshot.super.isChanged(root);
+        }
+        BeanSchema.Property[] properties = schema.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            BeanSchema.Property property = properties[i];
+            if (Modifier.isTransient(property.getField().getModifiers())) {
+                continue;
+            }
+            Object current = property.get(root);
+            TrackedList<?> trackedList = trackedLists[i];
+            if (trackedList == null) {
+                if (!DomainComparator.deepEquals(current, property.get(shadow))) {
+                    return true;
+                }
+            } else if (current == trackedList) {
+                if (trackedList.isChanged()) {
+                    return true;
+                }
+            } else if (!DomainComparator.deepEquals(current, trackedList.snapshot())) {
+                // The whole list was replaced
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,291 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.ID;
+import com.damon.aggregate.persistence.copier.BeanSchema;
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot that keeps no old values, only 64-bit {@link Fingerprints}: one for the root's own fields and one per
+ * child entity (elements of the root's {@link ID} collections), grouped by child class. Child fingerprints with
+ * {@code Long} IDs are stored in two sorted {@code long[]}, about 16 bytes per row.
+ * <p>
+ * {@link #isChanged(Object)} compares fingerprints only. The old state is only available through an optional
+ * reloader; repositories use {@link #getChildren(Class)} to find the changed rows and fetch just their old values.
+ */
+public class FingerprintSnapshot<R> implements Snapshot<R> {
+    private final long rootFingerprint;
+    private final Map<Class<?>, Children> children;
+    private final Supplier<R> reloader;
+
+    /**
+     * @param root     loaded root
+     * @param reloader loads the persisted state of the root again, used by {@link #get()}; may be null
+     */
+    public FingerprintSnapshot(R root, Supplier<R> reloader) {
+        this.reloader = reloader;
+        this.rootFingerprint = rootFingerprint(root);
+        this.children = collectChildren(root);
+    }
+
+    /**
+     * The old state is not kept: reload it, or fail when no reloader was given.
+     */
+    @Override
+    public R get() {
+        if (reloader == null) {
+            throw new AggregatePersistenceException(
+                    "Fingerprint snapshot keeps no old values, use getChildren() or create the aggregate with a reloader");
+        }
+        return reloader.get();
+    }
+
+    @Override
+    public boolean isChanged(R root) {
+        if (rootFingerprint(root) != rootFingerprint) {
+            return true;
+        }
+        Map<Class<?>, List<ID>> current = groupChildren(root);
+        if (!current.keySet().equals(children.keySet())) {
+            return true;
+        }
+        for (Map.Entry<Class<?>, List<ID>> entry : current.entrySet()) {
+            if (children.get(entry.getKey()).isChanged(entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fingerprints of the loaded child entities of a class.
+     *
+     * @param childType child entity class
+     * @return the child fingerprints, empty if no such child was loaded
+     */
+    public Children getChildren(Class<?> childType) {
+        Children result = children.get(childType);
+        return result != null ? result : Children.EMPTY;
+    }
+
+    private static long rootFingerprint(Object root) {
+        // Child entity collections are fingerprinted row by row
+        return Fingerprints.of(root, property -> isChildCollection(property, root));
+    }
+
+    /**
+     * A collection property holds child entities if its declared element type, or its first element, is an {@link ID}
+     */
+    private static boolean isChildCollection(BeanSchema.Property property, Object root) {
+        if (!Collection.class.isAssignableFrom(property.getType())) {
+            return false;
+        }
+        Type genericType = property.getField().getGenericType();
+        if (genericType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (arguments.length == 1 && arguments[0] instanceof Class && ID.class.isAssignableFrom((Class<?>) arguments[0])) {
+                return true;
+            }
+        }
+        Collection<?> collection = (Collection<?>) property.get(root);
+        return collection != null && !collection.isEmpty() && collection.iterator().next() instanceof ID;
+    }
+
+    private static Map<Class<?>, Children> collectChildren(Object root) {
+        Map<Class<?>, Children> result = new HashMap<>();
+        groupChildren(root).forEach((type, items) -> result.put(type, Children.of(items)));
+        return result;
+    }
+
+    private static Map<Class<?>, List<ID>> groupChildren(Object root) {
+        Map<Class<?>, List<ID>> result = new HashMap<>();
+        BeanSchema schema = BeanSchema.forClass(root.getClass());
+        if (schema == null) {
+            return result;
+        }
+        for (BeanSchema.Property property : schema.getProperties()) {
+            if (!Collection.class.isAssignableFrom(property.getType())) {
+                continue;
+            }
+            Collection<?> collection = (Collection<?>) property.get(root);
+            if (collection == null) {
+                continue;
+            }
+            for (Object element : CopyOnWriteSnapshot.unwrap(collection)) {
+                if (element instanceof ID) {
+                    result.computeIfAbsent(element.getClass(), key -> new ArrayList<>()).add((ID) element);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fingerprints of the loaded child entities of one class, keyed by ID.
+     */
+    public abstract static class Children {
+        static final Children EMPTY = new MapChildren(Collections.emptyMap());
+
+        static Children of(Collection<? extends ID> items) {
+            boolean longIds = true;
+            for (ID item : items) {
+                if (!(item.getId() instanceof Long)) {
+                    longIds = false;
+                    break;
+                }
+            }
+            if (longIds) {
+                return new LongChildren(items);
+            }
+            Map<Object, Long> fingerprints = new HashMap<>();
+            for (ID item : items) {
+                if (item.getId() != null) {
+                    fingerprints.put(item.getId(), Fingerprints.of(item));
+                }
+            }
+            return new MapChildren(fingerprints);
+        }
+
+        /**
+         * Fingerprint of the loaded child with the given ID, or null if no such child was loaded
+         */
+        abstract Long fingerprint(Object id);
+
+        abstract int size();
+
+        abstract void forEachId(Consumer<Object> action);
+
+        /**
+         * Whether a child with the given ID was loaded
+         */
+        public boolean contains(Object id) {
+            return id != null && fingerprint(id) != null;
+        }
+
+        /**
+         * Whether the current children differ from the loaded ones.
+         */
+        public boolean isChanged(Collection<? extends ID> items) {
+            if (items.size() != size()) {
+                return true;
+            }
+            for (ID item : items) {
+                Long fingerprint = item.getId() == null ? null : fingerprint(item.getId());
+                if (fingerprint == null || fingerprint != Fingerprints.of(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Current children that are new or whose fingerprint changed since load.
+         */
+        public <T extends ID> List<T> findChangedItems(Collection<T> items) {
+            List<T> changed = new ArrayList<>();
+            for (T item : items) {
+                Long fingerprint = item.getId() == null ? null : fingerprint(item.getId());
+                if (fingerprint == null || fingerprint != Fingerprints.of(item)) {
+                    changed.add(item);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * IDs of the loaded children whose old values are needed: changed rows and removed rows.
+         */
+        public <T extends ID> Set<Object> findChangedIds(Collection<T> items) {
+            Set<Object> currentIds = new HashSet<>();
+            Set<Object> ids = new LinkedHashSet<>();
+            for (T item : items) {
+                if (item.getId() == null) {
+                    continue;
+                }
+                currentIds.add(item.getId());
+                Long fingerprint = fingerprint(item.getId());
+                if (fingerprint != null && fingerprint != Fingerprints.of(item)) {
+                    ids.add(item.getId());
+                }
+            }
+            forEachId(id -> {
+                if (!currentIds.contains(id)) {
+                    ids.add(id);
+                }
+            });
+            return ids;
+        }
+    }
+
+    /**
+     * Long IDs: parallel arrays sorted by ID
+     */
+    private static final class LongChildren extends Children {
+        private final long[] ids;
+        private final long[] fingerprints;
+
+        LongChildren(Collection<? extends ID> items) {
+            long[][] pairs = new long[items.size()][];
+            int index = 0;
+            for (ID item : items) {
+                pairs[index++] = new long[]{(Long) item.getId(), Fingerprints.of(item)};
+            }
+            Arrays.sort(pairs, (left, right) -> Long.compare(left[0], right[0]));
+            this.ids = new long[pairs.length];
+            this.fingerprints = new long[pairs.length];
+            for (int i = 0; i < pairs.length; i++) {
+                ids[i] = pairs[i][0];
+                fingerprints[i] = pairs[i][1];
+            }
+        }
+
+        @Override
+        Long fingerprint(Object id) {
+            if (!(id instanceof Long)) {
+                return null;
+            }
+            int index = Arrays.binarySearch(ids, (Long) id);
+            return index < 0 ? null : fingerprints[index];
+        }
+
+        @Override
+        int size() {
+            return ids.length;
+        }
+
+        @Override
+        void forEachId(Consumer<Object> action) {
+            for (long id : ids) {
+                action.accept(id);
+            }
+        }
+    }
+
+    private static final class MapChildren extends Children {
+        private final Map<Object, Long> fingerprints;
+
+        MapChildren(Map<Object, Long> fingerprints) {
+            this.fingerprints = fingerprints;
+        }
+
+        @Override
+        Long fingerprint(Object id) {
+            return fingerprints.get(id);
+        }
+
+        @Override
+        int size() {
+            return fingerprints.size();
+        }
+
+        @Override
+        void forEachId(Consumer<Object> action) {
+            fingerprints.keySet().forEach(action);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.copier.BeanSchema;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 64-bit fingerprints of object graphs, walked field by field through {@link BeanSchema}.
+ * <p>
+ * Equal graphs (in the sense of {@code EqualsBuilder.reflectionEquals} on every level, {@code BigDecimal} compared by
+ * value) always get the same fingerprint. Different graphs get different fingerprints with high probability, not for
+ * sure: the mix is a non-cryptographic 64-bit hash, and JDK values without a dedicated encoding (dates, {@code java.time}
+ * values...) contribute their 32-bit {@code hashCode()}, so two such values with the same hash code are not told
+ * apart. Transient fields are ignored.
+ * <p>
+ * Values that cannot be fingerprinted by content (no schema and no {@code hashCode()} of their own, or nested deeper
+ * than 32 levels) get a fingerprint that never repeats, so the graph is always reported as changed.
+ */
+public final class Fingerprints {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long NULL = 0x2545F4914F6CDD1DL;
+    private static final int MAX_DEPTH = 32;
+    private static final AtomicLong UNKNOWN = new AtomicLong();
+    private static final ClassValue<Boolean> VALUE_HASH = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("hashCode").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private Fingerprints() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Fingerprint of a whole object graph.
+     */
+    public static long of(Object value) {
+        return hash(SEED, value, 0, null);
+    }
+
+    /**
+     * Fingerprint of the fields of a bean, skipping the properties matched by {@code skip}.
+     */
+    static long of(Object bean, Predicate<BeanSchema.Property> skip) {
+        BeanSchema schema = BeanSchema.forClass(bean.getClass());
+        if (schema == null) {
+            return of(bean);
+        }
+        return hashFields(mix(SEED, bean.getClass().getName().hashCode()), bean, schema, 0, skip);
+    }
+
+    private static long hash(long h, Object value, int depth, Predicate<BeanSchema.Property> skip) {
+        if (value == null) {
+            return mix(h, NULL);
+        }
+        if (depth > MAX_DEPTH) {
+            return unknown(h);
+        }
+        if (value instanceof String) {
+            String string = (String) value;
+            h = mix(h, string.length());
+            for (int i = 0; i < string.length(); i++) {
+                h = mix(h, string.charAt(i));
+            }
+            return h;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return mix(h, ((Number) value).longValue());
+        }
+        if (value instanceof BigDecimal) {
+            // Same fingerprint for values equal by compareTo, e.g. 1.0 and 1.00
+            BigDecimal decimal = (BigDecimal) value;
+            decimal = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+            return mix(hashBytes(h, decimal.unscaledValue().toByteArray()), decimal.scale());
+        }
+        if (value instanceof BigInteger) {
+            return hashBytes(h, ((BigInteger) value).toByteArray());
+        }
+        if (value instanceof Double) {
+            return mix(h, Double.doubleToLongBits((Double) value));
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            h = mix(h, collection.size());
+            for (Object element : collection) {
+                h = hash(h, element, depth + 1, null);
+            }
+            return h;
+        }
+        if (value instanceof Map) {
+            // Order-independent: sum of the entry fingerprints
+            long sum = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sum += hash(hash(SEED, entry.getKey(), depth + 1, null), entry.getValue(), depth + 1, null);
+            }
+            return mix(mix(h, ((Map<?, ?>) value).size()), sum);
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            h = mix(h, length);
+            for (int i = 0; i < length; i++) {
+                h = hash(h, Array.get(value, i), depth + 1, null);
+            }
+            return h;
+        }
+        if (value instanceof Enum) {
+            return mix(mix(h, value.getClass().getName().hashCode()), ((Enum<?>) value).ordinal());
+        }
+        BeanSchema schema = BeanSchema.isImmutable(value.getClass()) ? null : BeanSchema.forClass(value.getClass());
+        if (schema == null) {
+            // An identity hash code would hide every change of the value
+            return VALUE_HASH.get(value.getClass()) ? mix(h, value.hashCode()) : unknown(h);
+        }
+        return hashFields(mix(h, value.getClass().getName().hashCode()), value, schema, depth, skip);
+    }
+
+    private static long hashFields(long h, Object bean, BeanSchema schema, int depth, Predicate<BeanSchema.Property> skip) {
+        for (BeanSchema.Property property : schema.getProperties()) {
+            if (property.isSynthetic() || Modifier.isTransient(property.getField().getModifiers())
+                    || (skip != null && skip.test(property))) {
+                continue;
+            }
+            h = hash(h, property.get(bean), depth + 1, null);
+        }
+        return h;
+    }
+
+    /**
+     * Two's-complement bytes of a number, eight per mix
+     */
+    private static long hashBytes(long h, byte[] bytes) {
+        h = mix(h, bytes.length);
+        long word = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            word = (word << 8) | (bytes[i] & 0xFF);
+            if ((i & 7) == 7) {
+                h = mix(h, word);
+                word = 0;
+            }
+        }
+        return (bytes.length & 7) == 0 ? h : mix(h, word);
+    }
+
+    /**
+     * Fingerprint part of a value that cannot be hashed by content: never the same twice
+     */
+    private static long unknown(long h) {
+        return mix(h, UNKNOWN.incrementAndGet() * SEED);
+    }
+
+    /**
+     * Combine a value into the running hash (multiply-xorshift, finalizer of MurmurHash3)
+     */
+    private static long mix(long h, long value) {
+        long k = (h ^ value) * 0xC6A4A7935BD1E995L;
+        k ^= k >>> 47;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        return k + 0x165667B19E3779F9L;
+    }
+}
@@ -0,0 +1,46 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.copier.DeepCopier;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import com.damon.aggregate.persistence.copier.SerializingDeepCopier;
+import com.damon.aggregate.persistence.exception.UnsupportedTypeException;
+
+/**
+ * Snapshot kept in serialized form and decoded on first use. A root holding values the serializer cannot encode
+ * exactly is copied by the {@link MethodHandleDeepCopier} instead.
+ */
+public class SerializedSnapshot<R> implements Snapshot<R> {
+    private static final DeepCopier FALLBACK = new MethodHandleDeepCopier();
+    private final SerializingDeepCopier serializer;
+    private final Class<R> rootType;
+    private byte[] serializedSnapshot;
+    private R snapshot;
+
+    @SuppressWarnings("unchecked")
+    public SerializedSnapshot(R root, SerializingDeepCopier serializer) {
+        this.serializer = serializer;
+        this.rootType = (Class<R>) root.getClass();
+        try {
+            this.serializedSnapshot = serializer.serialize(root);
+        } catch (UnsupportedTypeException e) {
+            this.snapshot = FALLBACK.copy(root);
+        }
+    }
+
+    /**
+     * Size of the serialized snapshot in bytes, -1 once it has been decoded or if it was copied instead
+     */
+    public int getSerializedSize() {
+        byte[] serialized = serializedSnapshot;
+        return serialized == null ? -1 : serialized.length;
+    }
+
+    @Override
+    public R get() {
+        if (snapshot == null) {
+            snapshot = serializer.deserialize(serializedSnapshot, rootType);
+            serializedSnapshot = null;
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,28 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import cn.hutool.core.builder.EqualsBuilder;
+
+/**
+ * Holds the loaded state of an aggregate root so that it can later be compared with the current root.
+ *
+ * @param <R> aggregate root type
+ */
+public interface Snapshot<R> {
+
+    /**
+     * Materialize the snapshot of the aggregate root.
+     *
+     * @return snapshot of the root
+     */
+    R get();
+
+    /**
+     * Whether the root differs from the snapshot.
+     *
+     * @param root current root
+     * @return true if the root is changed
+     */
+    default boolean isChanged(R root) {
+        return !EqualsBuilder.reflectionEquals(root, get(), false);
+    }
+}
@@ -0,0 +1,312 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.comparator.DomainComparator;
+import com.damon.aggregate.persistence.copier.BeanSchema;
+import com.damon.aggregate.persistence.copier.DeepCopier;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Copy-on-write list installed into the aggregate root in place of a child list.
+ * <p>
+ * The original element references are captured before the first structural change, and each mutable element is
+ * deep-copied the first time it is handed out (get, iteration, removal...), i.e. before the caller can modify it.
+ * Elements that are never handed out need no copy: they can only be reached through this list, so they are unchanged.
+ */
+class TrackedList<E> implements List<E> {
+    private final List<E> delegate;
+    private final DeepCopier deepCopier;
+    /**
+     * Element order before the first structural change, null while the list is structurally unchanged
+     */
+    private List<E> baseline;
+    /**
+     * Original element -> copy taken when the element was first handed out
+     */
+    private final Map<E, E> copies = new IdentityHashMap<>();
+
+    TrackedList(List<E> delegate, DeepCopier deepCopier) {
+        this.delegate = delegate;
+        this.deepCopier = deepCopier;
+    }
+
+    /**
+     * The list as it was loaded: untouched elements are shared, handed-out elements are replaced by their copies.
+     */
+    List<E> snapshot() {
+        List<E> elements = baseline != null ? baseline : delegate;
+        List<E> snapshot = new ArrayList<>(elements.size());
+        for (E element : elements) {
+            E copy = copies.get(element);
+            snapshot.add(copy != null ? copy : element);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Whether the list was structurally changed or any handed-out element differs from its copy. Elements are
+     * compared field by field down their whole graph, so a value object without {@code equals} is not mistaken for a
+     * change.
+     */
+    boolean isChanged() {
+        if (baseline != null && !sameElements(baseline, delegate)) {
+            return true;
+        }
+        for (Map.Entry<E, E> entry : copies.entrySet()) {
+            if (!DomainComparator.deepEquals(entry.getKey(), entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<E> unwrap() {
+        return Collections.unmodifiableList(delegate);
+    }
+
+    /**
+     * Whether the list was structurally changed or any element was handed out since it was loaded
+     */
+    boolean isTouched() {
+        return baseline != null || !copies.isEmpty();
+    }
+
+    private static boolean sameElements(List<?> left, List<?> right) {
+        if (left.size() != right.size()) {
+            return false;
+        }
+        for (int i = 0; i < left.size(); i++) {
+            if (left.get(i) != right.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private E track(E element) {
+        if (element != null && !copies.containsKey(element) && !BeanSchema.isImmutable(element.getClass())) {
+            copies.put(element, deepCopier.copy(element));
+        }
+        return element;
+    }
+
+    private void trackAll() {
+        for (E element : delegate) {
+            track(element);
+        }
+    }
+
+    private void beforeStructuralChange() {
+        if (baseline == null) {
+            baseline = new ArrayList<>(delegate);
+        }
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return delegate.contains(o);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        for (E element : delegate) {
+            action.accept(track(element));
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        trackAll();
+        return delegate.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        trackAll();
+        return delegate.toArray(a);
+    }
+
+    @Override
+    public boolean add(E e) {
+        beforeStructuralChange();
+        return delegate.add(e);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        beforeStructuralChange();
+        return delegate.remove(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        return delegate.containsAll(c);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        beforeStructuralChange();
+        return delegate.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        beforeStructuralChange();
+        return delegate.addAll(index, c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        beforeStructuralChange();
+        return delegate.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        beforeStructuralChange();
+        return delegate.retainAll(c);
+    }
+
+    @Override
+    public void clear() {
+        beforeStructuralChange();
+        delegate.clear();
+    }
+
+    @Override
+    public E get(int index) {
+        return track(delegate.get(index));
+    }
+
+    @Override
+    public E set(int index, E element) {
+        beforeStructuralChange();
+        return track(delegate.set(index, element));
+    }
+
+    @Override
+    public void add(int index, E element) {
+        beforeStructuralChange();
+        delegate.add(index, element);
+    }
+
+    @Override
+    public E remove(int index) {
+        beforeStructuralChange();
+        return track(delegate.remove(index));
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return delegate.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return delegate.lastIndexOf(o);
+    }
+
+    @Override
+    public ListIterator<E> listIterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        ListIterator<E> iterator = delegate.listIterator(index);
+        return new ListIterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return track(iterator.next());
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return iterator.hasPrevious();
+            }
+
+            @Override
+            public E previous() {
+                return track(iterator.previous());
+            }
+
+            @Override
+            public int nextIndex() {
+                return iterator.nextIndex();
+            }
+
+            @Override
+            public int previousIndex() {
+                return iterator.previousIndex();
+            }
+
+            @Override
+            public void remove() {
+                beforeStructuralChange();
+                iterator.remove();
+            }
+
+            @Override
+            public void set(E e) {
+                beforeStructuralChange();
+                iterator.set(e);
+            }
+
+            @Override
+            public void add(E e) {
+                beforeStructuralChange();
+                iterator.add(e);
+            }
+        };
+    }
+
+    /**
+     * Sub list views can change the list in any way, so everything is captured up front.
+     */
+    @Override
+    public List<E> subList(int fromIndex, int toIndex) {
+        beforeStructuralChange();
+        trackAll();
+        return delegate.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        return delegate.equals(o instanceof TrackedList ? ((TrackedList<?>) o).delegate : o);
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,331 @@
+package com.damon.aggregate.persistence.writebehind;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.AggregateFactory;
+import com.damon.aggregate.persistence.BatchSaveResult;
+import com.damon.aggregate.persistence.DirtyTracking;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.copier.DeepCopier;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Opt-in write-behind persistence for hot aggregates (counters, statistics) changed many times a second.
+ * <p>
+ * {@link #update(Object, Consumer)} applies a command to the in-memory root and only marks it dirty. Dirty aggregates
+ * are flushed on a schedule, or as soon as {@code flushThreshold} of them are pending, through the flusher (usually a
+ * transactional repository method built on {@code DbRepositorySupport#saveAll}). All changes made to an aggregate
+ * between two flushes are written as one net diff against the last flushed state.
+ * <p>
+ * At most {@code maximumPending} aggregates are held: beyond that, the updating thread flushes synchronously
+ * (backpressure). Flushed aggregates stay in memory with their flushed state as the base of the next diff, and are
+ * released when a whole flush interval passes without change. An aggregate rejected by the optimistic lock is
+ * released and handed to the failure handler, its unflushed changes are lost. When the flusher throws (its
+ * transaction rolled back), the root versions and dirty properties it already advanced are restored and the
+ * aggregates stay dirty for the next flush. {@link #close()} stops the schedule and flushes synchronously.
+ * <pre>
+ * WriteBehindBuffer&lt;Stock&gt; buffer = new WriteBehindBuffer&lt;&gt;(stockGateway::get, stockGateway::saveAll,
+ *         Duration.ofMillis(200), 256, 4096);
+ * buffer.update(stockId, stock -&gt; stock.decrease(1));
+ * </pre>
+ *
+ * @param <R> root type
+ */
+public class WriteBehindBuffer<R extends Versionable> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final Function<Object, Aggregate<R>> loader;
+    private final Function<Collection<Aggregate<R>>, BatchSaveResult<R>> flusher;
+    private final int flushThreshold;
+    private final int maximumPending;
+    private final DeepCopier deepCopier = new MethodHandleDeepCopier();
+    private final Map<Object, Entry<R>> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private volatile Consumer<Aggregate<R>> failureHandler = aggregate -> {
+    };
+    private volatile boolean closed;
+
+    /**
+     * @param loader         loads the aggregate of an ID
+     * @param flusher        saves dirty aggregates in one transaction and reports the rejected ones
+     * @param flushInterval  delay between scheduled flushes
+     * @param flushThreshold number of dirty aggregates triggering an early flush
+     * @param maximumPending maximum number of aggregates held before updates flush synchronously
+     */
+    public WriteBehindBuffer(Function<Object, Aggregate<R>> loader,
+                             Function<Collection<Aggregate<R>>, BatchSaveResult<R>> flusher,
+                             Duration flushInterval, int flushThreshold, int maximumPending) {
+        if (loader == null || flusher == null) {
+            throw new AggregatePersistenceException("Loader and flusher cannot be null");
+        }
+        if (flushThreshold <= 0 || maximumPending < flushThreshold) {
+            throw new IllegalArgumentException("Flush threshold must be positive and not greater than maximum pending");
+        }
+        this.loader = loader;
+        this.flusher = flusher;
+        this.flushThreshold = flushThreshold;
+        this.maximumPending = maximumPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aggregate-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = flushInterval.toNanos();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Handler of aggregates rejected by the optimistic lock at flush, e.g. to log or compensate the lost changes
+     */
+    public void setFailureHandler(Consumer<Aggregate<R>> failureHandler) {
+        this.failureHandler = failureHandler == null ? aggregate -> {
+        } : failureHandler;
+    }
+
+    /**
+     * Apply a command to the in-memory root of an aggregate, loading it first if not held, and mark it dirty.
+     *
+     * @param id      root ID
+     * @param command changes the root
+     */
+    public void update(Object id, Consumer<R> command) {
+        checkOpen();
+        while (true) {
+            Entry<R> entry = entries.get(id);
+            if (entry == null) {
+                if (entries.size() >= maximumPending) {
+                    log.debug("[Write-behind] {} aggregates held, flushing in the caller", entries.size());
+                    flush(true);
+                }
+                Aggregate<R> aggregate = loader.apply(id);
+                Entry<R> loaded = new Entry<>(id, aggregate.getRoot(), aggregate.getSnapshot());
+                entry = entries.putIfAbsent(id, loaded);
+                if (entry == null) {
+                    entry = loaded;
+                }
+            }
+            entry.lock.lock();
+            try {
+                // Flushed and dropped meanwhile: load it again
+                if (entry.removed) {
+                    continue;
+                }
+                command.accept(entry.root);
+                if (!entry.dirty) {
+                    entry.dirty = true;
+                    dirtyCount.incrementAndGet();
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+            break;
+        }
+        if (dirtyCount.get() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Closing: the final flush writes the change
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Read the current in-memory state of an aggregate, including unflushed changes.
+     *
+     * @param id     root ID
+     * @param reader reads the root
+     * @return the result of the reader, null if the aggregate is not held
+     */
+    public <V> V read(Object id, Function<R, V> reader) {
+        Entry<R> entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        entry.lock.lock();
+        try {
+            return entry.removed ? null : reader.apply(entry.root);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    /**
+     * Flush all dirty aggregates now, in the calling thread, and release the aggregates unchanged since the previous
+     * flush. Updates of the aggregates being flushed wait for the flush to complete.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    private void flush(boolean release) {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            doFlush(release);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Number of aggregates changed since their last flush
+     */
+    public int getDirtyCount() {
+        return dirtyCount.get();
+    }
+
+    /**
+     * Stop scheduled flushes and flush the pending changes synchronously.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(true);
+    }
+
+    private void doFlush(boolean release) {
+        List<Entry<R>> flushing = new ArrayList<>();
+        List<Aggregate<R>> aggregates = new ArrayList<>();
+        try {
+            // Dirty entries stay locked until the flush completes, so IDs generated on insert land on the live roots
+            for (Entry<R> entry : entries.values()) {
+                entry.lock.lock();
+                if (!entry.dirty) {
+                    // Not changed since the last flush: release it
+                    drop(entry);
+                    entry.lock.unlock();
+                    continue;
+                }
+                flushing.add(entry);
+                // Dirty properties set by the commands tell the repository what changed
+                aggregates.add(AggregateFactory.createPendingAggregate(entry.root, entry.flushed));
+            }
+            if (aggregates.isEmpty()) {
+                return;
+            }
+            // State the flusher advances on the live roots before its transaction is known to commit
+            Integer[] versions = new Integer[flushing.size()];
+            Map<DirtyTracking, Set<String>> dirtyProperties = new IdentityHashMap<>();
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = flushing.get(i).root.getVersion();
+                DirtyTracking.forEachTracked(flushing.get(i).root,
+                        entity -> dirtyProperties.put(entity, new HashSet<>(entity.dirtyProperties())));
+            }
+            BatchSaveResult<R> result;
+            try {
+                result = flusher.apply(aggregates);
+            } catch (RuntimeException | Error e) {
+                // Rolled back: synced versions would fail the next flush, cleared dirty properties would skip it
+                for (int i = 0; i < versions.length; i++) {
+                    flushing.get(i).root.setVersion(versions[i]);
+                }
+                dirtyProperties.forEach(DirtyTracking::markDirtyProperties);
+                throw e;
+            }
+
+            Map<Aggregate<R>, Entry<R>> byAggregate = new IdentityHashMap<>();
+            for (int i = 0; i < aggregates.size(); i++) {
+                byAggregate.put(aggregates.get(i), flushing.get(i));
+            }
+            for (Aggregate<R> failed : result.getFailed()) {
+                log.warn("[Write-behind] Flush rejected, changes dropped. Type: {}, ID: {}",
+                        failed.getRoot().getClass().getSimpleName(), failed.getRoot().getId());
+                drop(byAggregate.get(failed));
+                failureHandler.accept(failed);
+            }
+            // The flushed state (with synced versions and generated IDs) is the base of the next diff
+            for (Entry<R> entry : flushing) {
+                if (entry.removed) {
+                    continue;
+                }
+                entry.flushed = deepCopier.copy(entry.root);
+                markClean(entry);
+                if (release) {
+                    drop(entry);
+                }
+            }
+            log.debug("[Write-behind] Flushed {} aggregates, {} rejected", aggregates.size(), result.getFailed().size());
+        } finally {
+            for (Entry<R> entry : flushing) {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    private void markClean(Entry<R> entry) {
+        if (entry.dirty) {
+            entry.dirty = false;
+            dirtyCount.decrementAndGet();
+        }
+    }
+
+    private void drop(Entry<R> entry) {
+        markClean(entry);
+        entry.removed = true;
+        entries.remove(entry.id, entry);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Entries remain dirty and are retried on the next flush
+            log.error("[Write-behind] Flush failed, will retry", e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new AggregatePersistenceException("Write-behind buffer is closed");
+        }
+    }
+
+    private static final class Entry<R> {
+        private final Object id;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final R root;
+        private R flushed;
+        private boolean dirty;
+        private boolean removed;
+
+        private Entry(Object id, R root, R flushed) {
+            this.id = id;
+            this.root = root;
+            this.flushed = flushed;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.damon.aggregate.persistence;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory repository recording the statements it is asked to execute, e.g. {@code "INSERT ParcelPO [1001, 1002]"}.
+ * Inserted entities without ID get generated {@code Long} IDs; updates of the IDs in {@link #reject(Object)} fail.
+ */
+public class RecordingRepository extends DbRepositorySupport {
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+    private final Set<Object> rejectedIds = new HashSet<>();
+    private final Set<Thread> writeThreads = Collections.synchronizedSet(new HashSet<>());
+    private long sequence = 1000;
+
+    public List<String> getStatements() {
+        return new ArrayList<>(statements);
+    }
+
+    /**
+     * Threads the statements were executed on
+     */
+    public Set<Thread> getWriteThreads() {
+        return new HashSet<>(writeThreads);
+    }
+
+    public void clear() {
+        statements.clear();
+    }
+
+    /**
+     * Reject the updates of the entity with the given ID, as the optimistic lock would
+     */
+    public void reject(Object id) {
+        rejectedIds.add(id);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected <A extends ID> boolean insertBatch(Collection<A> items) {
+        for (A item : items) {
+            if (item.getId() == null) {
+                ((ID) item).setId(++sequence);
+            }
+        }
+        record("INSERT", items);
+        return true;
+    }
+
+    @Override
+    protected <A extends ID> boolean deleteBatch(Collection<A> items) {
+        record("DELETE", items);
+        return true;
+    }
+
+    @Override
+    protected <A extends ID> boolean insert(A entity) {
+        return insertBatch(Collections.singletonList(entity));
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected <A extends ID, B extends ID> boolean save(A entity, Function<A, B> converter) {
+        B converted = converter.apply(entity);
+        insert(converted);
+        ((ID) entity).setId(converted.getId());
+        return true;
+    }
+
+    @Override
+    protected <A extends ID> boolean update(A entity, Set<String> changedFields) {
+        writeThreads.add(Thread.currentThread());
+        statements.add("UPDATE " + entity.getClass().getSimpleName() + " " + entity.getId() + " " + new TreeSet<>(changedFields));
+        return !rejectedIds.contains(entity.getId());
+    }
+
+    private void record(String operation, Collection<? extends ID> items) {
+        writeThreads.add(Thread.currentThread());
+        statements.add(operation + " " + items.iterator().next().getClass().getSimpleName() + " "
+                + items.stream().map(item -> String.valueOf(item.getId())).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,121 @@
+package com.damon.aggregate.persistence;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.comparator.ChangedEntity;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class TestChangeSet {
+
+    @BeforeEach
+    public void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), "test"), TagPO.class);
+    }
+
+    @Test
+    public void immutableTest() {
+        ChangeSet.Builder builder = ChangeSet.builder()
+                .inserted(Collections.singletonList(new TagPO(1L, "a", 1)))
+                .updated(new ChangedEntity<>(new TagPO(2L, "b", 1), new TagPO(2L, "c", 1), Collections.singleton("name")))
+                .deleted(Collections.singletonList(new TagPO(3L, "d", 1)));
+        ChangeSet changes = builder.build();
+
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> changes.getInserted(TagPO.class).clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> changes.getUpdated(TagPO.class).clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> changes.getDeleted(TagPO.class).clear());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> changes.getEntityTypes().clear());
+        ChangeSet.Update<TagPO> update = changes.getUpdated(TagPO.class).get(0);
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> update.getChangedFields().add("count"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> update.getChanges().clear());
+
+        // Later use of the builder does not change a built change set
+        builder.inserted(Collections.singletonList(new TagPO(4L, "e", 1))).failed();
+        Assertions.assertEquals(1, changes.getInserted(TagPO.class).size());
+        Assertions.assertTrue(changes.isSuccessful());
+        Assertions.assertEquals(2, builder.build().getInserted(TagPO.class).size());
+
+        Assertions.assertTrue(ChangeSet.EMPTY.getInserted(TagPO.class).isEmpty());
+        Assertions.assertSame(ChangeSet.EMPTY, ChangeSet.builder().build());
+    }
+
+    @Test
+    public void changesTest() {
+        TagPO oldEntity = new TagPO(1L, "a", 1);
+        TagPO newEntity = new TagPO(1L, "b", 2);
+        ChangeSet changes = ChangeSet.builder()
+                .updated(new ChangedEntity<>(oldEntity, newEntity, new LinkedHashSet<>(Arrays.asList("name", "useCount"))))
+                .build();
+        ChangeSet.Update<TagPO> update = changes.getUpdated(TagPO.class).get(0);
+        Assertions.assertEquals(1L, update.getId());
+        Assertions.assertTrue(update.isOldValueKnown());
+        Map<String, ChangeSet.FieldChange> fieldChanges = update.getChanges();
+        Assertions.assertEquals(Arrays.asList("name", "useCount"), new ArrayList<>(fieldChanges.keySet()));
+        Assertions.assertEquals("use_count", fieldChanges.get("useCount").getColumn());
+        Assertions.assertEquals(1, fieldChanges.get("useCount").getOldValue());
+        Assertions.assertEquals(2, fieldChanges.get("useCount").getNewValue());
+        Assertions.assertSame(fieldChanges, update.getChanges(), "Read once");
+
+        // Values are read when asked for
+        newEntity.name = "c";
+        Assertions.assertEquals("b", fieldChanges.get("name").getNewValue());
+    }
+
+    @Test
+    public void changesWithoutOldEntityTest() {
+        // Updates from dirty properties are written without converting the old state
+        TagPO newEntity = new TagPO(1L, "b", 2);
+        ChangeSet changes = ChangeSet.builder()
+                .updated(new ChangedEntity<>(null, newEntity, Collections.singleton("name")))
+                .build();
+        ChangeSet.Update<TagPO> update = changes.getUpdated(TagPO.class).get(0);
+        Assertions.assertFalse(update.isOldValueKnown());
+        Assertions.assertNull(update.getOldEntity());
+        ChangeSet.FieldChange change = update.getChanges().get("name");
+        Assertions.assertEquals("name", change.getColumn());
+        Assertions.assertNull(change.getOldValue());
+        Assertions.assertEquals("b", change.getNewValue());
+    }
+
+    @Test
+    public void mergeTest() {
+        ChangeSet inserted = ChangeSet.builder().inserted(Collections.singletonList(new TagPO(1L, "a", 1))).build();
+        ChangeSet failed = ChangeSet.builder().failed().build();
+        Assertions.assertSame(inserted, inserted.merge(ChangeSet.EMPTY));
+        Assertions.assertSame(inserted, inserted.merge(null));
+
+        ChangeSet merged = inserted.merge(failed);
+        Assertions.assertFalse(merged.isSuccessful());
+        Assertions.assertEquals(1, merged.getInserted(TagPO.class).size());
+        Assertions.assertTrue(inserted.isSuccessful(), "Merging returns a new change set");
+    }
+
+    public static class TagPO implements ID<Long> {
+        private Long id;
+        private String name;
+        private Integer useCount;
+
+        public TagPO() {
+        }
+
+        TagPO(Long id, String name, Integer useCount) {
+            this.id = id;
+            this.name = name;
+            this.useCount = useCount;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
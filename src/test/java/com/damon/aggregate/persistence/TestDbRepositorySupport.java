@@ -0,0 +1,472 @@
+package com.damon.aggregate.persistence;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import com.damon.aggregate.persistence.snapshot.FingerprintSnapshot;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestDbRepositorySupport {
+    private static final ChildMapping<Cart, Line, LinePO> LINES = ChildMapping.of(Cart::getLines,
+            (cart, line) -> new LinePO(line.id, cart.id, line.sku, line.quantity));
+    private static final ChildMapping<Cart, Note, NotePO> NOTES = ChildMapping.of(Cart::getNotes,
+            (cart, note) -> new NotePO(note.id, cart.id, note.text));
+    private static final ChildMapping<Line, Option, OptionPO> OPTIONS = ChildMapping.of(Line::getOptions,
+            (line, option) -> new OptionPO(option.id, line.id, option.name));
+
+    @BeforeEach
+    public void initTableInfo() {
+        MapperBuilderAssistant assistant = new MapperBuilderAssistant(new MybatisConfiguration(), "test");
+        TableInfoHelper.initTableInfo(assistant, LinePO.class);
+        TableInfoHelper.initTableInfo(assistant, NotePO.class);
+        TableInfoHelper.initTableInfo(assistant, OptionPO.class);
+        TableInfoHelper.initTableInfo(assistant, CartPO.class);
+    }
+
+    @Test
+    public void saveChildrenExecutorTest() throws Exception {
+        List<String> sequential = saveChildren(null);
+        Assertions.assertEquals(Arrays.asList(
+                "INSERT LinePO [1001]", "UPDATE LinePO 11 [quantity]", "DELETE LinePO [12]",
+                "INSERT NotePO [1002]", "UPDATE NotePO 21 [text]"), sequential, "Written in mapping order");
+
+        Assertions.assertEquals(sequential, saveChildren(ForkJoinPool.commonPool()));
+        ExecutorService virtualThreads = virtualThreadExecutor();
+        if (virtualThreads != null) {
+            try {
+                Assertions.assertEquals(sequential, saveChildren(virtualThreads));
+            } finally {
+                virtualThreads.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void writesOnCallingThreadTest() {
+        Set<Thread> converterThreads = Collections.synchronizedSet(new HashSet<>());
+        ChildMapping<Cart, Line, LinePO> lines = ChildMapping.of(Cart::getLines, (cart, line) -> {
+            converterThreads.add(Thread.currentThread());
+            return new LinePO(line.id, cart.id, line.sku, line.quantity);
+        });
+        Aggregate<Cart> aggregate = changedCart();
+        RecordingRepository repository = repository(ForkJoinPool.commonPool());
+        repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), lines, NOTES);
+
+        Assertions.assertEquals(Collections.singleton(Thread.currentThread()), repository.getWriteThreads(),
+                "Statements run on the transaction's thread");
+        Assertions.assertFalse(converterThreads.contains(Thread.currentThread()), "Changes computed on the executor");
+    }
+
+    @Test
+    public void converterExceptionTest() throws Exception {
+        ChildMapping<Cart, Note, NotePO> failingNotes = ChildMapping.of(Cart::getNotes, (cart, note) -> {
+            throw new IllegalStateException("Cannot convert note " + note.id);
+        });
+        List<Executor> executors = new ArrayList<>(Arrays.asList(null, ForkJoinPool.commonPool()));
+        ExecutorService virtualThreads = virtualThreadExecutor();
+        if (virtualThreads != null) {
+            executors.add(virtualThreads);
+        }
+        try {
+            for (Executor executor : executors) {
+                Aggregate<Cart> aggregate = changedCart();
+                RecordingRepository repository = repository(executor);
+                IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+                        () -> repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), LINES, failingNotes),
+                        "Thrown as is, not wrapped");
+                Assertions.assertTrue(e.getMessage().startsWith("Cannot convert note"));
+                Assertions.assertTrue(repository.getStatements().isEmpty(), "Nothing written when a collection fails");
+            }
+        } finally {
+            if (virtualThreads != null) {
+                virtualThreads.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void compareDomainTest() {
+        Set<Long> converted = new HashSet<>();
+        ChildMapping<Cart, Line, LinePO> lines = ChildMapping.of(Cart::getLines, (cart, line) -> {
+            converted.add(line.id);
+            return new LinePO(line.id, cart.id, line.sku, line.quantity);
+        });
+        Assertions.assertFalse(lines.isCompareDomain());
+        Assertions.assertTrue(lines.compareDomain().isCompareDomain());
+        Assertions.assertTrue(lines.compareDomain().withChildren().isNew(line -> false).isCompareDomain(), "Kept by copies");
+
+        for (boolean compareDomain : new boolean[]{false, true}) {
+            converted.clear();
+            Aggregate<Cart> aggregate = changedCart();
+            // An unchanged line, copied by the snapshot
+            aggregate.getRoot().lines.add(new Line(13L, "d", 1));
+            aggregate.getSnapshot().lines.add(new Line(13L, "d", 1));
+            RecordingRepository repository = new RecordingRepository();
+            repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), compareDomain ? lines.compareDomain() : lines);
+
+            Assertions.assertEquals(Arrays.asList("INSERT LinePO [1001]", "UPDATE LinePO 11 [quantity]", "DELETE LinePO [12]"),
+                    repository.getStatements());
+            Assertions.assertEquals(!compareDomain, converted.contains(13L), "Unchanged line converted unless opted in");
+            Assertions.assertTrue(converted.contains(11L));
+        }
+    }
+
+    @Test
+    public void writeTreeOrderTest() {
+        Aggregate<Cart> aggregate = changedCart();
+        List<Line> lines = aggregate.getRoot().lines;
+        lines.get(0).options.get(0).name = "large";
+        lines.get(0).options.add(new Option(null, "gift box"));
+        lines.get(1).options.add(new Option(null, "red"));
+        RecordingRepository repository = new RecordingRepository();
+        ChangeSet changes = repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), LINES.withChildren(OPTIONS));
+
+        // Parents inserted before and deleted after their children, one statement per operation and level
+        Assertions.assertEquals(Arrays.asList(
+                "INSERT LinePO [1001]", "UPDATE LinePO 11 [quantity]",
+                "INSERT OptionPO [1002, 1003]", "UPDATE OptionPO 111 [name]", "DELETE OptionPO [121]",
+                "DELETE LinePO [12]"), repository.getStatements());
+        List<OptionPO> insertedOptions = changes.getInserted(OptionPO.class);
+        Assertions.assertEquals(Long.valueOf(11L), insertedOptions.get(0).lineId);
+        Assertions.assertEquals(Long.valueOf(1001L), insertedOptions.get(1).lineId, "Generated parent ID propagated");
+    }
+
+    @Test
+    public void saveAllOrderTest() {
+        List<Aggregate<Cart>> aggregates = Arrays.asList(changedCart(), changedCart());
+        aggregates.get(1).getRoot().lines.get(0).options.add(new Option(null, "blue"));
+        RecordingRepository repository = new RecordingRepository();
+        BatchSaveResult<Cart> result = repository.saveAll(aggregates, cart -> new CartPO(cart.id, cart.version),
+                LINES.withChildren(OPTIONS), NOTES);
+
+        Assertions.assertEquals(2, result.getSaved().size());
+        // Both aggregates merged into each statement, level by level, mapping after mapping
+        Assertions.assertEquals(Arrays.asList(
+                "INSERT LinePO [1001, 1002]", "UPDATE LinePO 11 [quantity]", "UPDATE LinePO 11 [quantity]",
+                "INSERT OptionPO [1003]", "DELETE OptionPO [121, 121]",
+                "DELETE LinePO [12, 12]",
+                "INSERT NotePO [1004, 1005]", "UPDATE NotePO 21 [text]", "UPDATE NotePO 21 [text]"), repository.getStatements());
+    }
+
+    @Test
+    public void saveAllInsertTest() {
+        List<Aggregate<Cart>> aggregates = new ArrayList<>();
+        for (String sku : Arrays.asList("a", "b")) {
+            Cart cart = new Cart();
+            cart.version = Aggregate.NEW_VERSION;
+            cart.lines = new ArrayList<>(Collections.singletonList(new Line(null, sku, 1)));
+            cart.notes = new ArrayList<>();
+            aggregates.add(new Aggregate<>(cart, new MethodHandleDeepCopier()));
+        }
+        // The second root insert fails
+        RecordingRepository repository = new RecordingRepository() {
+            private int cartInserts;
+
+            @Override
+            protected <A extends ID> boolean insert(A entity) {
+                return !(entity instanceof CartPO && ++cartInserts == 2) && super.insert(entity);
+            }
+        };
+        BatchSaveResult<Cart> result = repository.saveAll(aggregates, cart -> new CartPO(cart.id, cart.version), LINES, NOTES);
+
+        Assertions.assertEquals(Collections.singletonList(aggregates.get(0)), result.getSaved());
+        Assertions.assertEquals(Collections.singletonList(aggregates.get(1)), result.getFailed());
+        Assertions.assertFalse(result.getChangeSet().isSuccessful());
+        Assertions.assertEquals(Arrays.asList("INSERT CartPO [1001]", "INSERT LinePO [1002]"), repository.getStatements(),
+                "Lines of the failed cart not written");
+        List<CartPO> inserted = result.getChangeSet().getInserted(CartPO.class);
+        Assertions.assertEquals(1, inserted.size());
+        Assertions.assertEquals(Long.valueOf(1001L), inserted.get(0).id);
+        Assertions.assertEquals(Long.valueOf(1001L), aggregates.get(0).getRoot().id, "Generated ID set back");
+    }
+
+    @Test
+    public void fingerprintMissingRowTest() {
+        Cart cart = new Cart();
+        cart.id = 1L;
+        cart.lines = new ArrayList<>(Arrays.asList(new Line(11L, "a", 1), new Line(12L, "b", 1)));
+        FingerprintSnapshot<Cart> snapshot = new FingerprintSnapshot<>(cart, null);
+        cart.lines.get(0).quantity = 3;
+        cart.lines.get(1).quantity = 4;
+        cart.lines.add(new Line(null, "c", 1));
+
+        // Line 11 was deleted by another transaction meanwhile
+        RecordingRepository repository = new RecordingRepository();
+        ChangeSet changes = repository.saveChangesList(cart.lines, snapshot.getChildren(Line.class),
+                ids -> Collections.singletonList(new Line(12L, "b", 1)),
+                line -> new LinePO(line.id, cart.id, line.sku, line.quantity));
+
+        Assertions.assertFalse(changes.isSuccessful(), "Missing row reported as a concurrent change");
+        Assertions.assertEquals(Arrays.asList("INSERT LinePO [1001]", "UPDATE LinePO 12 [quantity]"),
+                repository.getStatements(), "Loaded line 11 not inserted again");
+    }
+
+    private List<String> saveChildren(Executor executor) {
+        Aggregate<Cart> aggregate = changedCart();
+        RecordingRepository repository = repository(executor);
+        ChangeSet changes = repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), LINES, NOTES);
+        Assertions.assertTrue(changes.isSuccessful());
+        Assertions.assertEquals(Long.valueOf(1001L), aggregate.getRoot().lines.get(1).id, "Generated ID set back");
+        return repository.getStatements();
+    }
+
+    private static RecordingRepository repository(Executor executor) {
+        return new RecordingRepository() {
+            @Override
+            protected Executor diffExecutor() {
+                return executor;
+            }
+        };
+    }
+
+    /**
+     * Virtual thread per task executor, null before Java 21
+     */
+    private static ExecutorService virtualThreadExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loaded cart with a line updated, a line added, a line removed and a note updated and added
+     */
+    private static Aggregate<Cart> changedCart() {
+        Cart cart = new Cart();
+        cart.id = 1L;
+        cart.version = 1;
+        cart.lines = new ArrayList<>(Arrays.asList(new Line(11L, "a", 1), new Line(12L, "b", 1)));
+        cart.lines.get(0).options.add(new Option(111L, "small"));
+        cart.lines.get(1).options.add(new Option(121L, "green"));
+        cart.notes = new ArrayList<>(Collections.singletonList(new Note(21L, "gift")));
+        Aggregate<Cart> aggregate = new Aggregate<>(cart, new MethodHandleDeepCopier());
+        cart.lines.get(0).quantity = 3;
+        cart.lines.remove(1);
+        cart.lines.add(new Line(null, "c", 1));
+        cart.notes.get(0).text = "gift wrap";
+        cart.notes.add(new Note(null, "leave at door"));
+        return aggregate;
+    }
+
+    public static class Cart implements Versionable<Long> {
+        private Long id;
+        private Integer version;
+        private List<Line> lines;
+        private List<Note> notes;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+
+        public List<Line> getLines() {
+            return lines;
+        }
+
+        public List<Note> getNotes() {
+            return notes;
+        }
+    }
+
+    public static class Line implements ID<Long> {
+        private Long id;
+        private String sku;
+        private int quantity;
+        private List<Option> options = new ArrayList<>();
+
+        public Line() {
+        }
+
+        Line(Long id, String sku, int quantity) {
+            this.id = id;
+            this.sku = sku;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public List<Option> getOptions() {
+            return options;
+        }
+    }
+
+    public static class Option implements ID<Long> {
+        private Long id;
+        private String name;
+
+        public Option() {
+        }
+
+        Option(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class Note implements ID<Long> {
+        private Long id;
+        private String text;
+
+        public Note() {
+        }
+
+        Note(Long id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class LinePO implements ID<Long> {
+        private Long id;
+        private Long cartId;
+        private String sku;
+        private int quantity;
+
+        public LinePO() {
+        }
+
+        LinePO(Long id, Long cartId, String sku, int quantity) {
+            this.id = id;
+            this.cartId = cartId;
+            this.sku = sku;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class NotePO implements ID<Long> {
+        private Long id;
+        private Long cartId;
+        private String text;
+
+        public NotePO() {
+        }
+
+        NotePO(Long id, Long cartId, String text) {
+            this.id = id;
+            this.cartId = cartId;
+            this.text = text;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class OptionPO implements ID<Long> {
+        private Long id;
+        private Long lineId;
+        private String name;
+
+        public OptionPO() {
+        }
+
+        OptionPO(Long id, Long lineId, String name) {
+            this.id = id;
+            this.lineId = lineId;
+            this.name = name;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class CartPO implements ID<Long> {
+        private Long id;
+        private Integer version;
+
+        public CartPO() {
+        }
+
+        CartPO(Long id, Integer version) {
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.damon.aggregate.persistence;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class TestDirtyTracking {
+    private static final ChildMapping<Shipment, Pack, PackPO> PACKS = ChildMapping.<Shipment, Pack, PackPO>of(Shipment::getPacks,
+            (shipment, pack) -> new PackPO(pack.getId(), shipment.getId(), pack.label))
+            .withChildren(ChildMapping.<Pack, Parcel, ParcelPO>of(Pack::getParcels,
+                    (pack, parcel) -> new ParcelPO(parcel.getId(), pack.getId(), parcel.weight)));
+
+    @BeforeEach
+    public void initTableInfo() {
+        MapperBuilderAssistant assistant = new MapperBuilderAssistant(new MybatisConfiguration(), "test");
+        TableInfoHelper.initTableInfo(assistant, PackPO.class);
+        TableInfoHelper.initTableInfo(assistant, ParcelPO.class);
+        TableInfoHelper.initTableInfo(assistant, ShipmentPO.class);
+    }
+
+    @Test
+    public void markDirtyTest() {
+        Parcel parcel = new Parcel();
+        Assertions.assertTrue(parcel.dirtyProperties().isEmpty());
+        parcel.setWeight(0);
+        Assertions.assertTrue(parcel.dirtyProperties().isEmpty(), "Same value is not a change");
+        parcel.setWeight(5);
+        Assertions.assertEquals(Collections.singleton("weight"), parcel.dirtyProperties());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> parcel.dirtyProperties().add("other"));
+        parcel.clearDirtyProperties();
+        Assertions.assertTrue(parcel.dirtyProperties().isEmpty());
+    }
+
+    @Test
+    public void loadClearsAllLevelsTest() {
+        // Built through the tracked setters, as a factory would: dirty on every level
+        Shipment shipment = shipment();
+        Assertions.assertFalse(shipment.getPacks().get(0).getParcels().get(0).dirtyProperties().isEmpty());
+
+        new Aggregate<>(shipment, new MethodHandleDeepCopier());
+        Assertions.assertTrue(shipment.dirtyProperties().isEmpty());
+        for (Pack pack : shipment.getPacks()) {
+            Assertions.assertTrue(pack.dirtyProperties().isEmpty());
+            for (Parcel parcel : pack.getParcels()) {
+                Assertions.assertTrue(parcel.dirtyProperties().isEmpty(), "Grandchildren are clean after load");
+            }
+        }
+    }
+
+    @Test
+    public void cyclicTest() {
+        Shipment shipment = shipment();
+        Pack pack = shipment.getPacks().get(0);
+        pack.setLabel("changed");
+        pack.getParcels().get(0).setWeight(99);
+        // A collection pointing back up the tree
+        pack.backRefs.add(pack);
+        DirtyTracking.clearAll(shipment);
+        Assertions.assertTrue(pack.dirtyProperties().isEmpty());
+        Assertions.assertTrue(pack.getParcels().get(0).dirtyProperties().isEmpty());
+    }
+
+    @Test
+    public void saveLifecycleTest() {
+        Aggregate<Shipment> aggregate = new Aggregate<>(shipment(), new MethodHandleDeepCopier());
+        Shipment shipment = aggregate.getRoot();
+        Parcel parcel = shipment.getPacks().get(1).getParcels().get(0);
+        parcel.setWeight(42);
+        Assertions.assertEquals(Collections.singleton("weight"), parcel.dirtyProperties());
+        Assertions.assertTrue(shipment.getPacks().get(1).dirtyProperties().isEmpty(), "Only the changed entity is dirty");
+
+        RecordingRepository repository = new RecordingRepository();
+        ChangeSet changes = repository.saveChildren(shipment, aggregate.getSnapshot(), PACKS);
+        Assertions.assertTrue(changes.isSuccessful());
+        Assertions.assertEquals(Collections.singletonList("UPDATE ParcelPO 21 [weight]"), repository.getStatements());
+        Assertions.assertTrue(parcel.dirtyProperties().isEmpty(), "Cleared after a successful update");
+
+        // Clean entities are unchanged by contract: nothing is written again
+        repository.clear();
+        repository.saveChildren(shipment, aggregate.getSnapshot(), PACKS);
+        Assertions.assertTrue(repository.getStatements().isEmpty());
+    }
+
+    @Test
+    public void rejectedUpdateTest() {
+        Aggregate<Shipment> aggregate = new Aggregate<>(shipment(), new MethodHandleDeepCopier());
+        Parcel parcel = aggregate.getRoot().getPacks().get(0).getParcels().get(1);
+        parcel.setWeight(7);
+        RecordingRepository repository = new RecordingRepository();
+        repository.reject(12L);
+        ChangeSet changes = repository.saveChildren(aggregate.getRoot(), aggregate.getSnapshot(), PACKS);
+        Assertions.assertFalse(changes.isSuccessful());
+        Assertions.assertEquals(Collections.singleton("weight"), parcel.dirtyProperties(), "Kept for the next attempt");
+    }
+
+    @Test
+    public void matchingPropertiesTest() {
+        List<Parcel> converted = new ArrayList<>();
+        Function<Parcel, ParcelPO> converter = parcel -> {
+            converted.add(parcel);
+            return new ParcelPO(parcel.getId(), 10L, parcel.weight);
+        };
+        Parcel oldParcel = new Parcel();
+        oldParcel.setId(11L);
+        oldParcel.setWeight(1);
+
+        // Compared by default: the dirty name says nothing about the entity's columns
+        Parcel parcel = new Parcel();
+        parcel.setId(11L);
+        parcel.setWeight(5);
+        RecordingRepository repository = new RecordingRepository();
+        ChangeSet changes = repository.saveChanges(parcel, oldParcel, converter);
+        Assertions.assertEquals(Arrays.asList(parcel, oldParcel), converted);
+        Assertions.assertEquals(1, changes.getUpdated(ParcelPO.class).get(0).getChanges().get("weight").getOldValue());
+
+        // Declared to match: written without converting the old parcel
+        converted.clear();
+        repository.clear();
+        Parcel matching = new MatchingParcel();
+        matching.setId(11L);
+        matching.setWeight(5);
+        changes = repository.saveChanges(matching, oldParcel, converter);
+        Assertions.assertEquals(Collections.singletonList(matching), converted);
+        Assertions.assertEquals(Collections.singletonList("UPDATE ParcelPO 11 [weight]"), repository.getStatements());
+        Assertions.assertFalse(changes.getUpdated(ParcelPO.class).get(0).isOldValueKnown());
+    }
+
+    @Test
+    public void oldValueUnknownTest() {
+        // The same change saved one by one, in a batch and as a child: the same update, without old value
+        Shipment shipment = shipment();
+        Shipment matching = new MatchingShipment();
+        matching.setId(1L);
+        matching.setVersion(1);
+        matching.setStatus(1);
+        matching.packs = new ArrayList<>();
+        Aggregate<Shipment> aggregate = new Aggregate<>(matching, new MethodHandleDeepCopier());
+        matching.setStatus(2);
+        Function<Shipment, ShipmentPO> converter = root -> new ShipmentPO(root.getId(), root.getVersion(), root.status);
+
+        RecordingRepository repository = new RecordingRepository();
+        ChangeSet single = repository.saveChanges(matching, aggregate.getSnapshot(), converter);
+        matching.setStatus(3);
+        ChangeSet batch = repository.saveAll(Collections.singletonList(aggregate), converter).getChangeSet();
+        for (ChangeSet changes : Arrays.asList(single, batch)) {
+            ChangeSet.Update<ShipmentPO> update = changes.getUpdated(ShipmentPO.class).get(0);
+            Assertions.assertFalse(update.isOldValueKnown());
+            Assertions.assertNull(update.getOldEntity());
+            Assertions.assertEquals(Collections.singleton("status"), update.getChangedFields());
+            Assertions.assertNull(update.getChanges().get("status").getOldValue());
+        }
+
+        Parcel parcel = new MatchingParcel();
+        parcel.setId(11L);
+        parcel.setWeight(11);
+        shipment.getPacks().get(0).parcels.set(0, parcel);
+        Aggregate<Shipment> children = new Aggregate<>(shipment, new MethodHandleDeepCopier());
+        parcel.setWeight(5);
+        ChangeSet.Update<ParcelPO> update = repository.saveChildren(shipment, children.getSnapshot(), PACKS)
+                .getUpdated(ParcelPO.class).get(0);
+        Assertions.assertFalse(update.isOldValueKnown());
+    }
+
+    private static Shipment shipment() {
+        Shipment shipment = new Shipment();
+        shipment.setId(1L);
+        shipment.setVersion(1);
+        shipment.setStatus(1);
+        shipment.packs = new ArrayList<>(Arrays.asList(pack(10L, "a", 11L, 12L), pack(20L, "b", 21L)));
+        return shipment;
+    }
+
+    private static Pack pack(Long id, String label, Long... parcelIds) {
+        Pack pack = new Pack();
+        pack.setId(id);
+        pack.setLabel(label);
+        for (Long parcelId : parcelIds) {
+            Parcel parcel = new Parcel();
+            parcel.setId(parcelId);
+            parcel.setWeight(parcelId.intValue());
+            pack.parcels.add(parcel);
+        }
+        return pack;
+    }
+
+    public static class Shipment extends DirtyTrackingEntity<Long> implements Versionable<Long> {
+        private Long id;
+        private Integer version;
+        private Integer status;
+        private List<Pack> packs;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+
+        public void setStatus(Integer status) {
+            markDirty("status", this.status, status);
+            this.status = status;
+        }
+
+        public List<Pack> getPacks() {
+            return packs;
+        }
+    }
+
+    public static class Pack extends DirtyTrackingEntity<Long> {
+        private Long id;
+        private String label;
+        private List<Parcel> parcels = new ArrayList<>();
+        private List<Pack> backRefs = new ArrayList<>();
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public void setLabel(String label) {
+            markDirty("label", this.label, label);
+            this.label = label;
+        }
+
+        public List<Parcel> getParcels() {
+            return parcels;
+        }
+    }
+
+    public static class Parcel extends DirtyTrackingEntity<Long> {
+        private Long id;
+        private int weight;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public void setWeight(int weight) {
+            markDirty("weight", this.weight, weight);
+            this.weight = weight;
+        }
+    }
+
+    public static class MatchingParcel extends Parcel {
+
+        @Override
+        public boolean dirtyPropertiesMatchEntity() {
+            return true;
+        }
+    }
+
+    public static class MatchingShipment extends Shipment {
+
+        @Override
+        public boolean dirtyPropertiesMatchEntity() {
+            return true;
+        }
+    }
+
+    public static class ShipmentPO implements Versionable<Long> {
+        private Long id;
+        private Integer version;
+        private Integer status;
+
+        public ShipmentPO() {
+        }
+
+        ShipmentPO(Long id, Integer version, Integer status) {
+            this.id = id;
+            this.version = version;
+            this.status = status;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+    }
+
+    public static class PackPO implements ID<Long> {
+        private Long id;
+        private Long shipmentId;
+        private String label;
+
+        public PackPO() {
+        }
+
+        PackPO(Long id, Long shipmentId, String label) {
+            this.id = id;
+            this.shipmentId = shipmentId;
+            this.label = label;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class ParcelPO implements ID<Long> {
+        private Long id;
+        private Long packId;
+        private int weight;
+
+        public ParcelPO() {
+        }
+
+        ParcelPO(Long id, Long packId, int weight) {
+            this.id = id;
+            this.packId = packId;
+            this.weight = weight;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.damon.aggregate.persistence.cache;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.AggregateFactory;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.snapshot.FingerprintSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAggregateCache {
+    private final AggregateCache cache = new AggregateCache(16, Duration.ofMinutes(1));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void hitTest() {
+        Aggregate<Doc> loaded = cache.get(Doc.class, 1L, this::load);
+        Aggregate<Doc> first = cache.get(Doc.class, 1L, this::load);
+        Aggregate<Doc> second = cache.get(Doc.class, 1L, this::load);
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertNotSame(loaded.getRoot(), first.getRoot());
+        Assertions.assertNotSame(first.getRoot(), second.getRoot());
+        Assertions.assertNotSame(first.getRoot(), first.getSnapshot(), "Snapshot decoded separately");
+        Assertions.assertNotSame(first.getRoot().tags, first.getSnapshot().tags);
+        Assertions.assertEquals(first.getRoot().tags, first.getSnapshot().tags);
+
+        first.getRoot().tags.add("changed");
+        Assertions.assertEquals(Arrays.asList("a", "b"), first.getSnapshot().tags);
+        Assertions.assertEquals(Arrays.asList("a", "b"), cache.get(Doc.class, 1L, this::load).getRoot().tags,
+                "Changing a hit does not change the entry");
+    }
+
+    @Test
+    public void factoryTest() {
+        cache.get(Doc.class, 1L, this::load);
+        Aggregate<Doc> readOnly = cache.get(Doc.class, 1L, this::load, AggregateFactory::createReadOnlyAggregate);
+        Assertions.assertTrue(readOnly.isReadOnly());
+        Aggregate<Doc> fingerprint = cache.get(Doc.class, 1L, this::load, AggregateFactory::createFingerprintAggregate);
+        Assertions.assertTrue(fingerprint.getSnapshotStrategy() instanceof FingerprintSnapshot);
+        Assertions.assertFalse(fingerprint.isChanged());
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void versionProbeTest() {
+        AtomicInteger persistedVersion = new AtomicInteger(1);
+        cache.registerVersionProbe(Doc.class, id -> persistedVersion.get());
+        cache.get(Doc.class, 1L, this::load);
+        cache.get(Doc.class, 1L, this::load);
+        Assertions.assertEquals(1, loads.get());
+        persistedVersion.set(2);
+        cache.get(Doc.class, 1L, this::load);
+        Assertions.assertEquals(2, loads.get(), "Stale entry reloaded");
+    }
+
+    @Test
+    public void saveDuringLoadTest() {
+        Doc saved = doc(1L, 2, "saved");
+        cache.get(Doc.class, 1L, id -> {
+            // Another thread saves the aggregate while this load is in flight
+            cache.afterSave(AggregateFactory.createAggregate(saved));
+            return load(id);
+        });
+        Aggregate<Doc> hit = cache.get(Doc.class, 1L, this::load);
+        Assertions.assertEquals(1, loads.get(), "The saved state is cached");
+        Assertions.assertEquals(Integer.valueOf(2), hit.getRoot().getVersion());
+        Assertions.assertEquals("saved", hit.getRoot().tags.get(0));
+    }
+
+    @Test
+    public void invalidateDuringLoadTest() {
+        cache.get(Doc.class, 1L, id -> {
+            cache.invalidate(Doc.class, id);
+            return load(id);
+        });
+        Assertions.assertEquals(0, cache.size(), "Loaded state read before the invalidation is not cached");
+        cache.get(Doc.class, 2L, id -> {
+            cache.invalidate(Doc.class, 3L);
+            return load(id);
+        });
+        Assertions.assertEquals(1, cache.size(), "Other keys do not block the put");
+        cache.get(Doc.class, 4L, id -> {
+            cache.invalidateAll();
+            return load(id);
+        });
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void afterSaveInTransactionTest() {
+        cache.get(Doc.class, 1L, this::load);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.afterSave(AggregateFactory.createAggregate(doc(1L, 2, "saved")));
+            Assertions.assertEquals(0, cache.size(), "Dropped until commit");
+            // A load racing with the commit must not overwrite the committed state
+            cache.get(Doc.class, 1L, id -> {
+                TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+                return load(id);
+            });
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        Assertions.assertEquals(Integer.valueOf(2), cache.get(Doc.class, 1L, this::load).getRoot().getVersion());
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    private Aggregate<Doc> load(Object id) {
+        loads.incrementAndGet();
+        return AggregateFactory.createAggregate(doc((Long) id, 1, "a", "b"));
+    }
+
+    private static Doc doc(Long id, Integer version, String... tags) {
+        Doc doc = new Doc();
+        doc.id = id;
+        doc.version = version;
+        doc.tags = new ArrayList<>(Arrays.asList(tags));
+        return doc;
+    }
+
+    public static class Doc implements Versionable<Long> {
+        private Long id;
+        private Integer version;
+        private List<String> tags;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.damon.aggregate.persistence.comparator;
+
+import cn.hutool.core.util.ObjectUtil;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+public class TestEntityComparator {
+
+    @BeforeEach
+    public void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), "test"), SamplePO.class);
+    }
+
+    @Test
+    public void primitivesTest() {
+        EntityComparator comparator = EntityComparator.forClass(SamplePO.class);
+        SamplePO oldEntity = sample();
+        Assertions.assertTrue(comparator.findChangedFields(sample(), oldEntity, false).isEmpty());
+        Assertions.assertFalse(comparator.isChanged(sample(), oldEntity));
+
+        SamplePO newEntity = sample();
+        newEntity.count++;
+        newEntity.total--;
+        newEntity.flag = !newEntity.flag;
+        newEntity.shortValue++;
+        newEntity.byteValue--;
+        newEntity.charValue = 'z';
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("count", "total", "flag", "short_value", "byte_value", "char_value")),
+                comparator.findChangedFields(newEntity, oldEntity, true));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("count", "total", "flag", "shortValue", "byteValue", "charValue")),
+                comparator.findChangedFields(newEntity, oldEntity, false));
+        Assertions.assertTrue(comparator.isChanged(newEntity, oldEntity));
+        assertSameAsBaseline(newEntity, oldEntity);
+    }
+
+    @Test
+    public void nanAndNegativeZeroTest() {
+        EntityComparator comparator = EntityComparator.forClass(SamplePO.class);
+        SamplePO newEntity = sample();
+        SamplePO oldEntity = sample();
+        newEntity.ratio = Double.NaN;
+        oldEntity.ratio = Double.NaN;
+        newEntity.rate = Float.NaN;
+        oldEntity.rate = Float.NaN;
+        newEntity.boxedRatio = Double.NaN;
+        oldEntity.boxedRatio = Double.NaN;
+        Assertions.assertTrue(comparator.findChangedFields(newEntity, oldEntity, false).isEmpty(), "NaN equals NaN");
+        assertSameAsBaseline(newEntity, oldEntity);
+
+        newEntity.ratio = 0.0;
+        oldEntity.ratio = -0.0;
+        newEntity.rate = -0.0f;
+        oldEntity.rate = 0.0f;
+        newEntity.boxedRatio = 0.0;
+        oldEntity.boxedRatio = -0.0;
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("ratio", "rate", "boxedRatio")),
+                comparator.findChangedFields(newEntity, oldEntity, false), "0.0 differs from -0.0");
+        assertSameAsBaseline(newEntity, oldEntity);
+    }
+
+    @Test
+    public void bigDecimalScaleTest() {
+        EntityComparator comparator = EntityComparator.forClass(SamplePO.class);
+        SamplePO newEntity = sample();
+        SamplePO oldEntity = sample();
+        newEntity.amount = new BigDecimal("1.0");
+        oldEntity.amount = new BigDecimal("1.00");
+        Assertions.assertFalse(comparator.isChanged(newEntity, oldEntity), "Compared by value, not scale");
+        assertSameAsBaseline(newEntity, oldEntity);
+
+        newEntity.amount = new BigDecimal("1.01");
+        Assertions.assertEquals(Collections.singleton("amount"), comparator.findChangedFields(newEntity, oldEntity, false));
+        assertSameAsBaseline(newEntity, oldEntity);
+
+        newEntity.amount = null;
+        Assertions.assertTrue(comparator.isChanged(newEntity, oldEntity));
+        assertSameAsBaseline(newEntity, oldEntity);
+    }
+
+    @Test
+    public void randomBaselineTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            assertSameAsBaseline(random(random), random(random));
+        }
+    }
+
+    @Test
+    public void accessorsTest() {
+        EntityComparator comparator = EntityComparator.forClass(SamplePO.class);
+        Assertions.assertEquals("short_value", comparator.getColumn("shortValue"));
+        Assertions.assertNull(comparator.getColumn("unknown"));
+        Assertions.assertEquals(3, comparator.getValue(sample(), "count"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> comparator.getValue(sample(), "unknown"));
+        Assertions.assertTrue(comparator.isMapped(new HashSet<>(Arrays.asList("count", "name"))));
+        Assertions.assertFalse(comparator.isMapped(Collections.singleton("unknown")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EntityComparator.forClass(String.class));
+    }
+
+    /**
+     * The changed fields must be exactly those the former MetaObject + ObjectUtil comparison reported
+     */
+    private static void assertSameAsBaseline(SamplePO newEntity, SamplePO oldEntity) {
+        Set<String> expected = new HashSet<>();
+        MetaObject newMeta = SystemMetaObject.forObject(newEntity);
+        MetaObject oldMeta = SystemMetaObject.forObject(oldEntity);
+        for (TableFieldInfo fieldInfo : TableInfoHelper.getTableInfo(SamplePO.class).getFieldList()) {
+            if (ObjectUtil.notEqual(newMeta.getValue(fieldInfo.getProperty()), oldMeta.getValue(fieldInfo.getProperty()))) {
+                expected.add(fieldInfo.getProperty());
+            }
+        }
+        Assertions.assertEquals(expected, EntityComparator.forClass(SamplePO.class).findChangedFields(newEntity, oldEntity, false));
+    }
+
+    private static SamplePO sample() {
+        SamplePO entity = new SamplePO();
+        entity.id = 1L;
+        entity.count = 3;
+        entity.total = 4L;
+        entity.flag = true;
+        entity.ratio = 0.5;
+        entity.rate = 0.25f;
+        entity.shortValue = 5;
+        entity.byteValue = 6;
+        entity.charValue = 'a';
+        entity.amount = new BigDecimal("9.90");
+        entity.name = "name";
+        entity.boxedCount = 7;
+        entity.boxedRatio = 1.5;
+        return entity;
+    }
+
+    private static SamplePO random(Random random) {
+        double[] doubles = {0.0, -0.0, Double.NaN, 1.0};
+        String[] amounts = {"1", "1.0", "1.00", "2", null};
+        SamplePO entity = new SamplePO();
+        entity.count = random.nextInt(2);
+        entity.total = random.nextInt(2);
+        entity.flag = random.nextBoolean();
+        entity.ratio = doubles[random.nextInt(doubles.length)];
+        entity.rate = (float) doubles[random.nextInt(doubles.length)];
+        entity.shortValue = (short) random.nextInt(2);
+        entity.byteValue = (byte) random.nextInt(2);
+        entity.charValue = random.nextBoolean() ? 'a' : 'b';
+        String amount = amounts[random.nextInt(amounts.length)];
+        entity.amount = amount == null ? null : new BigDecimal(amount);
+        entity.name = random.nextBoolean() ? null : "n" + random.nextInt(2);
+        entity.boxedCount = random.nextBoolean() ? null : random.nextInt(2);
+        entity.boxedRatio = random.nextBoolean() ? null : doubles[random.nextInt(doubles.length)];
+        return entity;
+    }
+
+    public static class SamplePO {
+        private Long id;
+        private int count;
+        private long total;
+        private boolean flag;
+        private double ratio;
+        private float rate;
+        private short shortValue;
+        private byte byteValue;
+        private char charValue;
+        private BigDecimal amount;
+        private String name;
+        private Integer boxedCount;
+        private Double boxedRatio;
+    }
+}
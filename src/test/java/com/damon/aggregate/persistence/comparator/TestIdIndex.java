@@ -0,0 +1,122 @@
+package com.damon.aggregate.persistence.comparator;
+
+import com.damon.aggregate.persistence.ID;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class TestIdIndex {
+
+    @Test
+    public void collisionTest() {
+        // Multiples of a large power of two land on few slots of a small table
+        List<Entry> entries = new ArrayList<>();
+        for (long i = 0; i < 200; i++) {
+            entries.add(new Entry(i << 40));
+            entries.add(new Entry(-(i + 1) << 40));
+        }
+        entries.add(new Entry(Long.MIN_VALUE));
+        entries.add(new Entry(Long.MAX_VALUE));
+        IdIndex<Entry> index = IdIndex.ofUnique(entries);
+        for (Entry entry : entries) {
+            Assertions.assertSame(entry, index.get(entry.getId()));
+        }
+        Assertions.assertNull(index.get(1L));
+        Assertions.assertNull(index.get(3L << 40 | 1));
+        Assertions.assertFalse(index.contains(0L << 40 | 7));
+    }
+
+    @Test
+    public void resizeTest() {
+        // A collection reporting fewer entities than it holds, as concurrent collections may
+        List<Entry> entries = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            entries.add(new Entry(id));
+        }
+        Collection<Entry> underReported = new AbstractCollection<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        IdIndex<Entry> index = IdIndex.of(underReported);
+        for (Entry entry : entries) {
+            Assertions.assertSame(entry, index.get(entry.getId()));
+        }
+        Assertions.assertNull(index.get(1001L));
+        Assertions.assertSame(entries.get(0), IdIndex.ofUnique(underReported).get(1L));
+    }
+
+    @Test
+    public void nullKeyTest() {
+        Entry first = new Entry(null);
+        Entry second = new Entry(null);
+        Entry kept = new Entry(5L);
+        IdIndex<Entry> index = IdIndex.ofUnique(Arrays.asList(first, kept, second));
+        Assertions.assertSame(first, index.get(null), "First entity without ID under the null key");
+        Assertions.assertTrue(index.contains(null));
+        Assertions.assertSame(kept, index.get(5L));
+        Assertions.assertFalse(IdIndex.of(Collections.singletonList(kept)).contains(null));
+        Assertions.assertFalse(index.add(new Entry(null)), "Null key already taken");
+    }
+
+    @Test
+    public void duplicateTest() {
+        Entry first = new Entry(7L);
+        Entry duplicate = new Entry(7L);
+        Assertions.assertSame(first, IdIndex.of(Arrays.asList(first, duplicate)).get(7L), "First wins");
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+                () -> IdIndex.ofUnique(Arrays.asList(first, new Entry(8L), duplicate)));
+        Assertions.assertEquals("Duplicate ID 7 of Entry", e.getMessage());
+
+        // Same for the hash table of other ID types
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> IdIndex.ofUnique(Arrays.asList(new Entry("a"), new Entry("a"))));
+        IdIndex<Entry> mixed = IdIndex.ofUnique(Arrays.asList(new Entry(1L), new Entry(1), new Entry("1")));
+        Assertions.assertEquals(1L, mixed.get(1L).getId(), "IDs of different types are different");
+        Assertions.assertEquals(1, mixed.get(1).getId());
+        Assertions.assertNull(IdIndex.of(Collections.singletonList(new Entry(1L))).get(1), "No match across ID types");
+    }
+
+    @Test
+    public void planChangesDuplicateTest() {
+        List<Entry> oldEntries = Arrays.asList(new Entry(1L), new Entry(1L));
+        Assertions.assertThrows(IllegalStateException.class, () -> ObjectComparator.planChanges(
+                Collections.singletonList(new Entry(1L)), oldEntries, entry -> entry, null));
+        Assertions.assertThrows(IllegalStateException.class, () -> ObjectComparator.planChanges(
+                Arrays.asList(new Entry(2L), new Entry(2L)), Collections.<Entry>emptyList(), entry -> entry, null));
+        Assertions.assertThrows(IllegalStateException.class, () -> ObjectComparator.findChangedEntities(
+                Collections.singletonList(new Entry(1L)), oldEntries));
+        Assertions.assertThrows(IllegalStateException.class, () -> ObjectComparator.findChangedEntities(
+                Arrays.asList(new Entry(3L), new Entry(3L)), Collections.<Entry>emptyList()));
+
+        // Several new entities without ID are fine
+        ChangePlan<Entry, Entry> plan = ObjectComparator.planChanges(Arrays.asList(new Entry(null), new Entry(null)),
+                Collections.<Entry>emptyList(), entry -> entry, null);
+        Assertions.assertEquals(2, plan.getInsertItems().size());
+    }
+
+    static class Entry implements ID<Object> {
+        private Object id;
+
+        Entry(Object id) {
+            this.id = id;
+        }
+
+        @Override
+        public Object getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Object id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.damon.aggregate.persistence.comparator;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.damon.aggregate.persistence.DirtyTrackingEntity;
+import com.damon.aggregate.persistence.ID;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class TestObjectComparator {
+
+    @BeforeEach
+    public void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), "test"), ItemPO.class);
+    }
+
+    @Test
+    public void planChangesTest() {
+        List<Item> oldItems = Arrays.asList(new Item(1L, "a", "1.0"), new Item(2L, "b", "2.0"),
+                new Item(3L, "c", "3.0"), new Item(4L, "d", "4.0"));
+        List<Item> newItems = Arrays.asList(oldItems.get(0), new Item(2L, "changed", "2.0"), new Item(4L, "d", "4.00"),
+                new Item(null, "new", "5.0"), new Item(5L, "new", "6.0"));
+        Map<Item, Integer> conversions = new IdentityHashMap<>();
+
+        ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, counting(conversions), null);
+
+        Assertions.assertEquals(Arrays.asList(newItems.get(3), newItems.get(4)), plan.getInsertItems());
+        Assertions.assertEquals(Arrays.asList(null, 5L), ids(plan.getInsertEntities()));
+        Assertions.assertEquals(Collections.singletonList(newItems.get(1)), plan.getUpdateItems());
+        ChangedEntity<ItemPO> update = plan.getUpdates().get(0);
+        Assertions.assertEquals(2L, update.getNewEntity().getId().longValue());
+        Assertions.assertEquals("b", update.getOldEntity().name);
+        Assertions.assertEquals(Collections.singleton("name"), update.getChangedFields());
+        Assertions.assertEquals(Collections.singletonList(3L), ids(plan.getDeletes()));
+
+        // Each item is converted at most once, the shared instance not at all
+        for (Integer count : conversions.values()) {
+            Assertions.assertEquals(1, count.intValue());
+        }
+        Assertions.assertFalse(conversions.containsKey(oldItems.get(0)));
+    }
+
+    @Test
+    public void isNewTest() {
+        List<Item> oldItems = Collections.singletonList(new Item(1L, "a", "1"));
+        List<Item> newItems = Arrays.asList(new Item(1L, "a", "1"), new Item(7L, "b", "1"));
+        ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, item -> item.getId() == 7L);
+        Assertions.assertEquals(Collections.singletonList(newItems.get(1)), plan.getInsertItems());
+        Assertions.assertTrue(plan.getUpdates().isEmpty());
+        Assertions.assertTrue(plan.getDeletes().isEmpty());
+
+        // An item the predicate declares existing without counterpart is neither inserted nor updated
+        plan = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, item -> false);
+        Assertions.assertTrue(plan.isEmpty());
+    }
+
+    @Test
+    public void compareDomainTest() {
+        List<Item> oldItems = Arrays.asList(new Item(1L, "a", "1.0"), new Item(2L, "b", "2.0"));
+        List<Item> newItems = Arrays.asList(new Item(1L, "a", "1.0"), new Item(2L, "changed", "2.0"));
+
+        Map<Item, Integer> conversions = new IdentityHashMap<>();
+        ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, counting(conversions), null);
+        Assertions.assertEquals(Collections.singletonList(newItems.get(1)), plan.getUpdateItems());
+        Assertions.assertTrue(conversions.containsKey(newItems.get(0)), "Off by default: equal copies are converted");
+
+        conversions.clear();
+        plan = ObjectComparator.planChanges(newItems, oldItems, counting(conversions), null, true, Integer.MAX_VALUE);
+        Assertions.assertEquals(Collections.singletonList(newItems.get(1)), plan.getUpdateItems());
+        Assertions.assertFalse(conversions.containsKey(newItems.get(0)), "Equal domain objects are not converted");
+        Assertions.assertFalse(conversions.containsKey(oldItems.get(0)));
+    }
+
+    @Test
+    public void dirtyTrackingTest() {
+        TrackedItem oldItem = new TrackedItem(1L, "a");
+        TrackedItem unchanged = new TrackedItem(1L, "b");
+        // Not dirty: unchanged by contract even though the name differs
+        Assertions.assertTrue(ObjectComparator.planChanges(Collections.singletonList(unchanged),
+                Collections.singletonList(oldItem), TrackedItem::convert, null).isEmpty());
+
+        TrackedItem dirty = new TrackedItem(1L, "a");
+        dirty.setName("c");
+        ChangePlan<TrackedItem, ItemPO> plan = ObjectComparator.planChanges(Collections.singletonList(dirty),
+                Collections.singletonList(oldItem), TrackedItem::convert, null);
+        Assertions.assertEquals(Collections.singleton("name"), plan.getUpdates().get(0).getChangedFields());
+
+        // Set and set back: dirty, but the converted entities are compared by default
+        TrackedItem reverted = new TrackedItem(1L, "a");
+        reverted.setName("c");
+        reverted.setName("a");
+        Assertions.assertTrue(ObjectComparator.planChanges(Collections.singletonList(reverted),
+                Collections.singletonList(oldItem), TrackedItem::convert, null).isEmpty());
+        // Dirty properties declared to match the entity are written as they are
+        MatchingItem matching = new MatchingItem(1L, "a");
+        matching.setName("c");
+        matching.setName("a");
+        plan = ObjectComparator.planChanges(Collections.singletonList(matching),
+                Collections.singletonList(oldItem), TrackedItem::convert, null);
+        Assertions.assertEquals(Collections.singleton("name"), plan.getUpdates().get(0).getChangedFields());
+        Assertions.assertNull(plan.getUpdates().get(0).getOldEntity(), "Old item not converted");
+    }
+
+    @Test
+    public void randomBaselineTest() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<Item> oldItems = randomItems(random, false);
+            List<Item> newItems = randomItems(random, true);
+            ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, null);
+
+            // Former multi-pass computation on the converted collections
+            List<ItemPO> newEntities = newItems.stream().map(ItemPO::of).collect(Collectors.toList());
+            List<ItemPO> oldEntities = oldItems.stream().map(ItemPO::of).collect(Collectors.toList());
+            Assertions.assertEquals(ids(ObjectComparator.findNewEntities(newEntities, oldEntities)), ids(plan.getInsertEntities()));
+            Assertions.assertEquals(ids(ObjectComparator.findRemovedEntities(newEntities, oldEntities)), ids(plan.getDeletes()));
+            Collection<ItemPO> newAddEntities = ObjectComparator.findNewEntities(newEntities, oldEntities);
+            List<ItemPO> potentialUpdates = new ArrayList<>(newEntities);
+            potentialUpdates.removeAll(newAddEntities);
+            Set<Long> expectedUpdates = new HashSet<>();
+            for (ChangedEntity<ItemPO> changed : ObjectComparator.findChangedEntities(potentialUpdates, oldEntities)) {
+                if (!ObjectComparator.findChangedFields(changed.getNewEntity(), changed.getOldEntity()).isEmpty()) {
+                    expectedUpdates.add(changed.getNewEntity().getId());
+                }
+            }
+            Assertions.assertEquals(expectedUpdates, new HashSet<>(ids(plan.getUpdates().stream()
+                    .map(ChangedEntity::getNewEntity).collect(Collectors.toList()))));
+        }
+    }
+
+    @Test
+    public void pairItemsTest() {
+        Item shared = new Item(1L, "a", "1.0");
+        Item kept = new Item(2L, "b", "1.0");
+        Item removed = new Item(3L, "c", "1.0");
+        Item changed = new Item(2L, "b", "1.0");
+        Item added = new Item(null, "d", "1.0");
+        List<Item> oldItems = Arrays.asList(shared, kept, removed);
+        List<Item> newItems = Arrays.asList(added, changed, shared);
+        for (int threshold : new int[]{Integer.MAX_VALUE, 1}) {
+            ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, null, false, threshold, true);
+            // Shared item left out, the unchanged copy is still paired for its nested collections
+            Assertions.assertEquals(Arrays.asList(added, changed, null), plan.getPairedItems());
+            Assertions.assertEquals(Arrays.asList(null, kept, removed), plan.getPairedSnapshots());
+            Assertions.assertTrue(plan.getUpdates().isEmpty());
+        }
+        ChangePlan<Item, ItemPO> plan = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, null);
+        Assertions.assertTrue(plan.getPairedItems().isEmpty(), "Not recorded unless asked for");
+        Assertions.assertEquals(2, plan.merge(ObjectComparator.planChanges(Collections.singletonList(added),
+                Collections.<Item>emptyList(), ItemPO::of, null, false, Integer.MAX_VALUE, true)).getInsertItems().size());
+        Assertions.assertEquals(Collections.singletonList(added), plan.getPairedItems(), "Merged");
+    }
+
+    @Test
+    public void parallelParityTest() {
+        Random random = new Random(11);
+        for (int round = 0; round < 20; round++) {
+            List<Item> oldItems = new ArrayList<>();
+            List<Item> newItems = new ArrayList<>();
+            for (long id = 1; id <= 500; id++) {
+                Item oldItem = new Item(id, "n" + random.nextInt(3), "1.0");
+                oldItems.add(oldItem);
+                int action = random.nextInt(4);
+                if (action == 0) {
+                    newItems.add(oldItem);
+                } else if (action == 1) {
+                    newItems.add(new Item(id, "n" + random.nextInt(3), random.nextBoolean() ? "1.0" : "2.0"));
+                } else if (action == 2) {
+                    newItems.add(new Item(random.nextBoolean() ? null : id + 1000, "new", "1.0"));
+                }
+            }
+            Collections.shuffle(newItems, random);
+
+            ChangePlan<Item, ItemPO> sequential = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, null, false, Integer.MAX_VALUE);
+            ChangePlan<Item, ItemPO> parallel = ObjectComparator.planChanges(newItems, oldItems, ItemPO::of, null, false, 1);
+            Assertions.assertEquals(sequential.getInsertItems(), parallel.getInsertItems());
+            Assertions.assertEquals(ids(sequential.getInsertEntities()), ids(parallel.getInsertEntities()));
+            Assertions.assertEquals(sequential.getUpdateItems(), parallel.getUpdateItems());
+            Assertions.assertEquals(sequential.getUpdates().stream().map(ChangedEntity::getChangedFields).collect(Collectors.toList()),
+                    parallel.getUpdates().stream().map(ChangedEntity::getChangedFields).collect(Collectors.toList()));
+            Assertions.assertEquals(ids(sequential.getDeletes()), ids(parallel.getDeletes()));
+
+            List<ItemPO> newEntities = newItems.stream().filter(item -> item.getId() != null).map(ItemPO::of).collect(Collectors.toList());
+            List<ItemPO> oldEntities = oldItems.stream().map(ItemPO::of).collect(Collectors.toList());
+            Assertions.assertEquals(
+                    ids(ObjectComparator.findChangedEntities(newEntities, oldEntities, Integer.MAX_VALUE).stream()
+                            .map(ChangedEntity::getNewEntity).collect(Collectors.toList())),
+                    ids(ObjectComparator.findChangedEntities(newEntities, oldEntities, 1).stream()
+                            .map(ChangedEntity::getNewEntity).collect(Collectors.toList())));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ObjectComparator.planChanges(Collections.<Item>emptyList(), Collections.<Item>emptyList(), ItemPO::of, null, false, 0));
+    }
+
+    private static List<Item> randomItems(Random random, boolean withNewItems) {
+        // Distinct IDs, new items may have none
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 12; id++) {
+            ids.add(id);
+        }
+        Collections.shuffle(ids, random);
+        List<Item> items = new ArrayList<>();
+        int size = random.nextInt(10);
+        for (int i = 0; i < size; i++) {
+            Long id = withNewItems && random.nextInt(5) == 0 ? null : ids.get(i);
+            items.add(new Item(id, "n" + random.nextInt(2), random.nextBoolean() ? "1.0" : "1.00"));
+        }
+        return items;
+    }
+
+    private static Function<Item, ItemPO> counting(Map<Item, Integer> conversions) {
+        return item -> {
+            conversions.merge(item, 1, Integer::sum);
+            return ItemPO.of(item);
+        };
+    }
+
+    private static List<Long> ids(Collection<ItemPO> entities) {
+        return entities.stream().map(ItemPO::getId).collect(Collectors.toList());
+    }
+
+    static class Item implements ID<Long> {
+        private Long id;
+        private String name;
+        private BigDecimal amount;
+
+        Item() {
+        }
+
+        Item(Long id, String name, String amount) {
+            this.id = id;
+            this.name = name;
+            this.amount = new BigDecimal(amount);
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    static class MatchingItem extends TrackedItem {
+
+        MatchingItem(Long id, String name) {
+            super(id, name);
+        }
+
+        @Override
+        public boolean dirtyPropertiesMatchEntity() {
+            return true;
+        }
+    }
+
+    static class TrackedItem extends DirtyTrackingEntity<Long> {
+        private Long id;
+        private String name;
+
+        TrackedItem() {
+        }
+
+        TrackedItem(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        void setName(String name) {
+            markDirty("name", this.name, name);
+            this.name = name;
+        }
+
+        ItemPO convert() {
+            ItemPO entity = new ItemPO();
+            entity.id = id;
+            entity.name = name;
+            return entity;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class ItemPO implements ID<Long> {
+        private Long id;
+        private String name;
+        private BigDecimal amount;
+
+        static ItemPO of(Item item) {
+            ItemPO entity = new ItemPO();
+            entity.id = item.id;
+            entity.name = item.name;
+            entity.amount = item.amount;
+            return entity;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
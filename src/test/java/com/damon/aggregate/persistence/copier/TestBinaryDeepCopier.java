@@ -0,0 +1,199 @@
+package com.damon.aggregate.persistence.copier;
+
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import com.damon.aggregate.persistence.exception.UnsupportedTypeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TestBinaryDeepCopier {
+    private final BinaryDeepCopier copier = new BinaryDeepCopier();
+
+    @Test
+    public void collectionTypesTest() {
+        assertRoundTrip(new ArrayList<>(Arrays.asList(1, 2, 3)));
+        assertRoundTrip(new LinkedList<>(Arrays.asList("a", "b")));
+        assertRoundTrip(new ArrayDeque<>(Arrays.asList(3L, 1L, 2L)));
+        assertRoundTrip(new HashSet<>(Arrays.asList("x", "y")));
+        assertRoundTrip(new LinkedHashSet<>(Arrays.asList("y", "x")));
+        assertRoundTrip(new TreeSet<>(Arrays.asList(5, 1, 3)));
+        assertRoundTrip(new ConcurrentSkipListSet<>(Arrays.asList(5, 1, 3)));
+        assertRoundTrip(new CopyOnWriteArrayList<>(Arrays.asList(1, 2)));
+        assertRoundTrip(EnumSet.of(Color.RED, Color.BLUE));
+        assertRoundTrip(EnumSet.noneOf(Color.class));
+    }
+
+    @Test
+    public void mapTypesTest() {
+        Map<String, Integer> values = new LinkedHashMap<>();
+        values.put("b", 2);
+        values.put("a", 1);
+        assertRoundTrip(new HashMap<>(values));
+        assertRoundTrip(new LinkedHashMap<>(values));
+        assertRoundTrip(new TreeMap<>(values));
+        assertRoundTrip(new ConcurrentHashMap<>(values));
+        EnumMap<Color, String> enumMap = new EnumMap<>(Color.class);
+        enumMap.put(Color.GREEN, "g");
+        assertRoundTrip(enumMap);
+    }
+
+    @Test
+    public void viewTypesTest() {
+        Object list = copier.copy(Collections.unmodifiableList(Arrays.asList(1, 2)));
+        Assertions.assertEquals(ArrayList.class, list.getClass());
+        Assertions.assertEquals(Arrays.asList(1, 2), list);
+        Object sorted = copier.copy(Collections.unmodifiableSortedSet(new TreeSet<>(Arrays.asList(2, 1))));
+        Assertions.assertEquals(TreeSet.class, sorted.getClass());
+        Object map = copier.copy(Collections.singletonMap("k", "v"));
+        Assertions.assertEquals(LinkedHashMap.class, map.getClass());
+    }
+
+    @Test
+    public void unsupportedTypesTest() {
+        TreeSet<String> reversed = new TreeSet<>(Comparator.reverseOrder());
+        reversed.addAll(Arrays.asList("a", "c", "b"));
+        Assertions.assertThrows(UnsupportedTypeException.class, () -> copier.serialize(reversed));
+        Assertions.assertThrows(UnsupportedTypeException.class, () -> copier.serialize(new EnumMap<>(Color.class)));
+        Assertions.assertThrows(UnsupportedTypeException.class, () -> copier.serialize(Collections.asLifoQueue(new ArrayDeque<>())));
+
+        // copy falls back to the MethodHandle copier, which keeps the comparator
+        TreeSet<String> copy = copier.copy(reversed);
+        Assertions.assertNotSame(reversed, copy);
+        Assertions.assertSame(reversed.comparator(), copy.comparator());
+        Assertions.assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(copy));
+
+        Holder holder = new Holder();
+        holder.sorted = reversed;
+        Holder holderCopy = copier.copy(holder);
+        Assertions.assertEquals(reversed, holderCopy.sorted);
+        Assertions.assertSame(reversed.comparator(), holderCopy.sorted.comparator());
+    }
+
+    @Test
+    public void beanTest() {
+        Holder holder = new Holder();
+        holder.id = 7L;
+        holder.count = -3;
+        holder.ratio = -0.0;
+        holder.amount = new BigDecimal("10.500");
+        holder.color = Color.GREEN;
+        holder.names = new String[]{"a", null, "c"};
+        holder.scores = new int[]{1, -2, 3};
+        holder.tags = new TreeSet<>(Arrays.asList("t2", "t1"));
+        holder.queue = new ArrayDeque<>(Arrays.asList(1, 2));
+        holder.colors = EnumSet.of(Color.BLUE);
+        holder.byColor = new EnumMap<>(Color.class);
+        holder.byColor.put(Color.RED, 1);
+        holder.cache = new ConcurrentHashMap<>();
+        holder.cache.put("k", new BigDecimal("1.0"));
+        holder.time = LocalDateTime.of(2024, 1, 2, 3, 4, 5);
+        holder.child = new Holder();
+        holder.child.nullable = null;
+        holder.child.amount = new BigDecimal("1E+3");
+
+        Holder copy = copier.copy(holder);
+        Assertions.assertNotSame(holder, copy);
+        Assertions.assertEquals(7L, copy.id.longValue());
+        Assertions.assertEquals(-3, copy.count);
+        Assertions.assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(copy.ratio));
+        Assertions.assertEquals(3, copy.amount.scale());
+        Assertions.assertEquals(new BigDecimal("10.500"), copy.amount);
+        Assertions.assertSame(Color.GREEN, copy.color);
+        Assertions.assertArrayEquals(holder.names, copy.names);
+        Assertions.assertArrayEquals(holder.scores, copy.scores);
+        Assertions.assertEquals(holder.tags, copy.tags);
+        Assertions.assertIterableEquals(holder.queue, copy.queue);
+        Assertions.assertEquals(holder.colors, copy.colors);
+        Assertions.assertEquals(holder.byColor, copy.byColor);
+        Assertions.assertEquals(ConcurrentHashMap.class, copy.cache.getClass());
+        Assertions.assertEquals(1, copy.cache.get("k").scale());
+        Assertions.assertEquals(holder.time, copy.time);
+        Assertions.assertEquals("set", copy.nullable);
+        Assertions.assertNull(copy.child.nullable);
+        Assertions.assertNull(copy.child.child);
+        Assertions.assertEquals(new BigDecimal("1E+3"), copy.child.amount);
+        Assertions.assertEquals(-3, copy.child.amount.scale());
+    }
+
+    @Test
+    public void cycleTest() {
+        Holder parent = new Holder();
+        Holder child = new Holder();
+        parent.child = child;
+        child.child = parent;
+        Assertions.assertThrows(UnsupportedTypeException.class, () -> copier.serialize(parent));
+        List<Object> selfContaining = new ArrayList<>();
+        selfContaining.add(selfContaining);
+        Assertions.assertThrows(UnsupportedTypeException.class, () -> copier.serialize(selfContaining));
+
+        // copy falls back to the MethodHandle copier, which fails cleanly as well
+        AggregatePersistenceException e = Assertions.assertThrows(AggregatePersistenceException.class, () -> copier.copy(parent));
+        Assertions.assertFalse(e instanceof UnsupportedTypeException);
+        Assertions.assertTrue(e.getMessage().contains("probably cyclic"));
+
+        // A deep but finite chain still round-trips
+        Holder head = new Holder();
+        Holder tail = head;
+        for (int i = 0; i < 200; i++) {
+            tail.child = new Holder();
+            tail = tail.child;
+        }
+        tail.id = 42L;
+        Holder copy = copier.copy(head);
+        while (copy.child != null) {
+            copy = copy.child;
+        }
+        Assertions.assertEquals(Long.valueOf(42L), copy.id);
+    }
+
+    @Test
+    public void nullAndScalarTest() {
+        Assertions.assertNull(copier.deserialize(copier.serialize(null), Object.class));
+        Assertions.assertEquals(new BigDecimal("0.00"), copier.copy(new BigDecimal("0.00")));
+        Assertions.assertEquals(Long.MIN_VALUE, (long) copier.copy(Long.MIN_VALUE));
+        Assertions.assertEquals("中文\u0000", copier.copy("中文\u0000"));
+        Assertions.assertTrue(Double.isNaN(copier.copy(Double.NaN)));
+        List<Object> withNulls = new ArrayList<>(Arrays.asList(null, 1, null));
+        Assertions.assertEquals(withNulls, copier.copy(withNulls));
+    }
+
+    private void assertRoundTrip(Object value) {
+        Object copy = copier.deserialize(copier.serialize(value), value.getClass());
+        Assertions.assertNotSame(value, copy);
+        Assertions.assertEquals(value.getClass(), copy.getClass());
+        if (value instanceof Queue && !(value instanceof List)) {
+            Assertions.assertIterableEquals((Iterable<?>) value, (Iterable<?>) copy);
+        } else {
+            Assertions.assertEquals(value, copy);
+        }
+    }
+
+    enum Color {
+        RED, GREEN, BLUE
+    }
+
+    static class Holder {
+        private Long id;
+        private int count;
+        private double ratio;
+        private BigDecimal amount;
+        private Color color;
+        private String[] names;
+        private int[] scores;
+        private TreeSet<String> tags;
+        private TreeSet<String> sorted;
+        private ArrayDeque<Integer> queue;
+        private EnumSet<Color> colors;
+        private EnumMap<Color, Integer> byColor;
+        private ConcurrentHashMap<String, BigDecimal> cache;
+        private LocalDateTime time;
+        private Object nullable = "set";
+        private Holder child;
+    }
+}
@@ -0,0 +1,145 @@
+package com.damon.aggregate.persistence.copier;
+
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TestMethodHandleDeepCopier {
+    private final MethodHandleDeepCopier copier = new MethodHandleDeepCopier();
+
+    @Test
+    public void collectionTypesTest() {
+        assertCopy(new ArrayList<>(Arrays.asList(1, 2, 3)));
+        assertCopy(new LinkedList<>(Arrays.asList("a", "b")));
+        assertCopy(new ArrayDeque<>(Arrays.asList(3L, 1L, 2L)));
+        assertCopy(new HashSet<>(Arrays.asList("x", "y")));
+        assertCopy(new LinkedHashSet<>(Arrays.asList("y", "x")));
+        assertCopy(new TreeSet<>(Arrays.asList(5, 1, 3)));
+        assertCopy(new CopyOnWriteArrayList<>(Arrays.asList(1, 2)));
+        assertCopy(EnumSet.of(Color.RED, Color.BLUE));
+        assertCopy(new HashMap<>(Collections.singletonMap("a", 1)));
+        assertCopy(new TreeMap<>(Collections.singletonMap("a", 1)));
+        assertCopy(new ConcurrentHashMap<>(Collections.singletonMap("a", 1)));
+        EnumMap<Color, String> enumMap = new EnumMap<>(Color.class);
+        enumMap.put(Color.GREEN, "g");
+        assertCopy(enumMap);
+        assertCopy(new EnumMap<>(Color.class));
+
+        Object list = copier.copy(Arrays.asList(1, 2));
+        Assertions.assertEquals(ArrayList.class, list.getClass());
+        Assertions.assertEquals(Arrays.asList(1, 2), list);
+    }
+
+    @Test
+    public void comparatorTest() {
+        ConcurrentSkipListSet<String> set = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
+        set.addAll(Arrays.asList("a", "c", "b"));
+        ConcurrentSkipListSet<String> setCopy = copier.copy(set);
+        Assertions.assertEquals(ConcurrentSkipListSet.class, setCopy.getClass());
+        Assertions.assertSame(set.comparator(), setCopy.comparator());
+        Assertions.assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(setCopy));
+
+        ConcurrentSkipListMap<String, Integer> map = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+        map.put("b", 2);
+        map.put("A", 1);
+        ConcurrentSkipListMap<String, Integer> mapCopy = copier.copy(map);
+        Assertions.assertSame(map.comparator(), mapCopy.comparator());
+        Assertions.assertEquals(1, mapCopy.get("a").intValue());
+
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.reverseOrder());
+        queue.addAll(Arrays.asList(1, 3, 2));
+        PriorityQueue<Integer> queueCopy = copier.copy(queue);
+        Assertions.assertSame(queue.comparator(), queueCopy.comparator());
+        Assertions.assertEquals(3, queueCopy.poll().intValue());
+    }
+
+    @Test
+    public void beanTest() {
+        Node node = new Node();
+        node.name = "root";
+        node.amount = new BigDecimal("1.50");
+        node.children = new ArrayList<>();
+        Node child = new Node();
+        child.name = "child";
+        child.scores = new int[]{1, 2};
+        node.children.add(child);
+        node.date = new Date(1000L);
+
+        Node copy = copier.copy(node);
+        Assertions.assertNotSame(node, copy);
+        Assertions.assertEquals("root", copy.name);
+        Assertions.assertSame(node.amount, copy.amount);
+        Assertions.assertNotSame(node.children, copy.children);
+        Assertions.assertNotSame(child, copy.children.get(0));
+        Assertions.assertNotSame(child.scores, copy.children.get(0).scores);
+        Assertions.assertArrayEquals(child.scores, copy.children.get(0).scores);
+        Assertions.assertNotSame(node.date, copy.date);
+        Assertions.assertEquals(node.date, copy.date);
+        Assertions.assertNull(copy.next);
+    }
+
+    @Test
+    public void cycleTest() {
+        Node node = new Node();
+        node.next = node;
+        Assertions.assertThrows(AggregatePersistenceException.class, () -> copier.copy(node));
+
+        List<Object> list = new ArrayList<>();
+        list.add(list);
+        Assertions.assertThrows(AggregatePersistenceException.class, () -> copier.copy(list));
+    }
+
+    @Test
+    public void depthTest() {
+        Node shallow = chain(100);
+        Node copy = copier.copy(shallow);
+        int length = 0;
+        for (Node current = copy; current != null; current = current.next) {
+            length++;
+        }
+        Assertions.assertEquals(100, length);
+
+        Assertions.assertThrows(AggregatePersistenceException.class, () -> copier.copy(chain(1000)));
+    }
+
+    private static Node chain(int length) {
+        Node head = null;
+        for (int i = 0; i < length; i++) {
+            Node node = new Node();
+            node.next = head;
+            head = node;
+        }
+        return head;
+    }
+
+    private void assertCopy(Object value) {
+        Object copy = copier.copy(value);
+        Assertions.assertNotSame(value, copy);
+        Assertions.assertEquals(value.getClass(), copy.getClass());
+        if (value instanceof Queue && !(value instanceof List)) {
+            Assertions.assertIterableEquals((Iterable<?>) value, (Iterable<?>) copy);
+        } else {
+            Assertions.assertEquals(value, copy);
+        }
+    }
+
+    enum Color {
+        RED, GREEN, BLUE
+    }
+
+    static class Node {
+        private String name;
+        private BigDecimal amount;
+        private int[] scores;
+        private Date date;
+        private List<Node> children;
+        private Node next;
+    }
+}
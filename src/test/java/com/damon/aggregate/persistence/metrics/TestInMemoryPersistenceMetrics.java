@@ -0,0 +1,94 @@
+package com.damon.aggregate.persistence.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class TestInMemoryPersistenceMetrics {
+
+    @Test
+    public void emptyHistogramTest() {
+        InMemoryPersistenceMetrics.Histogram histogram = new InMemoryPersistenceMetrics.Histogram();
+        Assertions.assertEquals(0L, histogram.getCount());
+        Assertions.assertEquals(0L, histogram.getMax());
+        Assertions.assertEquals(0d, histogram.getMean());
+        Assertions.assertEquals(0L, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void bucketBoundsTest() {
+        Assertions.assertEquals(0L, single(0L).getPercentile(100), "Zero is capped by the maximum");
+        Assertions.assertEquals(1L, single(1L).getPercentile(100));
+        Assertions.assertEquals(0L, single(-5L).getPercentile(100), "Negative values count as zero");
+        Assertions.assertEquals(0L, single(-5L).getSum());
+
+        InMemoryPersistenceMetrics.Histogram max = single(Long.MAX_VALUE);
+        Assertions.assertEquals(Long.MAX_VALUE, max.getPercentile(50), "Last bucket");
+        Assertions.assertEquals(Long.MAX_VALUE, max.getMax());
+        Assertions.assertEquals(Long.MAX_VALUE, max.getSum());
+
+        // Bucket i holds [2^i, 2^(i+1) - 1], the first one also holds 0
+        InMemoryPersistenceMetrics.Histogram histogram = new InMemoryPersistenceMetrics.Histogram();
+        for (long value : Arrays.asList(0L, 1L, 2L, 3L, 4L, 7L, 8L, 1000L)) {
+            histogram.record(value);
+        }
+        Assertions.assertEquals(1L, histogram.getPercentile(25));
+        Assertions.assertEquals(3L, histogram.getPercentile(50));
+        Assertions.assertEquals(7L, histogram.getPercentile(75));
+        Assertions.assertEquals(15L, histogram.getPercentile(87.5));
+        Assertions.assertEquals(1000L, histogram.getPercentile(100), "Bucket bound 1023 capped by the maximum");
+        Assertions.assertEquals(1L << 62, single(1L << 62).getPercentile(100));
+        Assertions.assertEquals((1L << 61) - 1, single((1L << 61) - 1).getPercentile(100));
+    }
+
+    @Test
+    public void percentileTest() {
+        InMemoryPersistenceMetrics.Histogram histogram = new InMemoryPersistenceMetrics.Histogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        Assertions.assertEquals(100L, histogram.getCount());
+        Assertions.assertEquals(5050L, histogram.getSum());
+        Assertions.assertEquals(50.5d, histogram.getMean());
+        Assertions.assertEquals(1L, histogram.getPercentile(0), "Lowest non-empty bucket");
+        Assertions.assertEquals(1L, histogram.getPercentile(1));
+        Assertions.assertEquals(63L, histogram.getPercentile(50), "50 lies in [32, 63]");
+        Assertions.assertEquals(100L, histogram.getPercentile(99), "99 lies in [64, 127], capped by the maximum");
+        Assertions.assertEquals(100L, histogram.getPercentile(100));
+
+        // Percentiles never go below the value at their rank nor above twice of it
+        for (double percentile = 1; percentile <= 100; percentile++) {
+            long exact = (long) Math.ceil(percentile);
+            long reported = histogram.getPercentile(percentile);
+            Assertions.assertTrue(reported >= exact && reported < 2 * exact, "p" + percentile + " = " + reported);
+        }
+
+        InMemoryPersistenceMetrics.Histogram sparse = new InMemoryPersistenceMetrics.Histogram();
+        sparse.record(1000L);
+        Assertions.assertEquals(1000L, sparse.getPercentile(0), "No empty lower bucket reported");
+    }
+
+    @Test
+    public void metricsTest() {
+        InMemoryPersistenceMetrics metrics = new InMemoryPersistenceMetrics();
+        metrics.sqlExecuted(String.class, PersistenceMetrics.Operation.UPDATE, 2_000L, 3);
+        metrics.sqlExecuted(String.class, PersistenceMetrics.Operation.UPDATE, 4_000L, 1);
+        metrics.optimisticLockFailed(String.class);
+        metrics.snapshotTaken(Integer.class, 10L, -1L);
+
+        Assertions.assertEquals(2L, metrics.getHistogram("sql.update.time", String.class).getCount());
+        Assertions.assertEquals(4L, metrics.getHistogram("sql.update.rows", String.class).getSum());
+        Assertions.assertNull(metrics.getHistogram("snapshot.bytes", Integer.class), "Unknown size not recorded");
+        Assertions.assertEquals(Arrays.asList("optimistic-lock.failures[String]", "snapshot.time[Integer]",
+                "sql.update.rows[String]", "sql.update.time[String]"), Arrays.asList(metrics.getHistograms().keySet().toArray()));
+        metrics.reset();
+        Assertions.assertTrue(metrics.getHistograms().isEmpty());
+    }
+
+    private static InMemoryPersistenceMetrics.Histogram single(long value) {
+        InMemoryPersistenceMetrics.Histogram histogram = new InMemoryPersistenceMetrics.Histogram();
+        histogram.record(value);
+        return histogram;
+    }
+}
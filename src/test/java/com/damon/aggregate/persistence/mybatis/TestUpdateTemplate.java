@@ -0,0 +1,183 @@
+package com.damon.aggregate.persistence.mybatis;
+
+import com.baomidou.mybatisplus.annotation.*;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.handlers.MetaObjectHandler;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.damon.aggregate.persistence.ID;
+import com.damon.aggregate.persistence.Versionable;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.reflection.MetaObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.*;
+
+public class TestUpdateTemplate {
+    private static final MybatisConfiguration CONFIGURATION = new MybatisConfiguration();
+    private static final Date FILL_TIME = new Date(1_700_000_000_000L);
+
+    static {
+        GlobalConfigUtils.getGlobalConfig(CONFIGURATION).setMetaObjectHandler(new MetaObjectHandler() {
+            @Override
+            public void insertFill(MetaObject metaObject) {
+            }
+
+            @Override
+            public void updateFill(MetaObject metaObject) {
+                metaObject.setValue("updatedAt", FILL_TIME);
+            }
+        });
+    }
+
+    private TableInfo tableInfo;
+
+    @BeforeEach
+    public void initTableInfo() {
+        tableInfo = TableInfoHelper.initTableInfo(new MapperBuilderAssistant(CONFIGURATION, "test"), SamplePO.class);
+    }
+
+    @Test
+    public void versionedSqlTest() {
+        UpdateTemplate template = template(true, "amount", "name");
+        Assertions.assertEquals("UPDATE sample SET name=?, amount=?, updated_at=?, version=version+1"
+                + " WHERE id=? AND version=? AND deleted=0", template.getSql(), "SET in field order, fill, version, key, logic delete");
+        Assertions.assertTrue(template.isVersioned());
+    }
+
+    @Test
+    public void unversionedSqlTest() {
+        UpdateTemplate template = template(false, "name", "version");
+        Assertions.assertEquals("UPDATE sample SET name=?, version=?, updated_at=? WHERE id=? AND deleted=0", template.getSql(),
+                "Without the optimistic lock the version is a plain column");
+        Assertions.assertFalse(template.isVersioned());
+    }
+
+    @Test
+    public void changedFillColumnTest() {
+        UpdateTemplate template = template(true, "updatedAt");
+        Assertions.assertEquals("UPDATE sample SET updated_at=?, version=version+1 WHERE id=? AND version=? AND deleted=0",
+                template.getSql(), "A changed fill column is set once, from the entity");
+    }
+
+    @Test
+    public void bindTest() throws Exception {
+        SamplePO entity = new SamplePO();
+        entity.setId(7L);
+        entity.name = "new";
+        entity.amount = new BigDecimal("1.50");
+        entity.version = 3;
+        Map<Integer, Object> parameters = new TreeMap<>();
+        template(true, "name", "amount").bind(recording(parameters), entity);
+
+        Map<Integer, Object> expected = new TreeMap<>();
+        expected.put(1, "new");
+        expected.put(2, new BigDecimal("1.50"));
+        expected.put(3, FILL_TIME);
+        expected.put(4, 7L);
+        expected.put(5, 3);
+        Assertions.assertEquals(expected, parameters);
+    }
+
+    @Test
+    public void isVersionedTest() {
+        SamplePO entity = new SamplePO();
+        Assertions.assertFalse(UpdateTemplate.isVersioned(tableInfo, entity), "A null version disables the optimistic lock");
+        entity.version = 0;
+        Assertions.assertTrue(UpdateTemplate.isVersioned(tableInfo, entity));
+    }
+
+    @Test
+    public void keyTest() {
+        Set<String> fields = new HashSet<>(Collections.singletonList("name"));
+        UpdateTemplate.Key key = new UpdateTemplate.Key(SamplePO.class, fields, true);
+        UpdateTemplate.Key copy = key.immutableCopy();
+        Assertions.assertEquals(key, copy);
+        Assertions.assertEquals(key.hashCode(), copy.hashCode());
+        Assertions.assertNotEquals(key, new UpdateTemplate.Key(SamplePO.class, fields, false));
+        fields.add("amount");
+        Assertions.assertNotEquals(key, copy, "The copy does not follow the mutable field set");
+    }
+
+    @Test
+    public void missingPropertyTest() {
+        // Table of SamplePO used with a class lacking some of its columns
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class, () -> new UpdateTemplate(tableInfo,
+                new UpdateTemplate.Key(NamePO.class, Collections.singleton("name"), false), CONFIGURATION));
+        Assertions.assertTrue(e.getMessage().startsWith("Property [updatedAt] of table sample"), e.getMessage());
+    }
+
+    private UpdateTemplate template(boolean versioned, String... changedFields) {
+        return new UpdateTemplate(tableInfo, new UpdateTemplate.Key(SamplePO.class, new HashSet<>(Arrays.asList(changedFields)), versioned),
+                CONFIGURATION);
+    }
+
+    /**
+     * Prepared statement recording the value bound to each parameter index
+     */
+    private static PreparedStatement recording(Map<Integer, Object> parameters) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        parameters.put((Integer) args[0], method.getName().equals("setNull") ? null : args[1]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @TableName("sample")
+    public static class SamplePO implements Versionable<Long> {
+        @TableId
+        private Long id;
+        private String name;
+        private BigDecimal amount;
+        @TableField(fill = FieldFill.UPDATE)
+        private Date updatedAt;
+        @Version
+        private Integer version;
+        @TableLogic
+        private Integer deleted;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+    }
+
+    public static class NamePO implements ID<Long> {
+        private Long id;
+        private String name;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.copier.MethodHandleDeepCopier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+public class TestCopyOnWriteSnapshot {
+
+    @Test
+    public void untouchedTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        Assertions.assertTrue(root.items instanceof TrackedList);
+        Assertions.assertTrue(CopyOnWriteSnapshot.isUntouched(root.items));
+        Assertions.assertFalse(snapshot.isChanged(root));
+        Assertions.assertSame(CopyOnWriteSnapshot.unwrap(root.items).iterator().next(), snapshot.get().items.get(0));
+    }
+
+    @Test
+    public void getTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        Item item = root.items.get(0);
+        // Handed out but unchanged, its value object has no equals
+        Assertions.assertFalse(CopyOnWriteSnapshot.isUntouched(root.items));
+        Assertions.assertFalse(snapshot.isChanged(root));
+
+        item.price.amount = 99L;
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Item loaded = snapshot.get().items.get(0);
+        Assertions.assertNotSame(item, loaded);
+        Assertions.assertEquals(10L, loaded.price.amount);
+    }
+
+    @Test
+    public void iteratorTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        for (Item item : root.items) {
+            Assertions.assertNotNull(item.name);
+        }
+        Assertions.assertFalse(snapshot.isChanged(root));
+
+        Iterator<Item> iterator = root.items.iterator();
+        iterator.next();
+        iterator.next().name = "changed";
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals("b", snapshot.get().items.get(1).name);
+
+        root = root();
+        snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        iterator = root.items.iterator();
+        iterator.next();
+        iterator.remove();
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(3, snapshot.get().items.size());
+    }
+
+    @Test
+    public void subListTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        root.items.subList(0, 1).get(0).name = "changed";
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals("a", snapshot.get().items.get(0).name);
+
+        root = root();
+        snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        root.items.subList(1, 3).clear();
+        Assertions.assertEquals(1, root.items.size());
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(3, snapshot.get().items.size());
+    }
+
+    @Test
+    public void sortTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        root.items.sort(Comparator.comparing(item -> item.name));
+        Assertions.assertFalse(snapshot.isChanged(root), "Already sorted");
+
+        root.items.sort(Comparator.comparing((Item item) -> item.name).reversed());
+        Assertions.assertEquals("c", root.items.get(0).name);
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals("a", snapshot.get().items.get(0).name);
+    }
+
+    @Test
+    public void removeIfTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        Assertions.assertFalse(root.items.removeIf(item -> item.name.equals("x")));
+        Assertions.assertFalse(snapshot.isChanged(root));
+
+        Assertions.assertTrue(root.items.removeIf(item -> item.name.equals("b")));
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(3, snapshot.get().items.size());
+        Assertions.assertEquals("b", snapshot.get().items.get(1).name);
+    }
+
+    @Test
+    public void setTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        Item replaced = root.items.set(0, new Item("z", 1L));
+        Assertions.assertEquals("a", replaced.name);
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals("a", snapshot.get().items.get(0).name);
+
+        // Putting the same element back restores the loaded state
+        root.items.set(0, replaced);
+        Assertions.assertFalse(snapshot.isChanged(root));
+    }
+
+    @Test
+    public void rootFieldTest() {
+        Root root = root();
+        CopyOnWriteSnapshot<Root> snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        root.status = 2;
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(1, snapshot.get().status.intValue());
+
+        root = root();
+        snapshot = new CopyOnWriteSnapshot<>(root, new MethodHandleDeepCopier());
+        root.items = new ArrayList<>(root.items);
+        Assertions.assertFalse(snapshot.isChanged(root), "Replaced by an equal list");
+        root.items.remove(0);
+        Assertions.assertTrue(snapshot.isChanged(root));
+    }
+
+    private static Root root() {
+        Root root = new Root();
+        root.status = 1;
+        root.items = new ArrayList<>();
+        root.items.add(new Item("a", 10L));
+        root.items.add(new Item("b", 20L));
+        root.items.add(new Item("c", 30L));
+        return root;
+    }
+
+    static class Root {
+        private Integer status;
+        private List<Item> items;
+    }
+
+    static class Item {
+        private String name;
+        private Money price;
+
+        Item() {
+        }
+
+        Item(String name, long amount) {
+            this.name = name;
+            this.price = new Money();
+            this.price.amount = amount;
+        }
+    }
+
+    static class Money {
+        private long amount;
+    }
+}
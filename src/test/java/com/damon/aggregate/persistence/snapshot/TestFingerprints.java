@@ -0,0 +1,170 @@
+package com.damon.aggregate.persistence.snapshot;
+
+import com.damon.aggregate.persistence.ID;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.*;
+
+public class TestFingerprints {
+
+    @Test
+    public void equalGraphsTest() {
+        Assertions.assertEquals(Fingerprints.of(root()), Fingerprints.of(root()));
+        Assertions.assertEquals(Fingerprints.of(new BigDecimal("1.0")), Fingerprints.of(new BigDecimal("1.00")),
+                "Decimals equal by compareTo");
+        Assertions.assertEquals(Fingerprints.of(BigDecimal.ZERO), Fingerprints.of(new BigDecimal("0.000")));
+        Map<String, Integer> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        Map<String, Integer> reversed = new LinkedHashMap<>();
+        reversed.put("b", 2);
+        reversed.put("a", 1);
+        Assertions.assertEquals(Fingerprints.of(map), Fingerprints.of(reversed), "Maps regardless of order");
+    }
+
+    @Test
+    public void mutationTest() {
+        long fingerprint = Fingerprints.of(root());
+
+        Root root = root();
+        root.name = "b";
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "String field");
+        root = root();
+        root.amount = new BigDecimal("10.01");
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "Decimal field");
+        root = root();
+        root.status = Status.CLOSED;
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "Enum field");
+        root = root();
+        root.date = root.date.plusDays(1);
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "JDK value field");
+        root = root();
+        root.tags.add("c");
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "Collection element");
+        root = root();
+        root.items.get(1).quantity++;
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "Nested bean field");
+        root = root();
+        Collections.swap(root.items, 0, 1);
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(root), "List order");
+        root = root();
+        root.transientNote = "ignored";
+        Assertions.assertEquals(fingerprint, Fingerprints.of(root), "Transient field");
+    }
+
+    @Test
+    public void bigDecimalMagnitudeTest() {
+        // 2^32 and 31 share the BigInteger hash code
+        BigInteger large = BigInteger.ONE.shiftLeft(32);
+        BigInteger small = BigInteger.valueOf(31);
+        Assertions.assertEquals(large.hashCode(), small.hashCode());
+        Assertions.assertNotEquals(Fingerprints.of(large), Fingerprints.of(small));
+        Assertions.assertNotEquals(Fingerprints.of(new BigDecimal(large)), Fingerprints.of(new BigDecimal(small)));
+        Assertions.assertNotEquals(Fingerprints.of(new BigDecimal("1")), Fingerprints.of(new BigDecimal("-1")));
+        Assertions.assertNotEquals(Fingerprints.of(new BigDecimal("1.5")), Fingerprints.of(new BigDecimal("15")));
+    }
+
+    @Test
+    public void valueWithoutHashCodeTest() {
+        // No no-arg constructor, so no schema, and no hashCode of its own
+        Opaque opaque = new Opaque(1);
+        long fingerprint = Fingerprints.of(opaque);
+        opaque.value = 2;
+        Assertions.assertNotEquals(fingerprint, Fingerprints.of(opaque), "Mutation detected");
+        Assertions.assertNotEquals(Fingerprints.of(opaque), Fingerprints.of(opaque), "Reported as always changed");
+    }
+
+    @Test
+    public void deepGraphTest() {
+        Node head = null;
+        for (int i = 0; i < 64; i++) {
+            Node node = new Node();
+            node.next = head;
+            head = node;
+        }
+        Assertions.assertNotEquals(Fingerprints.of(head), Fingerprints.of(head), "Beyond the maximum depth: always changed");
+    }
+
+    @Test
+    public void snapshotTest() {
+        Root root = root();
+        FingerprintSnapshot<Root> snapshot = new FingerprintSnapshot<>(root, null);
+        Assertions.assertFalse(snapshot.isChanged(root));
+
+        root.items.get(0).quantity++;
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(Collections.singletonList(root.items.get(0)),
+                snapshot.getChildren(Item.class).findChangedItems(root.items));
+        Assertions.assertEquals(Collections.singleton(1L), snapshot.getChildren(Item.class).findChangedIds(root.items));
+
+        root = root();
+        snapshot = new FingerprintSnapshot<>(root, null);
+        root.items.remove(1);
+        Assertions.assertTrue(snapshot.isChanged(root));
+        Assertions.assertEquals(Collections.singleton(2L), snapshot.getChildren(Item.class).findChangedIds(root.items));
+    }
+
+    private static Root root() {
+        Root root = new Root();
+        root.name = "a";
+        root.amount = new BigDecimal("10.00");
+        root.status = Status.OPEN;
+        root.date = LocalDate.of(2024, 1, 1);
+        root.tags = new ArrayList<>(Arrays.asList("a", "b"));
+        root.items = new ArrayList<>(Arrays.asList(new Item(1L, 1), new Item(2L, 2)));
+        return root;
+    }
+
+    enum Status {
+        OPEN, CLOSED
+    }
+
+    public static class Root {
+        private String name;
+        private BigDecimal amount;
+        private Status status;
+        private LocalDate date;
+        private List<String> tags;
+        private List<Item> items;
+        private transient String transientNote;
+    }
+
+    public static class Item implements ID<Long> {
+        private Long id;
+        private int quantity;
+
+        public Item() {
+        }
+
+        Item(Long id, int quantity) {
+            this.id = id;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class Node {
+        private Node next;
+    }
+
+    static final class Opaque {
+        private int value;
+
+        Opaque(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.damon.aggregate.persistence.writebehind;
+
+import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.AggregateFactory;
+import com.damon.aggregate.persistence.BatchSaveResult;
+import com.damon.aggregate.persistence.DirtyTrackingEntity;
+import com.damon.aggregate.persistence.Versionable;
+import com.damon.aggregate.persistence.exception.AggregatePersistenceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+public class TestWriteBehindBuffer {
+    private final StubRepository repository = new StubRepository();
+    private final WriteBehindBuffer<Counter> buffer = new WriteBehindBuffer<>(repository::load, repository::saveAll,
+            Duration.ofHours(1), 100, 1000);
+
+    @AfterEach
+    public void close() {
+        repository.failure = null;
+        buffer.close();
+    }
+
+    @Test
+    public void netDiffTest() {
+        buffer.update(1L, counter -> counter.add(2));
+        buffer.update(1L, counter -> counter.add(3));
+        Assertions.assertEquals(1, buffer.getDirtyCount());
+        buffer.flush();
+
+        Assertions.assertEquals(1, repository.flushes.size());
+        Aggregate<Counter> flushed = repository.flushes.get(0).get(0);
+        Assertions.assertEquals(5, flushed.getRoot().value);
+        Assertions.assertEquals(0, flushed.getSnapshot().value, "Diffed against the loaded state");
+        Assertions.assertEquals(Integer.valueOf(2), repository.versions.get(1L));
+        Assertions.assertEquals(0, buffer.getDirtyCount());
+    }
+
+    @Test
+    public void dirtyPropertiesTest() {
+        buffer.update(1L, counter -> counter.add(1));
+        buffer.flush();
+        Assertions.assertEquals(Collections.singleton("value"), repository.dirtyAtFlush.get(0),
+                "Dirty properties reach the repository");
+
+        buffer.update(1L, counter -> counter.add(1));
+        buffer.flush();
+        Assertions.assertEquals(Collections.singleton("value"), repository.dirtyAtFlush.get(1));
+        Assertions.assertEquals(Integer.valueOf(2), buffer.read(1L, counter -> counter.value));
+    }
+
+    @Test
+    public void failedFlushTest() {
+        buffer.update(1L, counter -> counter.add(1));
+        repository.failure = new AggregatePersistenceException("Connection lost");
+        Assertions.assertThrows(AggregatePersistenceException.class, buffer::flush);
+        Assertions.assertEquals(Integer.valueOf(1), buffer.read(1L, Counter::getVersion), "Version restored");
+        Assertions.assertEquals(1, buffer.getDirtyCount(), "Still pending");
+
+        repository.failure = null;
+        buffer.flush();
+        Assertions.assertEquals(Integer.valueOf(2), repository.versions.get(1L));
+        Assertions.assertEquals(Integer.valueOf(2), buffer.read(1L, Counter::getVersion));
+        Assertions.assertEquals(Collections.singleton("value"), repository.dirtyAtFlush.get(repository.dirtyAtFlush.size() - 1),
+                "Retried with the same dirty properties");
+    }
+
+    @Test
+    public void rejectedTest() {
+        List<Aggregate<Counter>> rejected = new ArrayList<>();
+        buffer.setFailureHandler(rejected::add);
+        buffer.update(1L, counter -> counter.add(1));
+        buffer.update(2L, counter -> counter.add(1));
+        // Changed by another writer since load
+        repository.versions.put(2L, 5);
+        buffer.flush();
+
+        Assertions.assertEquals(1, rejected.size());
+        Assertions.assertEquals(2L, rejected.get(0).getRoot().getId());
+        Assertions.assertNull(buffer.read(2L, counter -> counter.value), "Rejected aggregate released");
+        Assertions.assertEquals(Integer.valueOf(1), buffer.read(1L, counter -> counter.value));
+    }
+
+    /**
+     * Versioned in-memory store with saveAll semantics: root versions are synced on success, and the whole batch is
+     * rolled back when {@code failure} is set
+     */
+    private static final class StubRepository {
+        private final Map<Object, Integer> versions = new HashMap<>();
+        private final Map<Object, Integer> values = new HashMap<>();
+        private final List<List<Aggregate<Counter>>> flushes = new ArrayList<>();
+        private final List<Set<String>> dirtyAtFlush = new ArrayList<>();
+        private RuntimeException failure;
+
+        private Aggregate<Counter> load(Object id) {
+            Counter counter = new Counter();
+            counter.setId((Long) id);
+            counter.setVersion(versions.computeIfAbsent(id, key -> 1));
+            counter.value = values.getOrDefault(id, 0);
+            return AggregateFactory.createAggregate(counter);
+        }
+
+        private BatchSaveResult<Counter> saveAll(Collection<Aggregate<Counter>> aggregates) {
+            flushes.add(new ArrayList<>(aggregates));
+            List<Aggregate<Counter>> saved = new ArrayList<>();
+            List<Aggregate<Counter>> failed = new ArrayList<>();
+            for (Aggregate<Counter> aggregate : aggregates) {
+                Counter counter = aggregate.getRoot();
+                dirtyAtFlush.add(new HashSet<>(counter.dirtyProperties()));
+                if (!counter.getVersion().equals(versions.get(counter.getId()))) {
+                    failed.add(aggregate);
+                    continue;
+                }
+                // Version synced into the root before the transaction is known to commit
+                counter.setVersion(counter.getVersion() + 1);
+                counter.clearDirtyProperties();
+                saved.add(aggregate);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            for (Aggregate<Counter> aggregate : saved) {
+                versions.put(aggregate.getRoot().getId(), aggregate.getRoot().getVersion());
+                values.put(aggregate.getRoot().getId(), aggregate.getRoot().value);
+            }
+            return new BatchSaveResult<>(saved, failed);
+        }
+    }
+
+    public static class Counter extends DirtyTrackingEntity<Long> implements Versionable<Long> {
+        private Long id;
+        private Integer version;
+        private int value;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public void setVersion(Integer version) {
+            this.version = version;
+        }
+
+        public void add(int delta) {
+            markDirty("value");
+            value += delta;
+        }
+    }
+}
@@ -4,17 +4,25 @@ import cn.hutool.core.util.IdUtil;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.damon.aggregate.persistence.Aggregate;
 import com.damon.aggregate.persistence.AggregateFactory;
+import com.damon.aggregate.persistence.UnitOfWork;
+import com.damon.aggregate.persistence.retry.OptimisticLockRetry;
 import com.damon.test.domain.order.*;
 import com.damon.test.infrastructure.order.mapper.OrderMapper;
 import com.damon.test.infrastructure.order.mapper.OrderPO;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(classes = OrderApplication.class)
@@ -23,6 +31,8 @@ public class TestOrderGateway {
     private IOrderGateway orderGateway;
     @Autowired
     private OrderMapper orderMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     @Test
     public void saveTest() {
@@ -61,6 +71,77 @@ public class TestOrderGateway {
         orderGateway.save(orderAggregate);
     }
 
+    @Test
+    public void unitOfWorkTest() {
+        OrderPO before = orderMapper.selectById(2L);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Aggregate<Order> orderAggregate = orderGateway.get(new OrderId(2L));
+            Order order = orderAggregate.getRoot();
+            order.setStatus(order.getStatus() + 1);
+            UnitOfWork.register(orderAggregate, orderGateway, orderGateway::saveAll);
+            order.setDeductionPoints(order.getDeductionPoints() + 1);
+            UnitOfWork.register(orderAggregate, orderGateway, orderGateway::saveAll);
+            // Both changes are written by a single save at commit
+            Assertions.assertEquals(1, UnitOfWork.getPendingAggregates().size());
+            Assertions.assertEquals(before.getStatus(), orderMapper.selectById(2L).getStatus());
+        });
+        OrderPO after = orderMapper.selectById(2L);
+        Assertions.assertEquals(before.getStatus() + 1, after.getStatus());
+        Assertions.assertEquals(before.getDeductionPoints() + 1, after.getDeductionPoints());
+        Assertions.assertEquals(before.getVersion() + 1, after.getVersion());
+    }
+
+    @Test
+    public void unitOfWorkRollbackTest() {
+        OrderPO before = orderMapper.selectById(2L);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Aggregate<Order> orderAggregate = orderGateway.get(new OrderId(2L));
+            orderAggregate.getRoot().setStatus(orderAggregate.getRoot().getStatus() + 1);
+            UnitOfWork.register(orderAggregate, orderGateway, orderGateway::saveAll);
+            status.setRollbackOnly();
+        });
+        // Nothing is flushed on rollback
+        OrderPO after = orderMapper.selectById(2L);
+        Assertions.assertEquals(before.getStatus(), after.getStatus());
+        Assertions.assertEquals(before.getVersion(), after.getVersion());
+    }
+
+    @Test
+    public void getAllTest() {
+        List<Aggregate<Order>> orderAggregates = orderGateway.getAll(Arrays.asList(new OrderId(2L), new OrderId(-1L), new OrderId(2L)));
+        // Missing and duplicate IDs are skipped
+        Assertions.assertEquals(1, orderAggregates.size());
+        Assertions.assertEquals(2L, orderAggregates.get(0).getRoot().getId());
+        Assertions.assertFalse(orderAggregates.get(0).isChanged());
+    }
+
+    @Test
+    public void saveAllTest() {
+        List<Aggregate<Order>> orderAggregates = orderGateway.getAll(Arrays.asList(new OrderId(2L)));
+        orderAggregates.forEach(orderAggregate -> {
+            Order order = orderAggregate.getRoot();
+            order.setStatus(order.getStatus() + 1);
+            order.getOrderItems().add(new OrderItem(order.getId(), 1l, "1", 1, 1l));
+        });
+        List<Aggregate<Order>> failed = orderGateway.saveAll(orderAggregates);
+        Assertions.assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void retryTest() {
+        AtomicInteger attempts = new AtomicInteger();
+        OptimisticLockRetry retry = new OptimisticLockRetry(3, Duration.ofMillis(10), Duration.ofMillis(100));
+        retry.run(() -> orderGateway.get(new OrderId(2L)), order -> {
+            if (attempts.getAndIncrement() == 0) {
+                // Another writer changes the order between load and save of the first attempt
+                orderMapper.update(null, new LambdaUpdateWrapper<OrderPO>()
+                        .setSql("version = version + 1").eq(OrderPO::getId, 2L));
+            }
+            order.setStatus(order.getStatus() + 1);
+        }, orderGateway::save);
+        Assertions.assertEquals(2, attempts.get());
+    }
+
     @Test
     public void saveTest2() {
 
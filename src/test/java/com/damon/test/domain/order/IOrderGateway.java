@@ -3,12 +3,27 @@ package com.damon.test.domain.order;
 
 import com.damon.aggregate.persistence.Aggregate;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface IOrderGateway {
 
     Aggregate<Order> get(OrderId orderId);
 
+    /**
+     * Load several orders with one query per table, missing orders are skipped
+     */
+    List<Aggregate<Order>> getAll(Collection<OrderId> orderIds);
+
     /**
      * @param orderAggregate
      */
     Long save(Aggregate<Order> orderAggregate);
+
+    /**
+     * Save several orders with their changes batched across orders
+     *
+     * @return orders not saved because they were not found or changed by another user
+     */
+    List<Aggregate<Order>> saveAll(Collection<Aggregate<Order>> orderAggregates);
 }
@@ -2,11 +2,17 @@ package com.damon.test.infrastructure.order;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.damon.aggregate.persistence.Aggregate;
+import com.damon.aggregate.persistence.BatchSaveResult;
+import com.damon.aggregate.persistence.ChangeSet;
+import com.damon.aggregate.persistence.ChildMapping;
+import com.damon.aggregate.persistence.cache.AggregateCache;
 import com.damon.aggregate.persistence.exception.EntityNotFoundException;
 import com.damon.aggregate.persistence.exception.OptimisticLockException;
+import com.damon.aggregate.persistence.loader.BatchLoader;
 import com.damon.aggregate.persistence.mybatis.MybatisRepositorySupport;
 import com.damon.test.domain.order.IOrderGateway;
 import com.damon.test.domain.order.Order;
+import com.damon.test.domain.order.OrderItem;
 import com.damon.test.domain.order.OrderId;
 import com.damon.test.infrastructure.order.mapper.OrderItemMapper;
 import com.damon.test.infrastructure.order.mapper.OrderItemPO;
@@ -16,16 +22,51 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Repository
 @RequiredArgsConstructor
 public class OrderGateway extends MybatisRepositorySupport implements IOrderGateway {
+    private static final ChildMapping<Order, OrderItem, OrderItemPO> ORDER_ITEMS = ChildMapping.of(Order::getOrderItems, (order, item) -> {
+        item.setOrderId(order.getId());
+        return OrderFactory.convert(item);
+    });
     private final OrderMapper orderMapper;
     private final OrderItemMapper orderItemMapper;
+    private final AggregateCache aggregateCache = new AggregateCache(1024, Duration.ofMinutes(5));
+
+    @PostConstruct
+    public void init() {
+        // Serve cached orders only while their version is still current
+        aggregateCache.registerVersionProbe(Order.class, id -> {
+            OrderPO orderPO = orderMapper.selectOne(new LambdaQueryWrapper<OrderPO>()
+                    .select(OrderPO::getVersion).eq(OrderPO::getId, id));
+            return orderPO == null ? null : orderPO.getVersion();
+        });
+    }
 
     @Override
     public Aggregate<Order> get(OrderId orderId) {
+        return aggregateCache.get(Order.class, orderId.getId(), id -> load(orderId));
+    }
+
+    @Override
+    public List<Aggregate<Order>> getAll(Collection<OrderId> orderIds) {
+        List<Long> ids = orderIds.stream().map(OrderId::getId).collect(Collectors.toList());
+        BatchLoader<Long, OrderPO> loader = super.loadAll(ids, orderMapper::selectBatchIds);
+        Map<Long, List<OrderItemPO>> orderItems = loader.children(keys -> orderItemMapper.selectList(
+                new LambdaQueryWrapper<OrderItemPO>().in(OrderItemPO::getOrderId, keys)), OrderItemPO::getOrderId);
+        return loader.assemble(orderPO -> OrderFactory.convert(orderPO,
+                orderItems.getOrDefault(orderPO.getId(), Collections.emptyList())));
+    }
+
+    private Aggregate<Order> load(OrderId orderId) {
         OrderPO orderPO = orderMapper.selectById(orderId.getId());
         if (orderPO == null) {
             throw new EntityNotFoundException(String.format("Order (%s) is not found", orderId.getId()));
@@ -54,18 +95,25 @@ public class OrderGateway extends MybatisRepositorySupport implements IOrderGate
         if (!aggregate.isChanged()) {
             return aggregate.getRoot().getId();
         }
-        return update(aggregate);
+        Long id = update(aggregate);
+        aggregateCache.afterSave(aggregate);
+        return id;
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Aggregate<Order>> saveAll(Collection<Aggregate<Order>> orderAggregates) {
+        BatchSaveResult<Order> result = super.saveAll(orderAggregates, OrderFactory::convert, ORDER_ITEMS);
+        result.getSaved().forEach(aggregateCache::afterSave);
+        return result.getFailed();
     }
 
     private Long update(Aggregate<Order> orderAggregate) {
         Order order = orderAggregate.getRoot();
         Order snapshot = orderAggregate.getSnapshot();
-        boolean orderResult = super.saveChanges(order, snapshot, OrderFactory::convert);
-        boolean orderItemResult = super.saveChangesList(order.getOrderItems(), snapshot.getOrderItems(), item -> {
-            item.setOrderId(order.getId());
-            return OrderFactory.convert(item);
-        });
-        if (!orderResult && !orderItemResult) {
+        ChangeSet orderChanges = super.saveChanges(order, snapshot, OrderFactory::convert);
+        ChangeSet orderItemChanges = super.saveChildren(order, snapshot, ORDER_ITEMS);
+        if (!orderChanges.isSuccessful() || !orderItemChanges.isSuccessful()) {
             String errorMessage = String.format("Update order (%s) error, it's not found or changed by another user", orderAggregate.getRoot().getId());
             throw new OptimisticLockException(errorMessage);
         }